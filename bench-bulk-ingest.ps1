@@ -0,0 +1,70 @@
+# Compare per-request ingest (POST /api/chat/message) with bulk ingest (POST /api/chat/messages:bulk)
+# Usage: .\bench-bulk-ingest.ps1 -Sessions 2000 -CheckpointsPerSession 10 -MessagesPerCheckpoint 5
+param(
+    [string]$BaseUrl = "http://localhost:8081",
+    [int]$Sessions = 2000,
+    [int]$CheckpointsPerSession = 10,
+    [int]$MessagesPerCheckpoint = 5,
+    [int]$ContentLength = 200,
+    [int]$SingleSample = 1000,
+    [int]$Seed = 42
+)
+
+$random = New-Object System.Random($Seed)
+$run = [Guid]::NewGuid().ToString("N").Substring(0, 8)
+$roles = @("USER", "ASSISTANT")
+
+function New-Checkpoint([string]$prefix, [int]$session, [int]$checkpoint) {
+    $messages = for ($i = 0; $i -lt $MessagesPerCheckpoint; $i++) {
+        @{
+            role = $roles[$i % 2]
+            content = "message $checkpoint-$i " + ("x" * $random.Next(0, $ContentLength))
+        }
+    }
+    return @{
+        chat = @{
+            chatId = "bench-chat-$($session % 100)"
+            sessionId = "$prefix-$run-$session"
+            messageId = "$prefix-$run-$session-$checkpoint"
+        }
+        messages = @($messages)
+    } | ConvertTo-Json -Depth 5 -Compress
+}
+
+# 1. Per-request path on a sample of checkpoints
+Write-Host "Posting $SingleSample checkpoints one by one..." -ForegroundColor Green
+$bodies = for ($c = 0; $c -lt $SingleSample; $c++) {
+    New-Checkpoint "single" ($c % $Sessions) ([math]::Floor($c / $Sessions))
+}
+$single = [System.Diagnostics.Stopwatch]::StartNew()
+foreach ($body in $bodies) {
+    Invoke-WebRequest -Uri "$BaseUrl/api/chat/message" -Method POST `
+        -ContentType "application/json" -Body $body -UseBasicParsing | Out-Null
+}
+$single.Stop()
+$singleRate = ($SingleSample * $MessagesPerCheckpoint) / $single.Elapsed.TotalSeconds
+
+# 2. Bulk path with the full data set
+$total = $Sessions * $CheckpointsPerSession
+Write-Host "Generating $total checkpoints as NDJSON..." -ForegroundColor Green
+$file = Join-Path ([System.IO.Path]::GetTempPath()) "bench-bulk-$run.ndjson"
+$writer = New-Object System.IO.StreamWriter($file, $false, (New-Object System.Text.UTF8Encoding($false)))
+for ($c = 0; $c -lt $CheckpointsPerSession; $c++) {
+    for ($s = 0; $s -lt $Sessions; $s++) {
+        $writer.Write((New-Checkpoint "bulk" $s $c) + "`n")
+    }
+}
+$writer.Close()
+
+Write-Host "Posting NDJSON to /api/chat/messages:bulk..." -ForegroundColor Green
+$bulk = [System.Diagnostics.Stopwatch]::StartNew()
+$result = Invoke-RestMethod -Uri "$BaseUrl/api/chat/messages:bulk" -Method POST `
+    -ContentType "application/x-ndjson" -InFile $file
+$bulk.Stop()
+Remove-Item $file
+$bulkRate = $result.messages / $bulk.Elapsed.TotalSeconds
+
+Write-Host "`nResults" -ForegroundColor Cyan
+Write-Host ("Per-request: {0} messages in {1:N2} s = {2:N0} messages/s" -f ($SingleSample * $MessagesPerCheckpoint), $single.Elapsed.TotalSeconds, $singleRate)
+Write-Host ("Bulk:        {0} messages in {1:N2} s = {2:N0} messages/s" -f $result.messages, $bulk.Elapsed.TotalSeconds, $bulkRate)
+Write-Host ("Speedup:     {0:N1}x" -f ($bulkRate / $singleRate))
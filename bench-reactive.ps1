@@ -0,0 +1,69 @@
+# Compare the blocking API (chatapp, port 8081) with the reactive one (chatapp-reactive, port 8082)
+# under the same closed-loop workload: each worker saves a checkpoint, then loads its session's last messages.
+# Requires PowerShell 7 (ForEach-Object -Parallel).
+# Usage: .\bench-reactive.ps1 -Concurrency 500 -RequestsPerWorker 20
+param(
+    [string]$BlockingUrl = "http://localhost:8081",
+    [string]$ReactiveUrl = "http://localhost:8082",
+    [int]$Concurrency = 500,
+    [int]$RequestsPerWorker = 20,
+    [int]$MessagesPerCheckpoint = 4,
+    [int]$ContentLength = 200,
+    [int]$LastN = 20
+)
+
+$run = [Guid]::NewGuid().ToString("N").Substring(0, 8)
+
+function Invoke-Stack([string]$name, [string]$baseUrl) {
+    Write-Host "Running $name stack at $baseUrl with $Concurrency workers..." -ForegroundColor Green
+    $stopwatch = [System.Diagnostics.Stopwatch]::StartNew()
+    $results = 1..$Concurrency | ForEach-Object -ThrottleLimit $Concurrency -Parallel {
+        $baseUrl = $using:baseUrl
+        $lastN = $using:LastN
+        $perCheckpoint = $using:MessagesPerCheckpoint
+        $client = [System.Net.Http.HttpClient]::new()
+        $latencies = [System.Collections.Generic.List[double]]::new()
+        $errors = 0
+        $session = "bench-$($using:name)-$($using:run)-$_"
+        $content = "x" * $using:ContentLength
+        for ($i = 0; $i -lt $using:RequestsPerWorker; $i++) {
+            $messages = @(for ($m = 0; $m -lt $perCheckpoint; $m++) {
+                @{ role = @("USER", "ASSISTANT")[$m % 2]; content = "message $i-$m $content" }
+            })
+            $body = @{
+                chat = @{ chatId = "bench-chat-$($_ % 100)"; sessionId = $session; messageId = "$session-$i" }
+                messages = $messages
+            } | ConvertTo-Json -Depth 5 -Compress
+
+            $sw = [System.Diagnostics.Stopwatch]::StartNew()
+            $post = $client.PostAsync("$baseUrl/api/chat/message",
+                [System.Net.Http.StringContent]::new($body, [System.Text.Encoding]::UTF8, "application/json")).Result
+            $get = $client.GetAsync("$baseUrl/api/chat/session/$session`?lastN=$lastN").Result
+            $sw.Stop()
+            if (-not $post.IsSuccessStatusCode -or -not $get.IsSuccessStatusCode) { $errors++ }
+            $latencies.Add($sw.Elapsed.TotalMilliseconds)
+        }
+        $client.Dispose()
+        [pscustomobject]@{ Latencies = $latencies; Errors = $errors }
+    }
+    $stopwatch.Stop()
+
+    $all = $results | ForEach-Object { $_.Latencies } | Sort-Object
+    $count = $all.Count
+    [pscustomobject]@{
+        Stack      = $name
+        Iterations = $count
+        Errors     = ($results | Measure-Object -Property Errors -Sum).Sum
+        PerSecond  = [math]::Round($count / $stopwatch.Elapsed.TotalSeconds, 0)
+        P50Ms      = [math]::Round($all[[int]($count * 0.50)], 1)
+        P99Ms      = [math]::Round($all[[math]::Min($count - 1, [int]($count * 0.99))], 1)
+        MaxMs      = [math]::Round($all[$count - 1], 1)
+    }
+}
+
+$blocking = Invoke-Stack "blocking" $BlockingUrl
+$reactive = Invoke-Stack "reactive" $ReactiveUrl
+
+Write-Host "`nResults (one iteration = save checkpoint + load last $LastN messages)" -ForegroundColor Cyan
+@($blocking, $reactive) | Format-Table -AutoSize
+Write-Host ("Reactive/blocking throughput: {0:N2}x" -f ($reactive.PerSecond / $blocking.PerSecond))
@@ -0,0 +1,28 @@
+# Build and run the JMH benchmarks with the GC allocation profiler, saving JSON results under results/
+# Usage: .\run-benchmarks.ps1 [-Include MessageConversion] [-Quick]
+param(
+    [string]$Include = ".*",
+    [switch]$Quick
+)
+
+$ErrorActionPreference = "Stop"
+Push-Location $PSScriptRoot
+try {
+    mvn -B -q package -DskipTests
+    if ($LASTEXITCODE -ne 0) { throw "Benchmark build failed" }
+
+    $commit = (git rev-parse --short HEAD).Trim()
+    $dirty = if (git status --porcelain -- ../src .) { "-dirty" } else { "" }
+    $result = "results/$(Get-Date -Format yyyy-MM-dd)-$commit$dirty.json"
+
+    $jmhArgs = @($Include, "-prof", "gc", "-rf", "json", "-rff", $result)
+    if ($Quick) {
+        # Smoke run: numbers are not comparable with full runs and should not be checked in
+        $jmhArgs += @("-f", "1", "-wi", "1", "-i", "1")
+    }
+    java -jar target/benchmarks.jar @jmhArgs
+    if ($LASTEXITCODE -ne 0) { throw "Benchmark run failed" }
+    Write-Host "Results written to $result"
+} finally {
+    Pop-Location
+}
@@ -0,0 +1,40 @@
+package com.example.chatapp;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * The application's beans without its scheduled jobs, for benchmarks that go through the real persistence
+ * stack. Lives in the application's root package so it scans the same components. The web layer is started
+ * too, on a random port, as the database gate filter depends on it; nothing is sent to it.
+ */
+@SpringBootApplication
+public class BenchmarkApplication {
+
+    /**
+     * Start the context against the given database; application.properties applies, quieted down, and the
+     * driver rewrites batched inserts as it does with the configured URL
+     */
+    public static ConfigurableApplicationContext start(String jdbcUrl, String... extraArgs) {
+        SpringApplication application = new SpringApplication(BenchmarkApplication.class);
+        application.setLogStartupInfo(false);
+
+        String[] args = {
+            "--spring.datasource.url=" + jdbcUrl + (jdbcUrl.contains("?") ? "&" : "?") + "reWriteBatchedInserts=true",
+            "--spring.datasource.username=postgres",
+            "--spring.datasource.password=",
+            "--server.port=0",
+            "--spring.jpa.show-sql=false",
+            "--spring.main.banner-mode=off",
+            "--logging.level.root=WARN",
+            "--logging.level.com.example.chatapp=WARN",
+            "--logging.level.org.hibernate.SQL=WARN",
+            "--logging.level.org.springframework.ai=WARN"
+        };
+        String[] all = new String[args.length + extraArgs.length];
+        System.arraycopy(args, 0, all, 0, args.length);
+        System.arraycopy(extraArgs, 0, all, args.length, extraArgs.length);
+        return application.run(all);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.chatapp.bench;
+
+import com.example.chatapp.BenchmarkApplication;
+import com.example.chatapp.memory.PostgresChatMemory;
+import com.example.chatapp.service.ChatCheckpointService;
+import com.example.chatapp.service.SearchIndexBackfiller;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChatMemory add / get through Spring AI's in-memory implementation, as a floor, and through
+ * PostgresChatMemory with the full persistence stack on an embedded PostgreSQL 15.
+ * The history cache is off by default so reads hit the database; pass -p historyCache=true to compare.
+ * The database is on loopback; pass e.g. -p roundTripMicros=500 to reach it through a LatencyProxy with a
+ * network's round-trip time instead. The proxy runs in the benchmark's JVM, so its allocations are counted too.
+ * Bodies from the compression threshold up are stored compressed; pass -p compression=false for the plain
+ * text path. After each trial, once the search backfill has indexed the compressed bodies and the table is
+ * compacted, the bytes chat_messages takes per row, indexes and TOAST included, are printed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ChatMemoryBenchmark {
+
+    private static final int HISTORY_SIZE = 500;
+
+    @Param({"in-memory", "postgres"})
+    String memory;
+
+    @Param({"2", "10"})
+    int messagesPerCheckpoint;
+
+    @Param({"200", "4000"})
+    int contentLength;
+
+    @Param({"false"})
+    String historyCache;
+
+    @Param({"0"})
+    int roundTripMicros;
+
+    @Param({"true"})
+    String compression;
+
+    private EmbeddedPostgres postgres;
+    private LatencyProxy proxy;
+    private ConfigurableApplicationContext context;
+    private ChatMemory chatMemory;
+    private List<Message> checkpoint;
+    private String readSession;
+    private String writeSession;
+    private int writesToSession;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (memory.equals("postgres")) {
+            postgres = EmbeddedPostgres.builder().start();
+            String jdbcUrl = postgres.getJdbcUrl("postgres", "postgres");
+            if (roundTripMicros > 0) {
+                proxy = new LatencyProxy(postgres.getPort(), roundTripMicros);
+                jdbcUrl = "jdbc:postgresql://localhost:" + proxy.port() + "/postgres?user=postgres";
+            }
+            context = BenchmarkApplication.start(jdbcUrl,
+                    "--chat.memory.cache.enabled=" + historyCache,
+                    "--chat.storage.compression.enabled=" + compression);
+            chatMemory = context.getBean(PostgresChatMemory.class);
+        } else {
+            chatMemory = new InMemoryChatMemory();
+        }
+
+        checkpoint = Fixtures.messages(messagesPerCheckpoint, contentLength).stream()
+                .map(ChatCheckpointService::convertToSpringAiMessage)
+                .toList();
+
+        // A session with a realistic history to read from
+        readSession = "read-" + UUID.randomUUID();
+        for (int added = 0; added < HISTORY_SIZE; added += checkpoint.size()) {
+            chatMemory.add(readSession, checkpoint);
+        }
+        writeSession = "write-" + UUID.randomUUID();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (context != null) {
+            context.getBean(SearchIndexBackfiller.class).backfill();
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            jdbcTemplate.execute("VACUUM FULL chat_messages");
+            // chat_messages is partitioned: its own size is that of its partitions
+            Map<String, Object> storage = jdbcTemplate.queryForMap(
+                    "SELECT (SELECT count(*) FROM chat_messages) AS count_rows, "
+                            + "(SELECT coalesce(sum(pg_total_relation_size(inhrelid)), 0) FROM pg_inherits "
+                            + "WHERE inhparent = 'chat_messages'::regclass) AS total_bytes");
+            long rows = ((Number) storage.get("count_rows")).longValue();
+            long bytes = ((Number) storage.get("total_bytes")).longValue();
+            System.out.printf("chat_messages: %d rows, %d bytes, %d bytes/row%n", rows, bytes, bytes / rows);
+            context.close();
+        }
+        if (proxy != null) {
+            proxy.close();
+        }
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Benchmark
+    public void add() {
+        chatMemory.add(writeSession, checkpoint);
+        // Start a new session once this one reaches the read session's size, so add does not slow down
+        // with a growing session, and the in-memory store does not grow without bound
+        if (++writesToSession * checkpoint.size() >= HISTORY_SIZE) {
+            if (chatMemory instanceof InMemoryChatMemory) {
+                chatMemory.clear(writeSession);
+            }
+            writeSession = "write-" + UUID.randomUUID();
+            writesToSession = 0;
+        }
+    }
+
+    @Benchmark
+    public List<Message> getLast20() {
+        return chatMemory.get(readSession, 20);
+    }
+
+    @Benchmark
+    public List<Message> getAll() {
+        return chatMemory.get(readSession, Integer.MAX_VALUE);
+    }
+}
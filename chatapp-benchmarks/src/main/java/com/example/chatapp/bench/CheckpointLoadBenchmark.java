@@ -0,0 +1,87 @@
+package com.example.chatapp.bench;
+
+import com.example.chatapp.BenchmarkApplication;
+import com.example.chatapp.model.ChatCheckpoint;
+import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.service.ChatCheckpointService;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /api/chat/session/{id} below the controller: ChatCheckpointService.loadCheckpoint of a whole session
+ * and of its last 20 messages, on an embedded PostgreSQL 15 with the history cache off so every load reads
+ * the database. Run with -prof gc for the allocation per load; the JDBC statements one load prepares are
+ * counted by Hibernate once per trial and printed with the run's output.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class CheckpointLoadBenchmark {
+
+    private static final int MESSAGES_PER_CHECKPOINT = 10;
+
+    @Param({"20", "200"})
+    int sessionSize;
+
+    @Param({"200", "4000"})
+    int contentLength;
+
+    private EmbeddedPostgres postgres;
+    private ConfigurableApplicationContext context;
+    private ChatCheckpointService checkpointService;
+    private String sessionId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        postgres = EmbeddedPostgres.builder().start();
+        context = BenchmarkApplication.start(postgres.getJdbcUrl("postgres", "postgres"),
+                "--chat.memory.cache.enabled=false");
+        checkpointService = context.getBean(ChatCheckpointService.class);
+
+        sessionId = "load-" + UUID.randomUUID();
+        List<ChatMessage> checkpoint = Fixtures.messages(MESSAGES_PER_CHECKPOINT, contentLength);
+        for (int saved = 0; saved < sessionSize; saved += MESSAGES_PER_CHECKPOINT) {
+            checkpointService.saveCheckpoint("load-chat", sessionId, "m" + saved, checkpoint);
+        }
+
+        Statistics statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class)
+                .getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        checkpointService.loadCheckpoint(sessionId);
+        long whole = statistics.getPrepareStatementCount();
+        statistics.clear();
+        checkpointService.loadCheckpoint(sessionId, 20);
+        long last20 = statistics.getPrepareStatementCount();
+        statistics.setStatisticsEnabled(false);
+        System.out.printf("JDBC statements per load: loadAll=%d loadLast20=%d%n", whole, last20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    public ChatCheckpoint loadAll() {
+        return checkpointService.loadCheckpoint(sessionId);
+    }
+
+    @Benchmark
+    public ChatCheckpoint loadLast20() {
+        return checkpointService.loadCheckpoint(sessionId, 20);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.chatapp.bench;
+
+import com.example.chatapp.model.ChatCheckpoint;
+import com.example.chatapp.model.ChatInfo;
+import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.model.ChatRequest;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson work per request at different session sizes, with an ObjectMapper configured like Spring Boot's:
+ * the ChatCheckpoint response, the ChatRequest body, and the NDJSON export written the way
+ * ChatCheckpointService.streamCheckpoint writes it
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class CheckpointSerializationBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    int sessionSize;
+
+    @Param({"200", "2000"})
+    int contentLength;
+
+    private ObjectMapper objectMapper;
+    private ObjectWriter checkpointWriter;
+    private ObjectReader requestReader;
+    private ObjectWriter lineWriter;
+    private ChatCheckpoint checkpoint;
+    private byte[] requestJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        checkpointWriter = objectMapper.writerFor(ChatCheckpoint.class);
+        requestReader = objectMapper.readerFor(ChatRequest.class);
+        lineWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        List<ChatMessage> messages = Fixtures.messages(sessionSize, contentLength);
+        checkpoint = new ChatCheckpoint("chat", "session", "message", messages);
+        requestJson = objectMapper.writeValueAsBytes(
+                new ChatRequest(new ChatInfo("chat", "session", "message"), messages));
+    }
+
+    @Benchmark
+    public byte[] writeCheckpoint() throws IOException {
+        return checkpointWriter.writeValueAsBytes(checkpoint);
+    }
+
+    @Benchmark
+    public ChatRequest readRequest() throws IOException {
+        return requestReader.readValue(requestJson);
+    }
+
+    @Benchmark
+    public int writeNdjson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            for (ChatMessage message : checkpoint.getMessages()) {
+                lineWriter.writeValue(generator, message);
+                generator.writeRaw('\n');
+            }
+        }
+        return out.size();
+    }
+}
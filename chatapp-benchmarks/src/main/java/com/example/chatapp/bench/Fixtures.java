@@ -0,0 +1,50 @@
+package com.example.chatapp.bench;
+
+import com.example.chatapp.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic test data, so every run and every machine measures the same inputs
+ */
+final class Fixtures {
+
+    private static final long SEED = 42;
+    private static final String[] WORDS = {
+        "the", "session", "checkpoint", "assistant", "please", "summarize", "context", "message",
+        "order", "history", "user", "answer", "question", "token", "window", "memory", "database",
+        "request", "reply", "model", "prompt", "tool", "call", "result", "error", "retry"
+    };
+    private static final String[] ROLES = {"USER", "ASSISTANT"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * Alternating USER / ASSISTANT messages of roughly contentLength characters of word-like text.
+     * Word-like rather than random bytes so compression ratios resemble real conversations.
+     */
+    static List<ChatMessage> messages(int count, int contentLength) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        List<ChatMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new ChatMessage(ROLES[i % ROLES.length], text(random, contentLength)));
+        }
+        return messages;
+    }
+
+    static String text(int length) {
+        return text(new SplittableRandom(SEED), length);
+    }
+
+    private static String text(SplittableRandom random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
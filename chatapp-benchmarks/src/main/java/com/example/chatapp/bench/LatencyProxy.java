@@ -0,0 +1,111 @@
+package com.example.chatapp.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TCP proxy in front of the embedded database that delivers everything sent either way half a round trip
+ * late, as a network between the application and PostgreSQL would. Bandwidth is not limited, so a batch
+ * sent in one go costs one round trip however many statements it holds.
+ */
+final class LatencyProxy implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final int targetPort;
+    private final long oneWayNanos;
+
+    LatencyProxy(int targetPort, long roundTripMicros) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.targetPort = targetPort;
+        this.oneWayNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros) / 2;
+        daemon("latency-proxy-accept", this::accept).start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                forward(client, server);
+                forward(server, client);
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    /**
+     * Read from one socket and write each chunk to the other once it is due
+     */
+    private void forward(Socket from, Socket to) {
+        BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+        daemon("latency-proxy-read", () -> {
+            byte[] buffer = new byte[65536];
+            try (InputStream in = from.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    queue.add(new Chunk(Arrays.copyOf(buffer, read), System.nanoTime() + oneWayNanos));
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+            queue.add(Chunk.END);
+        }).start();
+        daemon("latency-proxy-write", () -> {
+            try (OutputStream out = to.getOutputStream()) {
+                Chunk chunk;
+                while ((chunk = queue.take()) != Chunk.END) {
+                    long wait;
+                    while ((wait = chunk.due() - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    out.write(chunk.data());
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Closed
+            }
+            closeQuietly(from);
+            closeQuietly(to);
+        }).start();
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private record Chunk(byte[] data, long due) {
+        static final Chunk END = new Chunk(new byte[0], 0);
+    }
+}
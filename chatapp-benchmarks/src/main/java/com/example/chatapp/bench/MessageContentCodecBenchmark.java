@@ -0,0 +1,45 @@
+package com.example.chatapp.bench;
+
+import com.example.chatapp.entity.MessageContentCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of storing a body compressed: compression on write, decompression on every read.
+ * Sizes straddle the default 2 KB compression threshold; the size each one compresses to is printed per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class MessageContentCodecBenchmark {
+
+    @Param({"512", "4096", "65536"})
+    int contentLength;
+
+    private String content;
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() {
+        content = Fixtures.text(contentLength);
+        compressed = MessageContentCodec.compress(content);
+        if (compressed == null) {
+            throw new IllegalStateException("Fixture text does not compress");
+        }
+        System.out.printf("%d characters compress to %d bytes%n", content.length(), compressed.length);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return MessageContentCodec.compress(content);
+    }
+
+    @Benchmark
+    public String decompress() {
+        return MessageContentCodec.decompress(compressed);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.chatapp.bench;
+
+import com.example.chatapp.entity.ChatMessageEntity;
+import com.example.chatapp.memory.PostgresChatMemory;
+import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.service.ChatCheckpointService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The conversions every checkpoint goes through:
+ * request ChatMessage -> Spring AI Message -> ChatMessageEntity on writes, and back on reads
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class MessageConversionBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int messageCount;
+
+    @Param({"100", "4000"})
+    int contentLength;
+
+    private List<ChatMessage> chatMessages;
+    private List<Message> springAiMessages;
+    private List<ChatMessageEntity> entities;
+
+    @Setup
+    public void setUp() {
+        chatMessages = Fixtures.messages(messageCount, contentLength);
+        springAiMessages = toSpringAi();
+        entities = toEntities();
+    }
+
+    @Benchmark
+    public List<Message> toSpringAi() {
+        List<Message> messages = new ArrayList<>(chatMessages.size());
+        for (ChatMessage message : chatMessages) {
+            messages.add(ChatCheckpointService.convertToSpringAiMessage(message));
+        }
+        return messages;
+    }
+
+    @Benchmark
+    public List<ChatMessageEntity> toEntities() {
+        return PostgresChatMemory.toEntities("chat", "session", "message", 1, springAiMessages);
+    }
+
+    @Benchmark
+    public List<Message> entitiesToSpringAi() {
+        List<Message> messages = new ArrayList<>(entities.size());
+        for (ChatMessageEntity entity : entities) {
+            messages.add(PostgresChatMemory.convertToMessage(entity.getRole(), entity.getContent()));
+        }
+        return messages;
+    }
+
+    @Benchmark
+    public List<ChatMessage> entitiesToResponse() {
+        List<ChatMessage> messages = new ArrayList<>(entities.size());
+        for (ChatMessageEntity entity : entities) {
+            messages.add(new ChatMessage(entity.getRole(), entity.getContent()));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.chatapp.entity;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec for message bodies stored in binary form
+ * Layout: one codec marker byte, the uncompressed UTF-8 length as a 4-byte int, then the payload.
+ * Used by both the blocking and the reactive application, so each reads the rows the other writes.
+ */
+public final class MessageContentCodec {
+
+    public static final byte DEFLATE = 1;
+
+    // Keep plain text unless compression saves at least this fraction
+    private static final double MIN_SAVING = 0.1;
+    private static final int HEADER_BYTES = 5;
+
+    private MessageContentCodec() {
+    }
+
+    /**
+     * Compress a message body
+     * @return The encoded bytes, or null if compression does not pay off
+     */
+    public static byte[] compress(String content) {
+        byte[] plain = content.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 2 + HEADER_BYTES);
+            out.write(DEFLATE);
+            out.writeBytes(ByteBuffer.allocate(4).putInt(plain.length).array());
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+
+            return out.size() <= plain.length * (1 - MIN_SAVING) ? out.toByteArray() : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decode bytes produced by {@link #compress}
+     */
+    public static String decompress(byte[] stored) {
+        if (stored[0] != DEFLATE) {
+            throw new IllegalStateException("Unknown message content codec: " + stored[0]);
+        }
+
+        int length = ByteBuffer.wrap(stored, 1, 4).getInt();
+        byte[] plain = new byte[length];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(stored, HEADER_BYTES, stored.length - HEADER_BYTES);
+            int read = 0;
+            while (read < length) {
+                int n = inflater.inflate(plain, read, length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Truncated compressed message content");
+                }
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed message content", e);
+        } finally {
+            inflater.end();
+        }
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+}
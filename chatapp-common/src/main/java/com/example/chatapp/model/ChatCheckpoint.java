@@ -9,6 +9,7 @@ public class ChatCheckpoint {
     private String messageId;   // ID последнего сообщения
     private List<ChatMessage> messages;
     private Instant createdAt;
+    private boolean duplicate;  // true when a save replayed an already stored messageId
 
     // Constructors
     public ChatCheckpoint() {}
@@ -61,4 +62,12 @@ public class ChatCheckpoint {
     public void setCreatedAt(Instant createdAt) {
         this.createdAt = createdAt;
     }
+
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    public void setDuplicate(boolean duplicate) {
+        this.duplicate = duplicate;
+    }
 }
\ No newline at end of file
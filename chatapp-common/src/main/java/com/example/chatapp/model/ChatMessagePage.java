@@ -0,0 +1,43 @@
+package com.example.chatapp.model;
+
+import java.util.List;
+
+public class ChatMessagePage {
+    private String sessionId;
+    private List<ChatMessage> messages;
+    private Integer nextCursor; // messageOrder to pass as "after" for the next page, null on the last page
+
+    // Constructors
+    public ChatMessagePage() {}
+
+    public ChatMessagePage(String sessionId, List<ChatMessage> messages, Integer nextCursor) {
+        this.sessionId = sessionId;
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and Setters
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<ChatMessage> messages) {
+        this.messages = messages;
+    }
+
+    public Integer getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Integer nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.chatapp.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes of one operation, recorded in microseconds from any thread.
+ * Each call is recorded twice: from its intended send time, which is what a user waiting on the
+ * schedule experiences and corrects for coordinated omission, and from its actual send time, the
+ * service time a closed-loop client would report. The gap between the two shows how much of the
+ * latency was queueing before the request could even be sent.
+ */
+public class LatencyStats {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Recorder corrected = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder uncorrected = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder intervalErrors = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();   // 4xx
+    private final LongAdder serverErrors = new LongAdder();   // 5xx
+    private final LongAdder failures = new LongAdder();       // No response: connection errors, timeouts
+
+    private Histogram stepCorrected = new Histogram(SIGNIFICANT_DIGITS);
+    private Histogram stepUncorrected = new Histogram(SIGNIFICANT_DIGITS);
+
+    /**
+     * @param status HTTP status, 0 when the call failed without a response
+     */
+    public void record(int status, long correctedNanos, long uncorrectedNanos) {
+        corrected.recordValue(Math.max(1, correctedNanos / 1000));
+        uncorrected.recordValue(Math.max(1, uncorrectedNanos / 1000));
+        if (status == 0) {
+            failures.increment();
+        } else if (status >= 500) {
+            serverErrors.increment();
+        } else if (status >= 400) {
+            clientErrors.increment();
+        }
+        if (status == 0 || status >= 400) {
+            intervalErrors.increment();
+        }
+    }
+
+    /**
+     * Latencies recorded since the previous sample, also added to the step totals
+     */
+    public synchronized Histogram sample() {
+        Histogram interval = corrected.getIntervalHistogram();
+        stepCorrected.add(interval);
+        stepUncorrected.add(uncorrected.getIntervalHistogram());
+        return interval;
+    }
+
+    /**
+     * Errors since the previous call
+     */
+    public long takeIntervalErrors() {
+        return intervalErrors.sumThenReset();
+    }
+
+    /**
+     * Start a new step: forget everything recorded so far
+     */
+    public synchronized void reset() {
+        corrected.reset();
+        uncorrected.reset();
+        intervalErrors.reset();
+        clientErrors.reset();
+        serverErrors.reset();
+        failures.reset();
+        stepCorrected = new Histogram(SIGNIFICANT_DIGITS);
+        stepUncorrected = new Histogram(SIGNIFICANT_DIGITS);
+    }
+
+    public synchronized Histogram stepCorrected() {
+        return stepCorrected.copy();
+    }
+
+    public synchronized Histogram stepUncorrected() {
+        return stepUncorrected.copy();
+    }
+
+    public long clientErrors() {
+        return clientErrors.sum();
+    }
+
+    public long serverErrors() {
+        return serverErrors.sum();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+}
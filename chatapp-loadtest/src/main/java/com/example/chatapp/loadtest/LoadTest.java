@@ -0,0 +1,339 @@
+package com.example.chatapp.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load test of the chat checkpoint API against a running instance
+ * Requests are sent on a schedule given by the arrival rate, whether or not earlier ones have been
+ * answered, the way independent users arrive. Latency is measured from each request's scheduled send
+ * time, so a stalled server (or client) is charged for every request that should have gone out
+ * meanwhile instead of silently sending fewer; a closed-loop client that waits for each response hides
+ * exactly those delays (coordinated omission). Several rates can be run as consecutive steps to find
+ * the rate where throughput stops following the offered load and latency takes off.
+ */
+public class LoadTest {
+
+    private static final double SUSTAINED_RATIO = 0.95;
+    private static final double SUSTAINED_MAX_ERROR_RATIO = 0.001;
+
+    private final LoadTestOptions options;
+    private final HttpClient client;
+    private final ExecutorService clientExecutor;
+    private final Workload workload;
+    private final Map<Operation, LatencyStats> stats = new EnumMap<>(Operation.class);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong notSent = new AtomicLong();
+    private final AtomicLong completedInWindow = new AtomicLong();
+    private volatile long measureEnd;
+    private final SplittableRandom arrivals;
+
+    public LoadTest(LoadTestOptions options) {
+        this.options = options;
+        this.clientExecutor = Executors.newCachedThreadPool(daemonThreads("load-client"));
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(clientExecutor)
+                .build();
+        this.workload = new Workload(options, new ObjectMapper());
+        this.arrivals = new SplittableRandom(options.seed() + 1);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new LatencyStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("--help")) {
+            System.out.print(LoadTestOptions.USAGE);
+            return;
+        }
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        LoadTest loadTest = new LoadTest(options);
+        if (!loadTest.preflight()) {
+            System.exit(1);
+        }
+        List<StepResult> results = new ArrayList<>();
+        for (int step = 0; step < options.rates().size(); step++) {
+            results.add(loadTest.runStep(step + 1, options.rates().get(step)));
+        }
+        loadTest.printSummary(results);
+        loadTest.clientExecutor.shutdownNow();
+    }
+
+    /**
+     * Check that the instance answers at all before offering it load
+     */
+    private boolean preflight() {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(options.baseUrl() + "/api/chat/session/load-preflight"))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(10))
+                .build();
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            System.out.printf("Target %s is up (HEAD returned %d)%n", options.baseUrl(), response.statusCode());
+            return true;
+        } catch (IOException e) {
+            System.err.printf("Target %s is not reachable: %s%n", options.baseUrl(), e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Offer the given rate for the warmup and the measurement, then wait for the stragglers
+     */
+    private StepResult runStep(int step, int rate) throws InterruptedException {
+        stats.values().forEach(LatencyStats::reset);
+        notSent.set(0);
+        completedInWindow.set(0);
+
+        long start = System.nanoTime();
+        long measureStart = start + options.warmup().toNanos();
+        long end = measureStart + options.duration().toNanos();
+        measureEnd = end;
+        System.out.printf("%nStep %d: %d req/s, %s warmup, %s measured%n",
+                step, rate, format(options.warmup()), format(options.duration()));
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(daemonThreads("load-report"));
+        long intervalNanos = options.reportInterval().toNanos();
+        reporter.scheduleAtFixedRate(() -> report(rate, measureStart, intervalNanos),
+                measureStart - System.nanoTime() + intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+
+        double meanGapNanos = 1e9 / rate;
+        double offset = 0;
+        long intended = start;
+        while (intended < end) {
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            dispatch(intended, intended >= measureStart);
+
+            // The schedule never waits for responses; when the loop falls behind it catches up at once
+            offset += options.poisson() ? -Math.log(1 - arrivals.nextDouble()) * meanGapNanos : meanGapNanos;
+            intended = start + (long) offset;
+        }
+        reporter.shutdownNow();
+        reporter.awaitTermination(1, TimeUnit.SECONDS);
+
+        long drainDeadline = System.nanoTime() + options.timeout().toNanos() + TimeUnit.SECONDS.toNanos(5);
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        stats.values().forEach(LatencyStats::sample);
+
+        StepResult result = stepResult(rate);
+        printStep(result);
+        writeHistograms(step, rate, result);
+        return result;
+    }
+
+    private void dispatch(long intended, boolean measured) {
+        if (inFlight.get() >= options.maxInFlight()) {
+            if (measured) {
+                notSent.incrementAndGet();
+            }
+            return;
+        }
+        Workload.Call call = workload.next();
+        LatencyStats operationStats = stats.get(call.operation());
+        inFlight.incrementAndGet();
+        long sent = System.nanoTime();
+        client.sendAsync(call.request(), HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            long done = System.nanoTime();
+            int status = response != null ? response.statusCode() : 0;
+            try {
+                call.completion().complete(status, response != null ? response.body() : null);
+            } finally {
+                if (measured) {
+                    operationStats.record(status, done - intended, done - sent);
+                    if (done <= measureEnd) {
+                        completedInWindow.incrementAndGet();
+                    }
+                }
+                inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    private void report(int rate, long measureStart, long intervalNanos) {
+        Histogram interval = new Histogram(3);
+        long errors = 0;
+        for (LatencyStats operationStats : stats.values()) {
+            interval.add(operationStats.sample());
+            errors += operationStats.takeIntervalErrors();
+        }
+        long elapsed = System.nanoTime() - measureStart;
+        System.out.printf("  %6s  %7.0f req/s of %d  p50 %8s  p99 %8s  max %8s  errors %d  in flight %d%n",
+                format(Duration.ofNanos(elapsed)), interval.getTotalCount() * 1e9 / intervalNanos, rate,
+                millis(interval, 50), millis(interval, 99), millis(interval.getMaxValue()), errors, inFlight.get());
+    }
+
+    private StepResult stepResult(int rate) {
+        Histogram corrected = new Histogram(3);
+        Histogram uncorrected = new Histogram(3);
+        long errors = 0;
+        for (LatencyStats operationStats : stats.values()) {
+            corrected.add(operationStats.stepCorrected());
+            uncorrected.add(operationStats.stepUncorrected());
+            errors += operationStats.serverErrors() + operationStats.failures();
+        }
+        // Calls still running at the end of the window count towards latency, not towards throughput
+        double achieved = completedInWindow.get() / (options.duration().toNanos() / 1e9);
+        return new StepResult(rate, achieved, corrected, uncorrected, errors, notSent.get());
+    }
+
+    private void printStep(StepResult result) {
+        System.out.printf("%n  Latency from intended send time, ms%n");
+        System.out.printf("  %-32s %8s %8s %8s %8s %8s %8s %8s %6s %6s %6s%n",
+                "operation", "count", "sent/s", "p50", "p90", "p99", "p99.9", "max", "4xx", "5xx", "failed");
+        double seconds = options.duration().toNanos() / 1e9;
+        for (Map.Entry<Operation, LatencyStats> entry : stats.entrySet()) {
+            Histogram histogram = entry.getValue().stepCorrected();
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            printRow(entry.getKey().endpoint(), histogram, seconds, entry.getValue().clientErrors(),
+                    entry.getValue().serverErrors(), entry.getValue().failures());
+        }
+        printRow("all", result.corrected(), seconds, -1, -1, -1);
+        printRow("all, from actual send time", result.uncorrected(), seconds, -1, -1, -1);
+        if (result.notSent() > 0) {
+            System.out.printf("  %d arrivals were not sent because %d requests were in flight; the target is saturated%n",
+                    result.notSent(), options.maxInFlight());
+        }
+    }
+
+    private void printRow(String name, Histogram histogram, double seconds, long clientErrors, long serverErrors, long failures) {
+        System.out.printf("  %-32s %8d %8.1f %8s %8s %8s %8s %8s %6s %6s %6s%n",
+                name, histogram.getTotalCount(), histogram.getTotalCount() / seconds,
+                millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                millis(histogram.getMaxValue()), count(clientErrors), count(serverErrors), count(failures));
+    }
+
+    private void printSummary(List<StepResult> results) {
+        System.out.printf("%nSummary, latency from intended send time, ms%n");
+        System.out.printf("  %8s %9s %8s %8s %8s %8s %8s %8s %9s  %s%n",
+                "offered", "achieved", "p50", "p99", "p99.9", "max", "p99 sent", "errors", "not sent", "");
+        StepResult lastSustained = null;
+        for (StepResult result : results) {
+            boolean sustained = sustained(result);
+            if (sustained && (lastSustained == null || result.rate() > lastSustained.rate())) {
+                lastSustained = result;
+            }
+            System.out.printf("  %8d %9.1f %8s %8s %8s %8s %8s %8d %9d  %s%n",
+                    result.rate(), result.achieved(), millis(result.corrected(), 50), millis(result.corrected(), 99),
+                    millis(result.corrected(), 99.9), millis(result.corrected().getMaxValue()),
+                    millis(result.uncorrected(), 99), result.errors(), result.notSent(), sustained ? "" : "saturated");
+        }
+        System.out.println("  (p99 sent: from the actual send time, as a closed-loop client would report; errors: 5xx and failed calls)");
+        if (lastSustained == null) {
+            System.out.println("No step was sustained; try lower rates");
+        } else {
+            System.out.printf("Highest sustained rate: %d req/s (p99 %s ms)%n",
+                    lastSustained.rate(), millis(lastSustained.corrected(), 99));
+        }
+    }
+
+    /**
+     * Throughput kept up with the offered rate, with next to no server errors or failed calls, no dropped
+     * arrivals and a p99 within the target if one was given
+     */
+    private boolean sustained(StepResult result) {
+        if (result.achieved() < result.rate() * SUSTAINED_RATIO || result.notSent() > 0
+                || result.errors() > result.corrected().getTotalCount() * SUSTAINED_MAX_ERROR_RATIO) {
+            return false;
+        }
+        return options.sloP99Millis() == null
+                || result.corrected().getValueAtPercentile(99) / 1000.0 <= options.sloP99Millis();
+    }
+
+    private void writeHistograms(int step, int rate, StepResult result) {
+        if (options.hgrmDirectory() == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(options.hgrmDirectory());
+            String name = "step-%02d-%drps".formatted(step, rate);
+            writeHistogram(result.corrected(), name + ".hgrm");
+            writeHistogram(result.uncorrected(), name + "-uncorrected.hgrm");
+        } catch (IOException e) {
+            System.err.println("Failed to write histograms: " + e);
+        }
+    }
+
+    private void writeHistogram(Histogram histogram, String file) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(options.hgrmDirectory().resolve(file)))) {
+            // Recorded in microseconds, written in milliseconds
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static String millis(Histogram histogram, double percentile) {
+        return histogram.getTotalCount() == 0 ? "-" : millis(histogram.getValueAtPercentile(percentile));
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.2f", micros / 1000.0);
+    }
+
+    private static String count(long value) {
+        return value < 0 ? "" : Long.toString(value);
+    }
+
+    private static String format(Duration duration) {
+        long seconds = duration.toSeconds();
+        return seconds >= 60 ? "%dm%02ds".formatted(seconds / 60, seconds % 60) : seconds + "s";
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Outcome of one rate step
+     */
+    private record StepResult(int rate, double achieved, Histogram corrected, Histogram uncorrected,
+                              long errors, long notSent) {
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.chatapp.loadtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Command line options, given as --name=value, or as name=value lines of a --config file
+ */
+public record LoadTestOptions(
+        String baseUrl,
+        List<Integer> rates,            // Requests per second; one step per rate, run in order
+        Duration duration,              // Measured time per step
+        Duration warmup,                // Unmeasured time per step before the measurement
+        Duration reportInterval,
+        boolean poisson,                // Exponential inter-arrival times instead of a fixed interval
+        Map<Operation, Integer> mix,    // Relative weights of the operations
+        int activeSessions,             // Conversations in progress at once
+        int chats,
+        double turnsMedian,             // Checkpoints per session: log-normal
+        double turnsSigma,
+        int maxTurns,
+        int userLengthMedian,           // Message lengths in characters: log-normal
+        int assistantLengthMedian,
+        double lengthSigma,
+        int lastN,                      // lastN of session reads, 0 for whole sessions
+        int maxInFlight,
+        Duration timeout,
+        Double sloP99Millis,            // Optional p99 target that marks a step as saturated
+        Path hgrmDirectory,             // Optional directory for per-step .hgrm percentile files
+        long seed) {
+
+    public static final String USAGE = """
+            Usage: java -jar target/loadtest.jar [--name=value ...]
+
+              --config=                         File of name=value lines (# for comments) with any of the
+                                                options below; options on the command line take precedence
+              --base-url=http://localhost:8081  Instance under test
+              --rate=100                        Requests per second; a comma-separated list runs one step per rate
+              --duration=60s                    Measured time per step
+              --warmup=10s                      Unmeasured time per step
+              --report-interval=5s
+              --arrival=poisson                 poisson or uniform inter-arrival times
+              --mix=message=55,get=25,head=10,reset=5,delete=5
+              --active-sessions=500             Conversations in progress at once
+              --chats=100
+              --turns-median=8                  Checkpoints per session, log-normal with this median
+              --turns-sigma=1.0
+              --max-turns=200
+              --user-length=200                 Median user message length, log-normal
+              --assistant-length=1200           Median assistant message length, log-normal
+              --length-sigma=0.8
+              --last-n=20                       lastN of session reads, 0 for whole sessions
+              --max-in-flight=5000              Arrivals beyond this are counted as not sent
+              --timeout=30s
+              --slo-p99=                        p99 target in ms; steps above it count as saturated
+              --hgrm=                           Directory for per-step HdrHistogram percentile files
+              --seed=42
+            """;
+
+    public static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument '" + arg + "'");
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                values.put(arg.substring(2), "true");
+            } else {
+                values.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        String config = values.remove("config");
+        if (config != null) {
+            readConfig(Path.of(config), values);
+        }
+
+        LoadTestOptions options = new LoadTestOptions(
+                stripSlash(take(values, "base-url", "http://localhost:8081")),
+                parseRates(take(values, "rate", "100")),
+                parseDuration(take(values, "duration", "60s")),
+                parseDuration(take(values, "warmup", "10s")),
+                parseDuration(take(values, "report-interval", "5s")),
+                parseArrival(take(values, "arrival", "poisson")),
+                parseMix(take(values, "mix", "message=55,get=25,head=10,reset=5,delete=5")),
+                Integer.parseInt(take(values, "active-sessions", "500")),
+                Integer.parseInt(take(values, "chats", "100")),
+                Double.parseDouble(take(values, "turns-median", "8")),
+                Double.parseDouble(take(values, "turns-sigma", "1.0")),
+                Integer.parseInt(take(values, "max-turns", "200")),
+                Integer.parseInt(take(values, "user-length", "200")),
+                Integer.parseInt(take(values, "assistant-length", "1200")),
+                Double.parseDouble(take(values, "length-sigma", "0.8")),
+                Integer.parseInt(take(values, "last-n", "20")),
+                Integer.parseInt(take(values, "max-in-flight", "5000")),
+                parseDuration(take(values, "timeout", "30s")),
+                optional(take(values, "slo-p99", ""), Double::valueOf),
+                optional(take(values, "hgrm", ""), Path::of),
+                Long.parseLong(take(values, "seed", "42")));
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + values.keySet());
+        }
+        return options;
+    }
+
+    private static void readConfig(Path file, Map<String, String> values) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to read --config " + file + ": " + e);
+        }
+        for (String line : lines) {
+            String trimmed = line.strip();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            int eq = trimmed.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException(file + ": expected name=value, got '" + trimmed + "'");
+            }
+            values.putIfAbsent(trimmed.substring(0, eq).strip(), trimmed.substring(eq + 1).strip());
+        }
+    }
+
+    private static String take(Map<String, String> values, String name, String defaultValue) {
+        String value = values.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static <T> T optional(String value, Function<String, T> parser) {
+        return value.isBlank() ? null : parser.apply(value);
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private static List<Integer> parseRates(String value) {
+        List<Integer> rates = new ArrayList<>();
+        for (String rate : value.split(",")) {
+            int parsed = Integer.parseInt(rate.trim());
+            if (parsed <= 0) {
+                throw new IllegalArgumentException("Rates must be positive: " + value);
+            }
+            rates.add(parsed);
+        }
+        return rates;
+    }
+
+    /**
+     * 90s, 5m, 500ms or plain seconds
+     */
+    private static Duration parseDuration(String value) {
+        String v = value.trim().toLowerCase();
+        if (v.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(v.substring(0, v.length() - 2)));
+        }
+        if (v.endsWith("s")) {
+            return Duration.ofSeconds(Long.parseLong(v.substring(0, v.length() - 1)));
+        }
+        if (v.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(v.substring(0, v.length() - 1)));
+        }
+        return Duration.ofSeconds(Long.parseLong(v));
+    }
+
+    private static boolean parseArrival(String value) {
+        return switch (value.toLowerCase()) {
+            case "poisson" -> true;
+            case "uniform" -> false;
+            default -> throw new IllegalArgumentException("--arrival must be poisson or uniform");
+        };
+    }
+
+    private static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String part : value.split(",")) {
+            String[] kv = part.split("=");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("--mix entries look like message=55: " + part);
+            }
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("--mix weights must not be negative: " + part);
+            }
+            mix.put(Operation.fromKey(kv[0].trim()), weight);
+        }
+        if (mix.getOrDefault(Operation.MESSAGE, 0) == 0) {
+            // Every other operation needs sessions that some message created
+            throw new IllegalArgumentException("--mix needs a positive message weight");
+        }
+        return mix;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.chatapp.loadtest;
+
+/**
+ * The API calls the load test issues
+ */
+public enum Operation {
+    MESSAGE("message", "POST /api/chat/message"),
+    GET("get", "GET /api/chat/session/{id}"),
+    HEAD("head", "HEAD /api/chat/session/{id}"),
+    DELETE("delete", "DELETE /api/chat/session/{id}"),
+    RESET("reset", "POST /api/chat/reset-context");
+
+    private final String key;
+    private final String endpoint;
+
+    Operation(String key, String endpoint) {
+        this.key = key;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Name used in --mix
+     */
+    public String key() {
+        return key;
+    }
+
+    public String endpoint() {
+        return endpoint;
+    }
+
+    public static Operation fromKey(String key) {
+        for (Operation operation : values()) {
+            if (operation.key.equalsIgnoreCase(key)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation '" + key + "', expected one of message, get, head, delete, reset");
+    }
+}
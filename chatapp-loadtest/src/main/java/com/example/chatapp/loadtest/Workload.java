@@ -0,0 +1,269 @@
+package com.example.chatapp.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Client-side model of users holding conversations, which turns each arrival into an API call.
+ * A conversation lives in one session of one chat and posts one checkpoint (a user message and the
+ * assistant reply) per turn, never more than one request at a time. Its length in turns is drawn from
+ * a log-normal distribution, so most sessions are short and a few are very long. Once it has all its
+ * turns, the session is only read, and eventually deleted or continued in a new session of the same
+ * chat through reset-context. Reads and existence checks go to sessions that have at least one turn.
+ * All state is guarded by this object's monitor: arrivals come from the scheduler thread, completions
+ * from HTTP client threads.
+ */
+public class Workload {
+
+    private static final int CORPUS_CHARS = 1 << 16;
+    private static final String[] WORDS = {
+        "the", "session", "checkpoint", "assistant", "please", "summarize", "context", "message",
+        "order", "history", "user", "answer", "question", "token", "window", "memory", "database",
+        "request", "reply", "model", "prompt", "tool", "call", "result", "error", "retry", "and", "of"
+    };
+
+    private final LoadTestOptions options;
+    private final ObjectMapper objectMapper;
+    private final SplittableRandom random;
+    private final String corpus;
+    private final String run;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final int retainedSessions;
+
+    private final List<Conversation> idle = new ArrayList<>();      // In progress, no request in flight
+    private final List<Conversation> readable = new ArrayList<>();  // Has turns, not deleted
+    private final List<Conversation> finished = new ArrayList<>();  // All turns posted, no request in flight
+    private int inProgress;
+    private long conversations;
+
+    public Workload(LoadTestOptions options, ObjectMapper objectMapper) {
+        this.options = options;
+        this.objectMapper = objectMapper;
+        this.random = new SplittableRandom(options.seed());
+        this.corpus = corpus(new SplittableRandom(options.seed()));
+        // Distinguishes the sessions of this run from earlier ones against the same database
+        this.run = UUID.randomUUID().toString().substring(0, 8);
+
+        this.operations = options.mix().keySet().toArray(new Operation[0]);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += options.mix().get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+        // Bounds client memory on long runs; forgotten sessions just stop being read
+        this.retainedSessions = Math.max(10_000, options.activeSessions() * 20);
+    }
+
+    /**
+     * The call for the next arrival
+     */
+    public synchronized Call next() {
+        return switch (pickOperation()) {
+            case GET -> readable.isEmpty() ? message() : get(pick(readable, false));
+            case HEAD -> readable.isEmpty() ? message() : head(pick(readable, false));
+            case DELETE -> finished.isEmpty() ? message() : delete(pick(finished, true));
+            case RESET -> finished.isEmpty() ? message() : reset(pick(finished, true));
+            case MESSAGE -> message();
+        };
+    }
+
+    public synchronized long conversations() {
+        return conversations;
+    }
+
+    private Operation pickOperation() {
+        int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < operations.length; i++) {
+            if (r < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return Operation.MESSAGE;
+    }
+
+    /**
+     * Next turn of an idle conversation, or the first one of a new conversation while fewer than
+     * --active-sessions are in progress or all of them are waiting for a response
+     */
+    private Call message() {
+        Conversation conversation;
+        if (inProgress < options.activeSessions() || idle.isEmpty()) {
+            String chatId = "load-chat-" + random.nextInt(options.chats());
+            conversation = start(chatId, "load-" + run + "-" + conversations);
+        } else {
+            conversation = pick(idle, true);
+        }
+
+        int turn = conversation.turns;
+        Map<String, Object> body = Map.of(
+                "chat", Map.of(
+                        "chatId", conversation.chatId,
+                        "sessionId", conversation.sessionId,
+                        "messageId", conversation.sessionId + "-" + turn),
+                "messages", List.of(
+                        Map.of("role", "USER", "content", text(options.userLengthMedian())),
+                        Map.of("role", "ASSISTANT", "content", text(options.assistantLengthMedian()))));
+        HttpRequest request = json("/api/chat/message", body);
+
+        return new Call(Operation.MESSAGE, request, (status, response) -> {
+            synchronized (this) {
+                if (status == 200) {
+                    conversation.turns++;
+                    if (conversation.turns == 1) {
+                        retain(readable, conversation);
+                    }
+                }
+                if (conversation.turns >= conversation.targetTurns) {
+                    inProgress--;
+                    retain(finished, conversation);
+                } else {
+                    // Failed turns are retried with the same messageId, which the API treats as a replay
+                    idle.add(conversation);
+                }
+            }
+        });
+    }
+
+    private Call get(Conversation conversation) {
+        String query = options.lastN() > 0 ? "?lastN=" + options.lastN() : "";
+        HttpRequest request = request("/api/chat/session/" + conversation.sessionId + query).GET().build();
+        return new Call(Operation.GET, request, (status, response) -> { });
+    }
+
+    private Call head(Conversation conversation) {
+        HttpRequest request = request("/api/chat/session/" + conversation.sessionId)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        return new Call(Operation.HEAD, request, (status, response) -> { });
+    }
+
+    private Call delete(Conversation conversation) {
+        readable.remove(conversation);
+        HttpRequest request = request("/api/chat/session/" + conversation.sessionId).DELETE().build();
+        return new Call(Operation.DELETE, request, (status, response) -> { });
+    }
+
+    /**
+     * The user starts over: a new session of the same chat, continued by later messages
+     */
+    private Call reset(Conversation conversation) {
+        HttpRequest request = json("/api/chat/reset-context", Map.of("chatId", conversation.chatId));
+        return new Call(Operation.RESET, request, (status, response) -> {
+            if (status != 200) {
+                return;
+            }
+            String sessionId;
+            try {
+                JsonNode node = objectMapper.readTree(response);
+                sessionId = node.path("sessionId").asText(null);
+            } catch (JsonProcessingException e) {
+                return;
+            }
+            if (sessionId != null) {
+                synchronized (this) {
+                    idle.add(start(conversation.chatId, sessionId));
+                }
+            }
+        });
+    }
+
+    private Conversation start(String chatId, String sessionId) {
+        conversations++;
+        inProgress++;
+        // Log-normal around the median, at least one turn
+        double turns = options.turnsMedian() * Math.exp(options.turnsSigma() * random.nextGaussian());
+        int targetTurns = (int) Math.max(1, Math.min(options.maxTurns(), Math.round(turns)));
+        return new Conversation(chatId, sessionId, targetTurns);
+    }
+
+    /**
+     * A random element, removed from the list if asked; order does not matter so removal swaps in the last
+     */
+    private Conversation pick(List<Conversation> list, boolean remove) {
+        int index = random.nextInt(list.size());
+        Conversation conversation = list.get(index);
+        if (remove) {
+            Conversation last = list.remove(list.size() - 1);
+            if (index < list.size()) {
+                list.set(index, last);
+            }
+        }
+        return conversation;
+    }
+
+    private void retain(List<Conversation> list, Conversation conversation) {
+        if (list.size() >= retainedSessions) {
+            pick(list, true);
+        }
+        list.add(conversation);
+    }
+
+    /**
+     * Word-like text of log-normally distributed length, cut from a pre-generated corpus
+     */
+    private String text(int median) {
+        double length = median * Math.exp(options.lengthSigma() * random.nextGaussian());
+        int chars = (int) Math.max(1, Math.min(CORPUS_CHARS / 2, Math.round(length)));
+        int offset = random.nextInt(CORPUS_CHARS - chars);
+        return corpus.substring(offset, offset + chars);
+    }
+
+    private HttpRequest json(String path, Object body) {
+        try {
+            return request(path)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize request body", e);
+        }
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(options.baseUrl() + path)).timeout(options.timeout());
+    }
+
+    private static String corpus(SplittableRandom random) {
+        StringBuilder text = new StringBuilder(CORPUS_CHARS + 16);
+        while (text.length() < CORPUS_CHARS) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setLength(CORPUS_CHARS);
+        return text.toString();
+    }
+
+    /**
+     * An API call and what to do with its response; status is 0 when the request failed without one
+     */
+    public record Call(Operation operation, HttpRequest request, Completion completion) {
+    }
+
+    @FunctionalInterface
+    public interface Completion {
+        void complete(int status, String body);
+    }
+
+    private static final class Conversation {
+        private final String chatId;
+        private final String sessionId;
+        private final int targetTurns;
+        private int turns;
+
+        private Conversation(String chatId, String sessionId, int targetTurns) {
+            this.chatId = chatId;
+            this.sessionId = sessionId;
+            this.targetTurns = targetTurns;
+        }
+    }
+}
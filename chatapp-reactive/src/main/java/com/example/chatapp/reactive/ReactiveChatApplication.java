@@ -0,0 +1,20 @@
+package com.example.chatapp.reactive;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * Reactive variant of the chat checkpoint API
+ * Serves the /api/chat endpoints with WebFlux over R2DBC, reading and writing the same chat_sessions,
+ * chat_messages, chat_contents and chat_checkpoints tables as the blocking application. That application
+ * owns the schema (partitions, indexes) and the background jobs, so it must have started once against
+ * the database. The session archive is local to blocking nodes and is not visible here: keep
+ * chat.archive.enabled off when running both.
+ */
+@SpringBootApplication
+public class ReactiveChatApplication {
+
+    public static void main(String[] args) {
+        SpringApplication.run(ReactiveChatApplication.class, args);
+    }
+}
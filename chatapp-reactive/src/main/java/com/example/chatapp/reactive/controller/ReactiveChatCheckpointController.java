@@ -0,0 +1,142 @@
+package com.example.chatapp.reactive.controller;
+
+import com.example.chatapp.model.ChatCheckpoint;
+import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.model.ChatMessagePage;
+import com.example.chatapp.model.ChatRequest;
+import com.example.chatapp.reactive.service.ReactiveChatCheckpointService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * WebFlux version of the /api/chat checkpoint endpoints
+ * Request and response bodies match ChatCheckpointController. Bulk ingest, chat purges and cache
+ * statistics are only served by the blocking application.
+ */
+@RestController
+@RequestMapping("/api/chat")
+public class ReactiveChatCheckpointController {
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final ReactiveChatCheckpointService checkpointService;
+
+    public ReactiveChatCheckpointController(ReactiveChatCheckpointService checkpointService) {
+        this.checkpointService = checkpointService;
+    }
+
+    /**
+     * Save or update a chat checkpoint
+     * POST /api/chat/message
+     */
+    @PostMapping("/message")
+    public Mono<ResponseEntity<ChatCheckpoint>> saveMessage(@RequestBody ChatRequest request) {
+        if (request.getChat() == null || request.getMessages() == null) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        String chatId = request.getChat().getChatId();
+        String sessionId = request.getChat().getSessionId();
+        String messageId = request.getChat().getMessageId();
+
+        if (chatId == null || sessionId == null || messageId == null) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        return checkpointService.saveCheckpoint(chatId, sessionId, messageId, request.getMessages())
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Load a chat checkpoint by session ID
+     * GET /api/chat/session/{sessionId}?lastN=10
+     */
+    @GetMapping("/session/{sessionId}")
+    public Mono<ResponseEntity<ChatCheckpoint>> loadSession(@PathVariable String sessionId,
+                                                            @RequestParam(required = false) Integer lastN) {
+        if (lastN != null && lastN <= 0) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        return checkpointService.loadCheckpoint(sessionId, lastN != null ? lastN : Integer.MAX_VALUE)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Stream a whole session as NDJSON, one message per line
+     * GET /api/chat/session/{sessionId} with Accept: application/x-ndjson
+     */
+    @GetMapping(value = "/session/{sessionId}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<Flux<ChatMessage>>> streamSession(@PathVariable String sessionId) {
+        return checkpointService.checkpointExists(sessionId)
+                .map(exists -> exists
+                        ? ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON)
+                                .body(checkpointService.streamCheckpoint(sessionId))
+                        : ResponseEntity.notFound().<Flux<ChatMessage>>build());
+    }
+
+    /**
+     * Load session history page by page
+     * GET /api/chat/session/{sessionId}/messages?after=0&limit=100
+     */
+    @GetMapping("/session/{sessionId}/messages")
+    public Mono<ResponseEntity<ChatMessagePage>> loadSessionMessages(@PathVariable String sessionId,
+                                                                     @RequestParam(defaultValue = "0") int after,
+                                                                     @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+        if (after < 0 || limit <= 0 || limit > MAX_PAGE_SIZE) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        return checkpointService.loadMessagePage(sessionId, after, limit)
+                .flatMap(page -> !page.getMessages().isEmpty()
+                        ? Mono.just(ResponseEntity.ok(page))
+                        : checkpointService.checkpointExists(sessionId).map(exists -> exists
+                                ? ResponseEntity.ok(page)
+                                : ResponseEntity.notFound().<ChatMessagePage>build()));
+    }
+
+    /**
+     * Check if session exists
+     * HEAD /api/chat/session/{sessionId}
+     */
+    @RequestMapping(value = "/session/{sessionId}", method = RequestMethod.HEAD)
+    public Mono<ResponseEntity<Void>> sessionExists(@PathVariable String sessionId) {
+        return checkpointService.checkpointExists(sessionId)
+                .map(exists -> exists ? ResponseEntity.ok().<Void>build() : ResponseEntity.notFound().<Void>build());
+    }
+
+    /**
+     * Delete session checkpoint
+     * DELETE /api/chat/session/{sessionId}
+     */
+    @DeleteMapping("/session/{sessionId}")
+    public Mono<ResponseEntity<Void>> deleteSession(@PathVariable String sessionId) {
+        return checkpointService.deleteCheckpoint(sessionId)
+                .then(Mono.just(ResponseEntity.ok().<Void>build()));
+    }
+
+    /**
+     * Reset context - create a new session ID
+     * POST /api/chat/reset-context
+     */
+    @PostMapping("/reset-context")
+    public Mono<ResponseEntity<Map<String, String>>> resetContext(@RequestBody Map<String, String> request) {
+        String chatId = request.get("chatId");
+        if (chatId == null) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        Map<String, String> response = new HashMap<>();
+        response.put("chatId", chatId);
+        response.put("sessionId", checkpointService.createNewSessionId(chatId));
+        return Mono.just(ResponseEntity.ok(response));
+    }
+}
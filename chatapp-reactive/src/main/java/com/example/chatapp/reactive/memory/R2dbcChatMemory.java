@@ -0,0 +1,369 @@
+package com.example.chatapp.reactive.memory;
+
+import com.example.chatapp.entity.MessageContentCodec;
+import com.example.chatapp.model.ChatMessage;
+import io.r2dbc.spi.Readable;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * R2DBC implementation of ReactiveChatMemory over the blocking application's schema
+ * Writes follow PostgresChatMemory: one upsert claims the checkpoint and reserves the session's
+ * message orders under the session row lock, then the messages are inserted in the same transaction.
+ * Bodies above the compression threshold are stored compressed; bodies shared through chat_contents
+ * are read but never created here, so new rows always carry their own body.
+ * Session reads bound created_at by the session's createdAt, like ChatMessageRepository, so PostgreSQL
+ * prunes older partitions.
+ */
+@Slf4j
+@Component
+public class R2dbcChatMemory implements ReactiveChatMemory {
+
+    // Same statement as ChatSessionRepository.upsertSession
+    private static final String UPSERT_SESSION_SQL = """
+            WITH previous AS (
+                SELECT chat_id, created_at FROM chat_sessions WHERE session_id = :sessionId
+            ), duplicate AS (
+                SELECT 1 FROM chat_messages
+                WHERE session_id = :sessionId AND message_id = CAST(:messageId AS varchar)
+                  AND created_at >= (SELECT created_at - interval '1 day' FROM previous)
+                LIMIT 1
+            ), claimed AS (
+                INSERT INTO chat_checkpoints (session_id, message_id, created_at)
+                SELECT :sessionId, CAST(:messageId AS varchar), now()
+                WHERE CAST(:messageId AS varchar) IS NOT NULL AND NOT EXISTS (SELECT 1 FROM duplicate)
+                ON CONFLICT DO NOTHING
+                RETURNING 1
+            ), upserted AS (
+                INSERT INTO chat_sessions (session_id, chat_id, created_at, updated_at, message_count, last_message_preview)
+                SELECT :sessionId, :chatId, now(), now(), :added, CAST(:preview AS varchar)
+                WHERE CAST(:messageId AS varchar) IS NULL OR EXISTS (SELECT 1 FROM claimed)
+                ON CONFLICT (session_id) DO UPDATE SET
+                    chat_id = CASE WHEN :overwriteChatId THEN EXCLUDED.chat_id ELSE chat_sessions.chat_id END,
+                    message_count = chat_sessions.message_count + EXCLUDED.message_count,
+                    last_message_preview = COALESCE(EXCLUDED.last_message_preview, chat_sessions.last_message_preview),
+                    updated_at = EXCLUDED.updated_at
+                RETURNING chat_id, message_count
+            )
+            SELECT u.chat_id, u.message_count, p.chat_id AS previous_chat_id
+            FROM upserted u LEFT JOIN previous p ON true
+            """;
+
+    private static final String INSERT_MESSAGE_SQL = """
+            INSERT INTO chat_messages (id, chat_id, session_id, message_id, role, content, compressed_content,
+                                       created_at, message_order, position)
+            VALUES ($1, $2, $3, $4, $5, $6, $7, now(), $8, $9)
+            """;
+
+    // Messages of a session with their bodies, whether inline, compressed or shared
+    private static final String SELECT_MESSAGES_SQL = """
+            SELECT s.chat_id, m.role, m.content, m.compressed_content,
+                   c.content AS shared_content, c.compressed_content AS shared_compressed, m.message_order
+            FROM chat_messages m
+            JOIN chat_sessions s ON s.session_id = m.session_id
+            LEFT JOIN chat_contents c ON c.hash = m.content_hash
+            WHERE m.session_id = :sessionId
+              AND m.created_at >= (SELECT created_at - interval '1 day' FROM chat_sessions WHERE session_id = :sessionId)
+            """;
+
+    // Same statement as ChatMessageRepository.deleteSessionReleasingContent
+    private static final String DELETE_MESSAGES_SQL = """
+            WITH deleted AS (
+                DELETE FROM chat_messages WHERE session_id = :sessionId RETURNING content_hash
+            ), refs AS (
+                SELECT content_hash, count(*) AS refs FROM deleted
+                WHERE content_hash IS NOT NULL GROUP BY content_hash
+            ), locked AS (
+                SELECT c.hash FROM chat_contents c JOIN refs r ON r.content_hash = c.hash
+                ORDER BY c.hash FOR UPDATE OF c
+            )
+            UPDATE chat_contents c SET ref_count = c.ref_count - r.refs
+            FROM refs r JOIN locked l ON l.hash = r.content_hash
+            WHERE c.hash = r.content_hash
+            RETURNING c.hash
+            """;
+
+    private final DatabaseClient db;
+    private final TransactionalOperator transactionalOperator;
+    private final boolean compressionEnabled;
+    private final int compressionThresholdBytes;
+
+    public R2dbcChatMemory(DatabaseClient db,
+                           TransactionalOperator transactionalOperator,
+                           @Value("${chat.storage.compression.enabled:true}") boolean compressionEnabled,
+                           @Value("${chat.storage.compression.threshold-bytes:2048}") int compressionThresholdBytes) {
+        this.db = db;
+        this.transactionalOperator = transactionalOperator;
+        this.compressionEnabled = compressionEnabled;
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    @Override
+    public Mono<Void> add(String conversationId, List<ChatMessage> messages) {
+        return write(conversationId, conversationId, null, false, messages).then();
+    }
+
+    /**
+     * Add messages with explicit chatId and sessionId
+     * Idempotent per (sessionId, messageId), like PostgresChatMemory.add.
+     * @return true if the messages were written, false if this messageId was already stored
+     */
+    public Mono<Boolean> add(String chatId, String sessionId, String messageId, List<ChatMessage> messages) {
+        return write(chatId, sessionId, messageId, true, messages);
+    }
+
+    @Override
+    public Flux<ChatMessage> get(String conversationId, int lastN) {
+        return loadHistory(conversationId, lastN).map(StoredMessage::toChatMessage);
+    }
+
+    /**
+     * The last messages of a session with the session's chatId, oldest first
+     * Read newest first through the (sessionId, messageOrder) index and reversed, so only lastN rows are read.
+     */
+    public Flux<StoredMessage> loadHistory(String sessionId, int lastN) {
+        if (lastN <= 0) {
+            return Flux.empty();
+        }
+        return db.sql(SELECT_MESSAGES_SQL + " ORDER BY m.message_order DESC LIMIT :limit")
+                .bind("sessionId", sessionId)
+                .bind("limit", lastN)
+                .map(R2dbcChatMemory::toStoredMessage)
+                .all()
+                .collectList()
+                .flatMapMany(newestFirst -> {
+                    Collections.reverse(newestFirst);
+                    return Flux.fromIterable(newestFirst);
+                });
+    }
+
+    /**
+     * All messages of a session in order, streamed as rows arrive
+     */
+    public Flux<StoredMessage> streamSession(String sessionId) {
+        return db.sql(SELECT_MESSAGES_SQL + " ORDER BY m.message_order")
+                .bind("sessionId", sessionId)
+                .map(R2dbcChatMemory::toStoredMessage)
+                .all();
+    }
+
+    /**
+     * Keyset page: messages of a session after the given order, oldest first
+     */
+    public Flux<StoredMessage> getPage(String sessionId, int afterOrder, int limit) {
+        return db.sql(SELECT_MESSAGES_SQL + " AND m.message_order > :after ORDER BY m.message_order LIMIT :limit")
+                .bind("sessionId", sessionId)
+                .bind("after", afterOrder)
+                .bind("limit", limit)
+                .map(R2dbcChatMemory::toStoredMessage)
+                .all();
+    }
+
+    /**
+     * The messages one checkpoint request stored, in order
+     */
+    public Flux<StoredMessage> getCheckpointMessages(String sessionId, String messageId) {
+        return db.sql(SELECT_MESSAGES_SQL + " AND m.message_id = :messageId ORDER BY m.message_order")
+                .bind("sessionId", sessionId)
+                .bind("messageId", messageId)
+                .map(R2dbcChatMemory::toStoredMessage)
+                .all();
+    }
+
+    /**
+     * Check if a session exists
+     */
+    public Mono<Boolean> exists(String sessionId) {
+        return db.sql("SELECT 1 FROM chat_sessions WHERE session_id = :sessionId")
+                .bind("sessionId", sessionId)
+                .map((row, metadata) -> 1)
+                .first()
+                .hasElement();
+    }
+
+    @Override
+    public Mono<Void> clear(String conversationId) {
+        // Same order as PostgresChatMemory.clear: session row lock first, then messages and shared bodies
+        Mono<Void> clear = db.sql("DELETE FROM chat_sessions WHERE session_id = :sessionId")
+                .bind("sessionId", conversationId)
+                .fetch().rowsUpdated()
+                .then(db.sql(DELETE_MESSAGES_SQL)
+                        .bind("sessionId", conversationId)
+                        .map((row, metadata) -> row.get("hash", String.class))
+                        .all()
+                        .collectList())
+                .flatMap(released -> released.isEmpty() ? Mono.<Long>empty() : db.sql(
+                                "DELETE FROM chat_contents WHERE hash = ANY(:hashes) AND ref_count <= 0")
+                        .bind("hashes", released.toArray(String[]::new))
+                        .fetch().rowsUpdated())
+                .then(db.sql("DELETE FROM chat_checkpoints WHERE session_id = :sessionId")
+                        .bind("sessionId", conversationId)
+                        .fetch().rowsUpdated())
+                .then();
+        return clear.as(transactionalOperator::transactional)
+                .doOnSuccess(v -> log.info("Cleared all messages for session: {}", conversationId));
+    }
+
+    /**
+     * Create a new session ID; the session row is created by its first write
+     */
+    public String createNewSession(String chatId) {
+        String sessionId = UUID.randomUUID().toString();
+        log.info("Created new sessionId: {} for chatId: {}", sessionId, chatId);
+        return sessionId;
+    }
+
+    private Mono<Boolean> write(String chatId, String sessionId, String messageId, boolean overwriteChatId,
+                                List<ChatMessage> messages) {
+        DatabaseClient.GenericExecuteSpec upsert = db.sql(UPSERT_SESSION_SQL)
+                .bind("sessionId", sessionId)
+                .bind("chatId", chatId)
+                .bind("overwriteChatId", overwriteChatId)
+                .bind("added", messages.size());
+        upsert = messageId != null ? upsert.bind("messageId", messageId) : upsert.bindNull("messageId", String.class);
+        String preview = previewOf(messages);
+        upsert = preview != null ? upsert.bind("preview", preview) : upsert.bindNull("preview", String.class);
+
+        // The upsert reserves our order range under the session row lock; nothing comes back for a replay
+        Mono<Boolean> write = upsert
+                .map((row, metadata) -> new SessionUpsert(row.get("chat_id", String.class),
+                        row.get("message_count", Integer.class), row.get("previous_chat_id", String.class)))
+                .one()
+                .flatMap(session -> {
+                    if (session.previousChatId() == null) {
+                        log.info("Created new session: {} for chat: {}", sessionId, session.chatId());
+                    } else if (overwriteChatId && !session.previousChatId().equals(chatId)) {
+                        log.warn("ChatId mismatch for session: {}. Expected: {}, Got: {}",
+                                 sessionId, session.previousChatId(), chatId);
+                    }
+                    int firstOrder = session.messageCount() - messages.size() + 1;
+                    return insertMessages(session.chatId(), sessionId, messageId, firstOrder, messages)
+                            .thenReturn(true);
+                })
+                .defaultIfEmpty(false);
+        return write.as(transactionalOperator::transactional)
+                .doOnNext(written -> {
+                    if (written) {
+                        log.info("Successfully added {} messages to sessionId: {}", messages.size(), sessionId);
+                    } else {
+                        log.info("Checkpoint {} already stored in session: {}, skipping", messageId, sessionId);
+                    }
+                });
+    }
+
+    /**
+     * Insert the messages as one statement with a binding per row, sent in a single round trip
+     */
+    private Mono<Void> insertMessages(String chatId, String sessionId, String messageId, int firstOrder,
+                                      List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return Mono.empty();
+        }
+        return db.inConnectionMany(connection -> {
+            Statement statement = connection.createStatement(INSERT_MESSAGE_SQL);
+            for (int position = 0; position < messages.size(); position++) {
+                if (position > 0) {
+                    statement.add();
+                }
+                ChatMessage message = messages.get(position);
+                byte[] compressed = compress(message.getContent());
+                statement.bind(0, UUID.randomUUID().toString())
+                        .bind(1, chatId)
+                        .bind(2, sessionId)
+                        .bind(3, messageId != null ? messageId : UUID.randomUUID().toString())
+                        .bind(4, normalizeRole(message.getRole()))
+                        .bind(5, compressed != null ? "" : message.getContent())
+                        .bind(7, firstOrder + position)
+                        .bind(8, position);
+                if (compressed != null) {
+                    statement.bind(6, compressed);
+                } else {
+                    statement.bindNull(6, byte[].class);
+                }
+            }
+            return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated);
+        }).then();
+    }
+
+    /**
+     * Same rule as MessageContentCompressionListener: compress at or above the threshold when it pays off
+     */
+    private byte[] compress(String content) {
+        if (!compressionEnabled || content == null
+                || content.getBytes(StandardCharsets.UTF_8).length < compressionThresholdBytes) {
+            return null;
+        }
+        return MessageContentCodec.compress(content);
+    }
+
+    private static StoredMessage toStoredMessage(Readable row) {
+        return new StoredMessage(row.get("chat_id", String.class), row.get("role", String.class),
+                body(row), row.get("message_order", Integer.class));
+    }
+
+    /**
+     * The body of a message row: compressed inline, shared through chat_contents, or plain
+     */
+    private static String body(Readable row) {
+        byte[] compressed = row.get("compressed_content", byte[].class);
+        if (compressed != null) {
+            return MessageContentCodec.decompress(compressed);
+        }
+        byte[] sharedCompressed = row.get("shared_compressed", byte[].class);
+        if (sharedCompressed != null) {
+            return MessageContentCodec.decompress(sharedCompressed);
+        }
+        String shared = row.get("shared_content", String.class);
+        return shared != null ? shared : row.get("content", String.class);
+    }
+
+    /**
+     * Same role mapping as the blocking checkpoint path
+     */
+    private static String normalizeRole(String role) {
+        if (role == null) {
+            return "USER";
+        }
+        return switch (role.toUpperCase()) {
+            case "ASSISTANT" -> "ASSISTANT";
+            case "SYSTEM" -> "SYSTEM";
+            default -> "USER";
+        };
+    }
+
+    private static String previewOf(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return null;
+        }
+        String content = messages.get(messages.size() - 1).getContent();
+        if (content == null || content.length() <= 100) {
+            return content;
+        }
+        return content.substring(0, 100) + "...";
+    }
+
+    /**
+     * A stored message with its session's chatId
+     */
+    public record StoredMessage(String chatId, String role, String content, int messageOrder) {
+
+        public ChatMessage toChatMessage() {
+            return new ChatMessage(role, content);
+        }
+    }
+
+    private record SessionUpsert(String chatId, int messageCount, String previousChatId) {
+    }
+}
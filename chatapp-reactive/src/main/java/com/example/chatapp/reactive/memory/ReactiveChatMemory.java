@@ -0,0 +1,29 @@
+package com.example.chatapp.reactive.memory;
+
+import com.example.chatapp.model.ChatMessage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Non-blocking counterpart of Spring AI's ChatMemory
+ * Same operations and semantics, with results delivered as Mono / Flux instead of blocking the caller.
+ */
+public interface ReactiveChatMemory {
+
+    /**
+     * Add messages to the end of a conversation
+     */
+    Mono<Void> add(String conversationId, List<ChatMessage> messages);
+
+    /**
+     * The last messages of a conversation, oldest first; Integer.MAX_VALUE returns all
+     */
+    Flux<ChatMessage> get(String conversationId, int lastN);
+
+    /**
+     * Delete a conversation
+     */
+    Mono<Void> clear(String conversationId);
+}
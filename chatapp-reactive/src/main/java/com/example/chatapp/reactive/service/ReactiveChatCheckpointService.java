@@ -0,0 +1,121 @@
+package com.example.chatapp.reactive.service;
+
+import com.example.chatapp.model.ChatCheckpoint;
+import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.model.ChatMessagePage;
+import com.example.chatapp.reactive.memory.R2dbcChatMemory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Reactive counterpart of ChatCheckpointService
+ * Same checkpoint semantics; every result is a Mono or Flux and no call blocks.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReactiveChatCheckpointService {
+
+    private final R2dbcChatMemory chatMemory;
+
+    /**
+     * Save a chat checkpoint
+     * A replayed messageId writes nothing and returns the checkpoint stored the first time.
+     */
+    public Mono<ChatCheckpoint> saveCheckpoint(String chatId, String sessionId, String messageId, List<ChatMessage> messages) {
+        log.debug("Saving checkpoint for chatId: {}, sessionId: {}, messageId: {}", chatId, sessionId, messageId);
+        return chatMemory.add(chatId, sessionId, messageId, messages)
+                .flatMap(written -> written
+                        ? Mono.just(new ChatCheckpoint(chatId, sessionId, messageId, messages))
+                        : loadStoredCheckpoint(sessionId, messageId))
+                .doOnError(e -> log.error("Error saving checkpoint for sessionId: {}", sessionId, e))
+                .onErrorMap(e -> new RuntimeException("Failed to save checkpoint", e));
+    }
+
+    /**
+     * Rebuild a checkpoint that was already stored, for replies to replayed requests
+     */
+    private Mono<ChatCheckpoint> loadStoredCheckpoint(String sessionId, String messageId) {
+        return chatMemory.getCheckpointMessages(sessionId, messageId)
+                .collectList()
+                .map(stored -> {
+                    List<ChatMessage> messages = stored.stream().map(R2dbcChatMemory.StoredMessage::toChatMessage).toList();
+                    String chatId = stored.isEmpty() ? null : stored.get(0).chatId();
+                    ChatCheckpoint checkpoint = new ChatCheckpoint(chatId, sessionId, messageId, messages);
+                    checkpoint.setDuplicate(true);
+                    log.info("Checkpoint {} for sessionId: {} was already stored, returning original", messageId, sessionId);
+                    return checkpoint;
+                });
+    }
+
+    /**
+     * Load the most recent messages of a session
+     * @return The checkpoint, or empty if the session has no messages
+     */
+    public Mono<ChatCheckpoint> loadCheckpoint(String sessionId, int lastN) {
+        log.debug("Loading checkpoint for sessionId: {}, lastN: {}", sessionId, lastN);
+        return chatMemory.loadHistory(sessionId, lastN)
+                .collectList()
+                .filter(stored -> !stored.isEmpty())
+                .map(stored -> {
+                    List<ChatMessage> messages = stored.stream().map(R2dbcChatMemory.StoredMessage::toChatMessage).toList();
+                    String chatId = stored.get(stored.size() - 1).chatId();
+                    return new ChatCheckpoint(chatId, sessionId, null, messages);
+                })
+                .doOnError(e -> log.error("Error loading checkpoint for sessionId: {}", sessionId, e))
+                .onErrorResume(e -> Mono.empty());
+    }
+
+    /**
+     * A session's whole history in order, emitted as it is read from the database
+     */
+    public Flux<ChatMessage> streamCheckpoint(String sessionId) {
+        return chatMemory.streamSession(sessionId).map(R2dbcChatMemory.StoredMessage::toChatMessage);
+    }
+
+    /**
+     * Load one page of a session's history using a messageOrder cursor
+     */
+    public Mono<ChatMessagePage> loadMessagePage(String sessionId, int afterOrder, int limit) {
+        // Fetch one extra row to learn whether another page follows
+        return chatMemory.getPage(sessionId, afterOrder, limit + 1)
+                .collectList()
+                .map(stored -> {
+                    boolean hasMore = stored.size() > limit;
+                    List<R2dbcChatMemory.StoredMessage> page = hasMore ? stored.subList(0, limit) : stored;
+                    List<ChatMessage> messages = page.stream().map(R2dbcChatMemory.StoredMessage::toChatMessage).toList();
+                    Integer nextCursor = hasMore ? page.get(page.size() - 1).messageOrder() : null;
+                    return new ChatMessagePage(sessionId, messages, nextCursor);
+                });
+    }
+
+    /**
+     * Check if a checkpoint exists for a session
+     */
+    public Mono<Boolean> checkpointExists(String sessionId) {
+        return chatMemory.exists(sessionId)
+                .doOnError(e -> log.error("Error checking checkpoint existence for sessionId: {}", sessionId, e))
+                .onErrorReturn(false);
+    }
+
+    /**
+     * Delete checkpoint for a session
+     */
+    public Mono<Void> deleteCheckpoint(String sessionId) {
+        return chatMemory.clear(sessionId)
+                .doOnError(e -> log.error("Error deleting checkpoint for sessionId: {}", sessionId, e))
+                .onErrorMap(e -> new RuntimeException("Failed to delete checkpoint", e));
+    }
+
+    /**
+     * Create a new session ID for context reset
+     */
+    public String createNewSessionId(String chatId) {
+        return chatMemory.createNewSession(chatId);
+    }
+}
@@ -2,6 +2,7 @@ package com.example.chatapp;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Main Spring Boot Application
@@ -16,6 +17,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
     org.springframework.ai.autoconfigure.openai.OpenAiAutoConfiguration.class,
     org.springframework.ai.autoconfigure.chat.client.ChatClientAutoConfiguration.class
 })
+@EnableScheduling
 public class ChatApplication {
 
     public static void main(String[] args) {
@@ -1,22 +1,54 @@
 package com.example.chatapp.controller;
 
+import com.example.chatapp.memory.SessionHistoryCache;
+import com.example.chatapp.memory.SessionWriteCoalescer;
+import com.example.chatapp.memory.WriteAheadJournal;
+import com.example.chatapp.metrics.SqlProfiler;
+import com.example.chatapp.model.BulkIngestResult;
 import com.example.chatapp.model.ChatCheckpoint;
+import com.example.chatapp.model.ChatMessagePage;
+import com.example.chatapp.model.ChatPurge;
 import com.example.chatapp.model.ChatRequest;
+import com.example.chatapp.model.ChatSearchPage;
+import com.example.chatapp.model.ChatSummary;
+import com.example.chatapp.service.BulkIngestService;
 import com.example.chatapp.service.ChatCheckpointService;
+import com.example.chatapp.service.ChatPurgeService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/api/chat")
 public class ChatCheckpointController {
 
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
+
     private final ChatCheckpointService checkpointService;
+    private final BulkIngestService bulkIngestService;
+    private final ChatPurgeService purgeService;
+    private final SqlProfiler sqlProfiler;
 
-    public ChatCheckpointController(ChatCheckpointService checkpointService) {
+    public ChatCheckpointController(ChatCheckpointService checkpointService, BulkIngestService bulkIngestService,
+                                    ChatPurgeService purgeService, SqlProfiler sqlProfiler) {
         this.checkpointService = checkpointService;
+        this.bulkIngestService = bulkIngestService;
+        this.purgeService = purgeService;
+        this.sqlProfiler = sqlProfiler;
     }
 
     /**
@@ -42,19 +74,113 @@ public class ChatCheckpointController {
         return ResponseEntity.ok(saved);
     }
 
+    /**
+     * Bulk ingest of many checkpoints across many sessions
+     * POST /api/chat/messages:bulk
+     * Body: NDJSON, one {"chat": {...}, "messages": [...]} request per line
+     */
+    @PostMapping(value = "/messages:bulk", consumes = NDJSON_VALUE)
+    public ResponseEntity<BulkIngestResult> bulkIngest(InputStream body) throws IOException, SQLException {
+        try {
+            return ResponseEntity.ok(bulkIngestService.ingest(body));
+        } catch (JsonProcessingException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     /**
      * Load a chat checkpoint by session ID
-     * GET /api/chat/session/{sessionId}
+     * GET /api/chat/session/{sessionId}?lastN=10&maxTokens=4000
+     * lastN is optional and limits the response to the most recent messages.
+     * maxTokens is optional and limits it to the most recent messages that fit in that many tokens.
      */
     @GetMapping("/session/{sessionId}")
-    public ResponseEntity<ChatCheckpoint> loadSession(@PathVariable String sessionId) {
-        ChatCheckpoint checkpoint = checkpointService.loadCheckpoint(sessionId);
+    public ResponseEntity<ChatCheckpoint> loadSession(@PathVariable String sessionId,
+                                                      @RequestParam(required = false) Integer lastN,
+                                                      @RequestParam(required = false) Integer maxTokens) {
+        if ((lastN != null && lastN <= 0) || (maxTokens != null && maxTokens <= 0)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        int limit = lastN != null ? lastN : Integer.MAX_VALUE;
+        ChatCheckpoint checkpoint = maxTokens != null
+                ? checkpointService.loadCheckpointWithinTokens(sessionId, maxTokens, limit)
+                : checkpointService.loadCheckpoint(sessionId, limit);
         if (checkpoint == null) {
             return ResponseEntity.notFound().build();
         }
         return ResponseEntity.ok(checkpoint);
     }
 
+    /**
+     * Stream a whole session as NDJSON, one message per line
+     * GET /api/chat/session/{sessionId} with Accept: application/x-ndjson
+     * Messages are written as they are read, so memory per request does not grow with session size
+     */
+    @GetMapping(value = "/session/{sessionId}", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamSession(@PathVariable String sessionId) {
+        if (!checkpointService.checkpointExists(sessionId)) {
+            return ResponseEntity.notFound().build();
+        }
+
+        StreamingResponseBody body = out -> checkpointService.streamCheckpoint(sessionId, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON_VALUE))
+                .body(body);
+    }
+
+    /**
+     * Load session history page by page
+     * GET /api/chat/session/{sessionId}/messages?after=0&limit=100
+     * Pass the returned nextCursor as "after" to fetch the following page
+     */
+    @GetMapping("/session/{sessionId}/messages")
+    public ResponseEntity<ChatMessagePage> loadSessionMessages(@PathVariable String sessionId,
+                                                               @RequestParam(defaultValue = "0") int after,
+                                                               @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+        if (after < 0 || limit <= 0 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        ChatMessagePage page = checkpointService.loadMessagePage(sessionId, after, limit);
+        if (page.getMessages().isEmpty() && !checkpointService.checkpointExists(sessionId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(page);
+    }
+
+    /**
+     * Pin a summary to a session, replacing any earlier one
+     * PUT /api/chat/session/{sessionId}/summary
+     * Body: {"content": "...", "throughOrder": 1200}; throughOrder is optional
+     * The summary is not part of the session's history: GET /api/chat/session/{sessionId} is unchanged
+     */
+    @PutMapping("/session/{sessionId}/summary")
+    public ResponseEntity<ChatSummary> saveSummary(@PathVariable String sessionId, @RequestBody ChatSummary request) {
+        if (request.getContent() == null || request.getContent().isBlank()) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        ChatSummary summary = checkpointService.saveSummary(sessionId, request.getContent(), request.getThroughOrder());
+        if (summary == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(summary);
+    }
+
+    /**
+     * Get the summary pinned to a session
+     * GET /api/chat/session/{sessionId}/summary
+     */
+    @GetMapping("/session/{sessionId}/summary")
+    public ResponseEntity<ChatSummary> loadSummary(@PathVariable String sessionId) {
+        ChatSummary summary = checkpointService.loadSummary(sessionId);
+        if (summary == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(summary);
+    }
+
     /**
      * Check if session exists
      * HEAD /api/chat/session/{sessionId}
@@ -75,12 +201,63 @@ public class ChatCheckpointController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Search the messages of all sessions of a chat, best match first
+     * GET /api/chat/{chatId}/search?q=refund "credit card"&after=...&limit=20
+     * q takes words, "quoted phrases", or and -excluded words. Pass the returned nextCursor as "after"
+     * to fetch the following page
+     */
+    @GetMapping("/{chatId}/search")
+    public ResponseEntity<ChatSearchPage> searchMessages(@PathVariable String chatId,
+                                                         @RequestParam String q,
+                                                         @RequestParam(required = false) String after,
+                                                         @RequestParam(defaultValue = "" + DEFAULT_SEARCH_LIMIT) int limit) {
+        if (q.isBlank() || limit <= 0 || limit > MAX_SEARCH_LIMIT) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        try {
+            return ResponseEntity.ok(checkpointService.searchMessages(chatId, q, after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Delete all sessions of a chat
+     * DELETE /api/chat/{chatId}/sessions
+     * Returns 200 when done, or 202 with the purge to poll when it continues in the background
+     */
+    @DeleteMapping("/{chatId}/sessions")
+    public ResponseEntity<ChatPurge> deleteChat(@PathVariable String chatId) {
+        ChatPurge purge = purgeService.purgeChat(chatId);
+        if (purge.getStatus() == ChatPurge.Status.RUNNING) {
+            return ResponseEntity.accepted().location(URI.create("/api/chat/purges/" + purge.getPurgeId())).body(purge);
+        }
+        return ResponseEntity.ok(purge);
+    }
+
+    /**
+     * Progress of a chat purge
+     * GET /api/chat/purges/{purgeId}
+     */
+    @GetMapping("/purges/{purgeId}")
+    @NoDatabaseAccess
+    public ResponseEntity<ChatPurge> getPurge(@PathVariable String purgeId) {
+        ChatPurge purge = purgeService.getPurge(purgeId);
+        if (purge == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(purge);
+    }
+
     /**
      * Reset context - create a new session ID
      * POST /api/chat/reset-context
      * Body: {"chatId": "..."}
      */
     @PostMapping("/reset-context")
+    @NoDatabaseAccess
     public ResponseEntity<Map<String, String>> resetContext(@RequestBody Map<String, String> request) {
         String chatId = request.get("chatId");
         if (chatId == null) {
@@ -95,4 +272,56 @@ public class ChatCheckpointController {
         
         return ResponseEntity.ok(response);
     }
+
+    /**
+     * Session history cache statistics
+     * GET /api/chat/cache/stats
+     */
+    @GetMapping("/cache/stats")
+    @NoDatabaseAccess
+    public ResponseEntity<SessionHistoryCache.Stats> cacheStats() {
+        return ResponseEntity.ok(checkpointService.getCacheStats());
+    }
+
+    /**
+     * Write-ahead journal statistics
+     * GET /api/chat/journal/stats
+     */
+    @GetMapping("/journal/stats")
+    @NoDatabaseAccess
+    public ResponseEntity<WriteAheadJournal.Stats> journalStats() {
+        return ResponseEntity.ok(checkpointService.getJournalStats());
+    }
+
+    /**
+     * Per-session write coalescing statistics
+     * GET /api/chat/coalescing/stats
+     */
+    @GetMapping("/coalescing/stats")
+    @NoDatabaseAccess
+    public ResponseEntity<SessionWriteCoalescer.Stats> coalescingStats() {
+        return ResponseEntity.ok(checkpointService.getCoalescingStats());
+    }
+
+    /**
+     * Routes with the most SQL round trips per request since startup or the last reset
+     * GET /api/chat/sql-profile?sort=statements|time|flagged&limit=20
+     */
+    @GetMapping("/sql-profile")
+    @NoDatabaseAccess
+    public ResponseEntity<List<SqlProfiler.RouteStats>> sqlProfile(@RequestParam(defaultValue = "statements") String sort,
+                                                                  @RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(sqlProfiler.worstRoutes(sort, Math.max(1, limit)));
+    }
+
+    /**
+     * Reset the SQL profile totals
+     * DELETE /api/chat/sql-profile
+     */
+    @DeleteMapping("/sql-profile")
+    @NoDatabaseAccess
+    public ResponseEntity<Void> resetSqlProfile() {
+        sqlProfiler.reset();
+        return ResponseEntity.noContent().build();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,140 @@
+package com.example.chatapp.controller;
+
+import com.example.chatapp.memory.DatabasePermits;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission gate in front of the API's database-bound handlers, sized to the connection pool
+ * At most as many requests as there are DatabasePermits run their database work at once; the rest wait in
+ * FIFO order, for at most queue-timeout, and are refused with 503 when the queue is full or the wait
+ * times out. Waiting requests hold no connection, so with virtual threads thousands of clients can
+ * queue cheaply instead of piling up on the pool's own timeout.
+ * Handlers marked NoDatabaseAccess pass without a permit. Streamed responses keep their permit until
+ * the stream completes.
+ */
+@Slf4j
+@Component
+public class DatabaseConcurrencyGate extends OncePerRequestFilter {
+
+    private final DatabasePermits permits;
+    private final RequestMappingHandlerMapping handlerMapping;
+    private final boolean enabled;
+    private final Duration queueTimeout;
+    private final int maxQueued;
+
+    public DatabaseConcurrencyGate(DatabasePermits permits,
+                                   @Qualifier("requestMappingHandlerMapping") RequestMappingHandlerMapping handlerMapping,
+                                   @Value("${chat.db-gate.enabled:true}") boolean enabled,
+                                   @Value("${chat.db-gate.queue-timeout:5s}") Duration queueTimeout,
+                                   @Value("${chat.db-gate.max-queued:2000}") int maxQueued) {
+        this.permits = permits;
+        this.handlerMapping = handlerMapping;
+        this.enabled = enabled;
+        this.queueTimeout = queueTimeout;
+        this.maxQueued = maxQueued;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !request.getRequestURI().startsWith("/api/") || withoutDatabase(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        // The queue length is an estimate, which is enough for shedding load
+        if (permits.queueLength() >= maxQueued) {
+            reject(response, "queue full");
+            return;
+        }
+        try {
+            if (!permits.tryAcquire(queueTimeout)) {
+                reject(response, "queue timeout");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reject(response, "interrupted");
+            return;
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        };
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.leaveThread();
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleasingListener(release));
+            } else {
+                release.run();
+            }
+        }
+    }
+
+    /**
+     * Whether the request goes to a handler marked NoDatabaseAccess; unmatched requests are gated
+     */
+    private boolean withoutDatabase(HttpServletRequest request) {
+        try {
+            HandlerExecutionChain chain = handlerMapping.getHandler(request);
+            return chain != null && chain.getHandler() instanceof HandlerMethod method
+                    && method.hasMethodAnnotation(NoDatabaseAccess.class);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void reject(HttpServletResponse response, String reason) {
+        log.debug("Rejected request at the database gate: {}", reason);
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+    }
+
+    private record ReleasingListener(Runnable release) implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Re-dispatches keep the same permit
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
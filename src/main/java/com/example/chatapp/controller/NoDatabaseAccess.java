@@ -0,0 +1,14 @@
+package com.example.chatapp.controller;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a handler that never touches the database, so DatabaseConcurrencyGate lets it through without a permit
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface NoDatabaseAccess {
+}
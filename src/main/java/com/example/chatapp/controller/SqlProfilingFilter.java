@@ -0,0 +1,169 @@
+package com.example.chatapp.controller;
+
+import com.example.chatapp.metrics.SqlProfiler;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Opens a SqlProfiler profile around each API request and files it under the request's route,
+ * e.g. "GET /api/chat/session/{sessionId}"
+ * In debug mode the response carries X-SQL-Statements and X-SQL-Time-Millis. Headers cannot change
+ * once the response is committed, so they hold the counts at the first byte of the body, which for
+ * everything but streamed exports is after the last statement.
+ */
+@Component
+public class SqlProfilingFilter extends OncePerRequestFilter {
+
+    private static final String STATEMENTS_HEADER = "X-SQL-Statements";
+    private static final String TIME_HEADER = "X-SQL-Time-Millis";
+
+    private final SqlProfiler profiler;
+
+    public SqlProfilingFilter(SqlProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !profiler.isEnabled() || !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        SqlProfiler.Profile profile = profiler.begin();
+        HttpServletResponse profiled = profiler.isDebug() ? new HeaderOnCommitResponse(response, profile) : response;
+        try {
+            chain.doFilter(request, profiled);
+        } finally {
+            if (profiled instanceof HeaderOnCommitResponse headers) {
+                headers.writeHeaders();
+            }
+            profiler.end(profile, route(request), response.getStatus());
+        }
+    }
+
+    private static String route(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + " " + (pattern != null ? pattern : "(unmapped)");
+    }
+
+    /**
+     * Adds the profile headers just before the response commits
+     */
+    private static final class HeaderOnCommitResponse extends HttpServletResponseWrapper {
+        private final SqlProfiler.Profile profile;
+        private boolean written;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private HeaderOnCommitResponse(HttpServletResponse response, SqlProfiler.Profile profile) {
+            super(response);
+            this.profile = profile;
+        }
+
+        private void writeHeaders() {
+            if (written || isCommitted()) {
+                return;
+            }
+            written = true;
+            setHeader(STATEMENTS_HEADER, Integer.toString(profile.statements()));
+            setHeader(TIME_HEADER, String.format("%.2f", profile.dbNanos() / 1_000_000.0));
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new HeaderOnCommitStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), Charset.forName(getCharacterEncoding())));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            writeHeaders();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            writeHeaders();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            writeHeaders();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            writeHeaders();
+            super.sendRedirect(location);
+        }
+
+        private final class HeaderOnCommitStream extends ServletOutputStream {
+            private final ServletOutputStream delegate;
+
+            private HeaderOnCommitStream(ServletOutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                writeHeaders();
+                delegate.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writeHeaders();
+                delegate.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writeHeaders();
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writeHeaders();
+                delegate.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                delegate.setWriteListener(listener);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.chatapp.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * JPA Entity recording which checkpoint requests (sessionId, messageId) a session has stored
+ * Claimed in the session upsert, so concurrent replays of a checkpoint are rejected by the primary key.
+ * chat_messages is partitioned by createdAt and cannot carry that unique key itself.
+ */
+@Entity
+@Table(name = "chat_checkpoints", indexes = {
+    @Index(name = "idx_checkpoint_created", columnList = "createdAt")
+})
+@IdClass(ChatCheckpointEntity.Key.class)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatCheckpointEntity {
+
+    @Id
+    private String sessionId;
+
+    @Id
+    private String messageId;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    /**
+     * Primary key of ChatCheckpointEntity
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private String sessionId;
+        private String messageId;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.chatapp.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * JPA Entity for message bodies shared by many chat messages, keyed by content hash
+ * Rows are written with native upserts in ChatContentRepository, never persisted through JPA.
+ */
+@Entity
+@Table(name = "chat_contents")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatContentEntity {
+
+    @Id
+    @Column(length = 64)
+    private String hash; // Hex SHA-256 of the UTF-8 body
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String content; // Empty when the body is stored in compressedContent
+
+    private byte[] compressedContent; // Large bodies, encoded by MessageContentCodec
+
+    @Column(nullable = false)
+    private Long refCount; // Number of chat_messages rows pointing at this body
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    /**
+     * Body, decompressed if it was stored compressed
+     */
+    public String getContent() {
+        return compressedContent != null ? MessageContentCodec.decompress(compressedContent) : content;
+    }
+}
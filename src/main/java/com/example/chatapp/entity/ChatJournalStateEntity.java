@@ -0,0 +1,32 @@
+package com.example.chatapp.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * JPA Entity recording how far a node's write-ahead journal has been applied to the database
+ * Advanced in the same transaction as the checkpoints it covers, so after a crash the journal is
+ * replayed from exactly the first checkpoint that did not commit.
+ */
+@Entity
+@Table(name = "chat_journal_state")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatJournalStateEntity {
+
+    @Id
+    private String journalId;
+
+    @Column(nullable = false)
+    private Long appliedSequence;
+
+    @Column(nullable = false)
+    private Instant updatedAt;
+}
@@ -1,28 +1,42 @@
 package com.example.chatapp.entity;
 
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.time.Instant;
 
 /**
  * JPA Entity for storing chat messages in PostgreSQL
- * Provides persistent storage for Spring AI chat history
+ * Provides persistent storage for Spring AI chat history.
+ * The table is range-partitioned by createdAt and created, with its indexes, by ChatMessagePartitionManager
+ * (Hibernate does not see indexes of partitioned tables). Its only unique key is (id, createdAt): message
+ * orders are allocated from the session counter and checkpoint replays are rejected through
+ * ChatCheckpointEntity, and an insert trigger rejects duplicate (sessionId, messageOrder) and
+ * (sessionId, messageId, position) rows as the unique keys did.
+ * Bodies are indexed for full-text search into search_vector, which is not mapped: uncompressed ones by an
+ * insert trigger from the stored text, compressed ones by SearchIndexBackfiller. Both use the 'simple' text
+ * search configuration so that every language is split into words the same way; see ChatMessageRepository.search.
  */
 @Entity
-@Table(name = "chat_messages", indexes = {
-    @Index(name = "idx_session_created", columnList = "sessionId, createdAt"),
-    @Index(name = "idx_chat_session", columnList = "chatId, sessionId")
-})
+@Table(name = "chat_messages")
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@EntityListeners(MessageContentCompressionListener.class)
 public class ChatMessageEntity {
 
+    // Longer bodies are only indexed up to here, well below the 1 MB a tsvector can hold
+    public static final int SEARCH_TEXT_MAX_CHARS = 100_000;
+
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
     private String id;
@@ -40,13 +54,80 @@ public class ChatMessageEntity {
     private String role; // USER, SYSTEM, ASSISTANT, FUNCTION
 
     @Column(nullable = false, columnDefinition = "TEXT")
-    private String content;
+    private String content; // Empty when the body is stored elsewhere; read through getContent()
+
+    private byte[] compressedContent; // Large bodies, encoded by MessageContentCodec
+
+    @Column(length = 64)
+    private String contentHash; // Shared body in chat_contents, see SharedContentStore
+
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private String decodedContent; // Plain body of a compressed or shared row
 
     @Column(nullable = false)
-    private Instant createdAt;
+    private Instant createdAt; // Partition key of chat_messages
 
     @Column(nullable = false)
-    private Integer messageOrder; // Order of messages in session
+    private Integer messageOrder; // Order of messages in session, allocated from ChatSessionEntity.messageCount
+
+    private Integer position; // Index within the checkpoint request
+
+    private Integer tokenCount; // Counted by MessageTokenCounter when written; null for older messages
+
+    private Long cumulativeTokens; // Session's running token sum up to and including this message
+
+    /**
+     * Message body, decompressed if it was stored compressed
+     * @throws IllegalStateException if the body is shared and was not resolved after loading
+     */
+    public String getContent() {
+        if (compressedContent == null && contentHash == null) {
+            return content;
+        }
+        if (decodedContent == null) {
+            if (contentHash != null) {
+                throw new IllegalStateException("Shared content " + contentHash + " of message " + id + " not resolved");
+            }
+            decodedContent = MessageContentCodec.decompress(compressedContent);
+        }
+        return decodedContent;
+    }
+
+    /**
+     * Point this message at a body stored in chat_contents instead of storing it inline
+     */
+    public void storeShared(String hash) {
+        decodedContent = getContent();
+        contentHash = hash;
+        content = "";
+    }
+
+    /**
+     * Supply the shared body of a loaded message
+     */
+    public void resolveShared(String body) {
+        decodedContent = body;
+    }
+
+    /**
+     * Store the body compressed instead of in the plain content column
+     */
+    void storeCompressed(byte[] compressed) {
+        decodedContent = getContent();
+        compressedContent = compressed;
+        content = "";
+    }
+
+    /**
+     * The part of a body that is indexed for full-text search
+     */
+    public static String searchTextOf(String content) {
+        return content.length() > SEARCH_TEXT_MAX_CHARS ? content.substring(0, SEARCH_TEXT_MAX_CHARS) : content;
+    }
 
     @PrePersist
     protected void onCreate() {
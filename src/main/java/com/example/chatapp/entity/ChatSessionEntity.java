@@ -35,10 +35,13 @@ public class ChatSessionEntity {
     private Instant updatedAt;
 
     @Column(nullable = false)
-    private Integer messageCount;
+    private Integer messageCount; // Also the session's message order sequence: the last allocated order
 
     private String lastMessagePreview;
 
+    @Column(columnDefinition = "bigint default 0")
+    private Long tokenCount; // Running token sum of the session: ChatMessageEntity.cumulativeTokens of its last message
+
     @PrePersist
     protected void onCreate() {
         if (createdAt == null) {
@@ -50,6 +53,9 @@ public class ChatSessionEntity {
         if (messageCount == null) {
             messageCount = 0;
         }
+        if (tokenCount == null) {
+            tokenCount = 0L;
+        }
     }
 
     @PreUpdate
@@ -0,0 +1,60 @@
+package com.example.chatapp.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * JPA Entity for one chunk of a session snapshot: the messages with orders in (firstOrder - 1, throughOrder],
+ * materialized in a single row
+ * Chunks are only ever appended by SessionSnapshotStore.compact, each starting where the previous one ended,
+ * so a session's snapshot covers orders up to the throughOrder of its last chunk. The rows in chat_messages
+ * stay where they are; the snapshot only saves reading them one by one.
+ */
+@Entity
+@Table(name = "chat_session_snapshots", indexes = {
+    @Index(name = "idx_snapshot_oldest_message", columnList = "oldestMessageAt")
+})
+@IdClass(ChatSessionSnapshotEntity.Key.class)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatSessionSnapshotEntity {
+
+    @Id
+    private String sessionId;
+
+    @Id
+    private Integer firstOrder;
+
+    @Column(nullable = false)
+    private Integer throughOrder;
+
+    @Column(nullable = false)
+    private Integer messageCount; // Fewer than the order range when messages of the session were deleted
+
+    @Column(nullable = false)
+    private byte[] messages; // JSON array of the messages, encoded by MessageContentCodec when that pays off
+
+    private Instant oldestMessageAt; // createdAt of the oldest message in the chunk, for partition retention
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    /**
+     * Primary key of ChatSessionSnapshotEntity
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private String sessionId;
+        private Integer firstOrder;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.chatapp.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * JPA Entity for the summary pinned to a session's snapshot
+ * Written by clients, e.g. after summarizing the compacted history with a model; history reads do not include it.
+ */
+@Entity
+@Table(name = "chat_session_summaries")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatSessionSummaryEntity {
+
+    @Id
+    private String sessionId;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String content;
+
+    private Integer throughOrder; // Last message order the summary covers, if the client said
+
+    @Column(nullable = false)
+    private Instant updatedAt;
+}
@@ -0,0 +1,51 @@
+package com.example.chatapp.entity;
+
+import jakarta.persistence.PrePersist;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JPA listener that moves large message bodies into chat_messages.compressed_content on insert
+ * Bodies below the threshold, or that do not compress, stay in the plain content column.
+ */
+@Component
+public class MessageContentCompressionListener {
+
+    private final boolean enabled;
+    private final int thresholdBytes;
+
+    public MessageContentCompressionListener(@Value("${chat.storage.compression.enabled:true}") boolean enabled,
+                                             @Value("${chat.storage.compression.threshold-bytes:2048}") int thresholdBytes) {
+        this.enabled = enabled;
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    @PrePersist
+    public void compress(ChatMessageEntity entity) {
+        // Shared bodies are compressed in chat_contents instead
+        if (entity.getContentHash() != null) {
+            return;
+        }
+        byte[] compressed = encode(entity.getContent());
+        if (compressed != null) {
+            entity.storeCompressed(compressed);
+        }
+    }
+
+    /**
+     * Compress a body if it is large enough and compression pays off
+     * @return The encoded bytes, or null to store the body as plain text
+     */
+    public byte[] encode(String content) {
+        // UTF-8 takes at least one byte per char, so shorter strings can never reach the threshold
+        if (!enabled || content == null || content.length() < thresholdBytes / 3) {
+            return null;
+        }
+        if (content.length() < thresholdBytes && content.getBytes(StandardCharsets.UTF_8).length < thresholdBytes) {
+            return null;
+        }
+        return MessageContentCodec.compress(content);
+    }
+}
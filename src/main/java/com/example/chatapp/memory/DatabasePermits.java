@@ -0,0 +1,79 @@
+package com.example.chatapp.memory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Permits for API requests to do database work, handed out in FIFO order by DatabaseConcurrencyGate
+ * There are as many as pool connections less the ones kept for background work (the scheduled jobs, the
+ * journal flusher and background purges), so requests holding permits never wait on the pool behind them.
+ * A request that has to wait for something other than the database, such as another request's write to
+ * the same session, gives its permit back for the wait.
+ */
+@Component
+public class DatabasePermits {
+
+    private final Semaphore permits;
+    // Whether the request running on this thread holds a permit
+    private final ThreadLocal<Boolean> held = new ThreadLocal<>();
+
+    public DatabasePermits(@Value("${chat.db-gate.permits:0}") int permits,
+                           @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                           @Value("${chat.db-gate.background-connections:3}") int backgroundConnections) {
+        this.permits = new Semaphore(permits > 0 ? permits : Math.max(1, poolSize - backgroundConnections), true);
+    }
+
+    /**
+     * Take a permit for the request on this thread, waiting at most timeout behind earlier requests
+     * @return false if the wait timed out
+     */
+    public boolean tryAcquire(Duration timeout) throws InterruptedException {
+        if (!permits.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        held.set(Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * The request on this thread is done with it, or continues on another thread that holds on to its permit
+     */
+    public void leaveThread() {
+        held.remove();
+    }
+
+    /**
+     * Return a permit taken by tryAcquire
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Requests waiting for a permit; an estimate
+     */
+    public int queueLength() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * Run a wait that needs no connection without the permit of the request on this thread, if it holds one,
+     * and queue for the permit again once the wait is over
+     */
+    public void awaitWithoutPermit(Runnable wait) {
+        if (held.get() == null) {
+            wait.run();
+            return;
+        }
+        permits.release();
+        try {
+            wait.run();
+        } finally {
+            permits.acquireUninterruptibly();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.chatapp.memory;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Counts the tokens a message takes up in an LLM context window
+ * Messages are counted once when they are written and the count is stored with them, so that
+ * token-budgeted reads do not have to load and tokenize the history. Counts use the cl100k_base
+ * encoding plus a fixed per-message overhead for the chat format's role and separator tokens;
+ * they are estimates for budgeting, not exact for every model.
+ */
+@Component
+public class MessageTokenCounter {
+
+    private final TokenCountEstimator estimator = new JTokkitTokenCountEstimator();
+    private final int perMessageOverhead;
+
+    public MessageTokenCounter(@Value("${chat.memory.tokens.per-message-overhead:4}") int perMessageOverhead) {
+        this.perMessageOverhead = perMessageOverhead;
+    }
+
+    /**
+     * Tokens of one message body
+     */
+    public int count(String content) {
+        return perMessageOverhead + (content == null || content.isEmpty() ? 0 : estimator.estimate(content));
+    }
+
+    /**
+     * Tokens of each message, in order
+     */
+    public int[] count(List<Message> messages) {
+        int[] tokens = new int[messages.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = count(messages.get(i).getContent());
+        }
+        return tokens;
+    }
+}
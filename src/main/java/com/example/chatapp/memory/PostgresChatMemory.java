@@ -2,8 +2,16 @@ package com.example.chatapp.memory;
 
 import com.example.chatapp.entity.ChatMessageEntity;
 import com.example.chatapp.entity.ChatSessionEntity;
+import com.example.chatapp.entity.ChatSessionSummaryEntity;
+import com.example.chatapp.metrics.ChatMetrics;
+import com.example.chatapp.repository.ChatCheckpointRepository;
 import com.example.chatapp.repository.ChatMessageRepository;
+import com.example.chatapp.repository.ChatMessageTokenView;
+import com.example.chatapp.repository.ChatMessageView;
 import com.example.chatapp.repository.ChatSessionRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.memory.ChatMemory;
@@ -11,25 +19,63 @@ import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.MessageType;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * PostgreSQL-backed implementation of Spring AI ChatMemory
- * Stores chat history in database with session isolation
+ * Stores chat history in database with session isolation.
+ * Recent session tails are served from a write-through SessionHistoryCache,
+ * and repeated bodies such as SYSTEM prompts are stored once through SharedContentStore.
+ * Cold sessions may live in the SessionArchive instead: reads fall back to it, and the first
+ * write to an archived session restores it into the database.
+ * With the WriteAheadJournal enabled, checkpoints can be acknowledged once journaled and are written
+ * here later by JournalFlusher; history reads include the journaled checkpoints not written yet.
+ * Messages are stored with their token count and the session's running token sum, so a token-budgeted
+ * history window is a range query (see loadTokenWindow).
+ * Long reads of long sessions take what they can from the session's snapshot (see SessionSnapshotStore).
  */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class PostgresChatMemory implements ChatMemory {
 
+    // Messages read per query when counting tokens of messages stored without counts
+    private static final int COUNT_PAGE_SIZE = 100;
+    // Matches ranked per search page at most, see ChatMessageRepository.search
+    private static final int MAX_RANKED_MATCHES = 10_000;
+
     private final ChatMessageRepository messageRepository;
     private final ChatSessionRepository sessionRepository;
+    private final ChatCheckpointRepository checkpointRepository;
+    private final EntityManager entityManager;
+    private final SessionHistoryCache historyCache;
+    private final SharedContentStore contentStore;
+    private final SessionArchive archive;
+    private final WriteAheadJournal journal;
+    private final ChatMetrics metrics;
+    private final ObjectMapper objectMapper;
+    private final MessageTokenCounter tokenCounter;
+    private final SessionSnapshotStore snapshots;
 
     /**
      * Add messages to chat history
@@ -40,127 +86,493 @@ public class PostgresChatMemory implements ChatMemory {
     @Transactional
     public void add(String conversationId, List<Message> messages) {
         log.debug("Adding {} messages to session: {}", messages.size(), conversationId);
+        restoreIfArchived(conversationId);
 
-        // Get or create session
-        ChatSessionEntity session = sessionRepository.findById(conversationId)
-                .orElseGet(() -> {
-                    log.info("Creating new session: {}", conversationId);
-                    return ChatSessionEntity.builder()
-                            .sessionId(conversationId)
-                            .chatId(conversationId) // Default: use sessionId as chatId
-                            .messageCount(0)
-                            .build();
-                });
-
-        // Get next message order
-        Integer lastOrder = messageRepository.getLastMessageOrder(conversationId);
-        int nextOrder = (lastOrder != null ? lastOrder : 0) + 1;
-
-        // Convert and save messages
-        for (Message message : messages) {
-            ChatMessageEntity entity = ChatMessageEntity.builder()
-                    .messageId(UUID.randomUUID().toString())
-                    .chatId(session.getChatId())
-                    .sessionId(conversationId)
-                    .role(mapMessageTypeToRole(message.getMessageType()))
-                    .content(message.getContent())
-                    .messageOrder(nextOrder++)
-                    .createdAt(Instant.now())
-                    .build();
-
-            messageRepository.save(entity);
-            log.debug("Saved message: {} with order: {}", entity.getId(), entity.getMessageOrder());
+        // Create the session or bump its counters in one statement; an existing session keeps its chatId.
+        // The row lock taken here serializes concurrent writers to the same session until commit.
+        int[] tokens = tokenCounter.count(messages);
+        ChatSessionRepository.SessionUpsert session = sessionRepository.upsertSession(
+                conversationId, conversationId, null, false, messages.size(), previewOf(messages), sum(tokens));
+        if (session.getPreviousChatId() == null) {
+            log.debug("Created new session: {}", conversationId);
+            metrics.sessionCreated();
         }
 
-        // Update session
-        session.setMessageCount(session.getMessageCount() + messages.size());
-        if (!messages.isEmpty()) {
-            session.setLastMessagePreview(truncate(messages.get(messages.size() - 1).getContent(), 100));
-        }
-        sessionRepository.save(session);
+        // The upsert reserved our order range: the session counter now ends at our last message
+        int firstOrder = session.getMessageCount() - messages.size() + 1;
 
-        log.info("Successfully added {} messages to session: {}", messages.size(), conversationId);
+        // Convert messages and insert them as one JDBC batch
+        List<ChatMessageEntity> entities = toEntities(session.getChatId(), conversationId, null, firstOrder, messages);
+        setTokens(entities, tokens, session.getTokenCount());
+        contentStore.intern(entities);
+        messageRepository.saveAll(entities);
+        cacheAfterCommit(conversationId, entities);
+
+        log.debug("Successfully added {} messages to session: {}", messages.size(), conversationId);
     }
 
     /**
      * Add messages with explicit chatId and sessionId
+     * Writes are idempotent per (sessionId, messageId): a replayed checkpoint is detected in the
+     * session upsert and nothing is written. A concurrent replay that slips past that check fails
+     * on the (sessionId, messageId, position) unique key with DataIntegrityViolationException,
+     * rolling back its counter increment as well.
+     * @return true if the messages were written, false if this messageId was already stored
      */
     @Transactional
-    public void add(String chatId, String sessionId, String messageId, List<Message> messages) {
+    public boolean add(String chatId, String sessionId, String messageId, List<Message> messages) {
         log.debug("Adding {} messages to chatId: {}, sessionId: {}", messages.size(), chatId, sessionId);
+        restoreIfArchived(sessionId);
 
-        // Get or create session
-        ChatSessionEntity session = sessionRepository.findById(sessionId)
-                .orElseGet(() -> {
-                    log.info("Creating new session: {} for chat: {}", sessionId, chatId);
-                    return ChatSessionEntity.builder()
-                            .sessionId(sessionId)
-                            .chatId(chatId)
-                            .messageCount(0)
-                            .build();
-                });
+        // Create the session or bump its counters in one statement.
+        // The row lock taken here serializes concurrent writers to the same session until commit.
+        int[] tokens = tokenCounter.count(messages);
+        ChatSessionRepository.SessionUpsert session = sessionRepository.upsertSession(
+                sessionId, chatId, messageId, true, messages.size(), previewOf(messages), sum(tokens));
+        if (session == null) {
+            log.debug("Checkpoint {} already stored in session: {}, skipping", messageId, sessionId);
+            return false;
+        }
 
         // Ensure chatId matches
-        if (!session.getChatId().equals(chatId)) {
-            log.warn("ChatId mismatch for session: {}. Expected: {}, Got: {}", 
-                     sessionId, session.getChatId(), chatId);
-            session.setChatId(chatId);
+        if (session.getPreviousChatId() == null) {
+            log.debug("Created new session: {} for chat: {}", sessionId, chatId);
+            metrics.sessionCreated();
+        } else if (!session.getPreviousChatId().equals(chatId)) {
+            log.warn("ChatId mismatch for session: {}. Expected: {}, Got: {}",
+                     sessionId, session.getPreviousChatId(), chatId);
+            metrics.chatIdMismatch();
         }
 
-        // Get next message order
-        Integer lastOrder = messageRepository.getLastMessageOrder(sessionId);
-        int nextOrder = (lastOrder != null ? lastOrder : 0) + 1;
+        // The upsert reserved our order range: the session counter now ends at our last message
+        int firstOrder = session.getMessageCount() - messages.size() + 1;
 
-        // Convert and save messages
-        for (Message message : messages) {
-            ChatMessageEntity entity = ChatMessageEntity.builder()
-                    .messageId(messageId != null ? messageId : UUID.randomUUID().toString())
-                    .chatId(chatId)
-                    .sessionId(sessionId)
-                    .role(mapMessageTypeToRole(message.getMessageType()))
-                    .content(message.getContent())
-                    .messageOrder(nextOrder++)
-                    .createdAt(Instant.now())
-                    .build();
+        // Convert messages and insert them as one JDBC batch
+        List<ChatMessageEntity> entities = toEntities(chatId, sessionId, messageId, firstOrder, messages);
+        setTokens(entities, tokens, session.getTokenCount());
+        contentStore.intern(entities);
+        // Flush here so a unique key violation surfaces from this call, translated by the repository
+        messageRepository.saveAllAndFlush(entities);
+        cacheAfterCommit(sessionId, entities);
+
+        log.debug("Successfully added {} messages to chatId: {}, sessionId: {}", 
+                 messages.size(), chatId, sessionId);
+        return true;
+    }
 
-            messageRepository.save(entity);
-            log.debug("Saved message: {} with order: {}", entity.getId(), entity.getMessageOrder());
+    /**
+     * Add several checkpoints to one session in one transaction, with a single session row update
+     * and one insert batch. Messages get orders in the order of the checkpoints.
+     * Replays are skipped as in add, including a repeat of a messageId within the checkpoints.
+     * @return For each checkpoint, true if its messages were written
+     */
+    @Transactional
+    public List<Boolean> addAll(String sessionId, List<CheckpointWrite> checkpoints) {
+        log.debug("Adding {} checkpoints to sessionId: {}", checkpoints.size(), sessionId);
+        restoreIfArchived(sessionId);
+
+        // Only the first occurrence of a messageId can be written
+        Set<String> requestedIds = new HashSet<>();
+        List<Map<String, Object>> requested = new ArrayList<>(checkpoints.size());
+        List<int[]> tokens = new ArrayList<>(checkpoints.size());
+        for (int i = 0; i < checkpoints.size(); i++) {
+            CheckpointWrite checkpoint = checkpoints.get(i);
+            tokens.add(tokenCounter.count(checkpoint.messages()));
+            if (requestedIds.add(checkpoint.messageId())) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("position", i);
+                row.put("message_id", checkpoint.messageId());
+                row.put("chat_id", checkpoint.chatId());
+                row.put("added", checkpoint.messages().size());
+                row.put("tokens", sum(tokens.get(i)));
+                row.put("preview", previewOf(checkpoint.messages()));
+                requested.add(row);
+            }
+        }
+        List<ChatSessionRepository.ClaimedCheckpoint> claimed;
+        try {
+            claimed = sessionRepository.upsertSessionCheckpoints(sessionId, objectMapper.writeValueAsString(requested));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize checkpoints of session " + sessionId, e);
+        }
+        if (claimed.isEmpty()) {
+            log.debug("All {} checkpoints already stored in session: {}, skipping", checkpoints.size(), sessionId);
+            return Collections.nCopies(checkpoints.size(), false);
         }
 
-        // Update session
-        session.setMessageCount(session.getMessageCount() + messages.size());
-        if (!messages.isEmpty()) {
-            session.setLastMessagePreview(truncate(messages.get(messages.size() - 1).getContent(), 100));
+        ChatSessionRepository.ClaimedCheckpoint session = claimed.get(0);
+        Set<String> claimedIds = claimed.stream()
+                .map(ChatSessionRepository.ClaimedCheckpoint::getMessageId)
+                .collect(Collectors.toSet());
+        List<Boolean> written = new ArrayList<>(checkpoints.size());
+        int added = 0;
+        for (CheckpointWrite checkpoint : checkpoints) {
+            boolean claimedHere = claimedIds.remove(checkpoint.messageId());
+            written.add(claimedHere);
+            if (claimedHere) {
+                added += checkpoint.messages().size();
+            }
         }
-        sessionRepository.save(session);
 
-        log.info("Successfully added {} messages to chatId: {}, sessionId: {}", 
-                 messages.size(), chatId, sessionId);
+        String previousChatId = session.getPreviousChatId();
+        if (previousChatId == null) {
+            log.debug("Created new session: {}", sessionId);
+            metrics.sessionCreated();
+        }
+
+        // The upsert reserved our order range: the session counter now ends at the last claimed message
+        int nextOrder = session.getMessageCount() - added + 1;
+        List<ChatMessageEntity> entities = new ArrayList<>(added);
+        int[] entityTokens = new int[added];
+        for (int i = 0; i < checkpoints.size(); i++) {
+            if (!written.get(i)) {
+                continue;
+            }
+            CheckpointWrite checkpoint = checkpoints.get(i);
+            if (previousChatId != null && !previousChatId.equals(checkpoint.chatId())) {
+                log.warn("ChatId mismatch for session: {}. Expected: {}, Got: {}",
+                         sessionId, previousChatId, checkpoint.chatId());
+                metrics.chatIdMismatch();
+            }
+            System.arraycopy(tokens.get(i), 0, entityTokens, entities.size(), checkpoint.messages().size());
+            entities.addAll(toEntities(checkpoint.chatId(), sessionId, checkpoint.messageId(), nextOrder,
+                                       checkpoint.messages()));
+            nextOrder += checkpoint.messages().size();
+        }
+        setTokens(entities, entityTokens, session.getTokenCount());
+        contentStore.intern(entities);
+        messageRepository.saveAllAndFlush(entities);
+        cacheAfterCommit(sessionId, entities);
+
+        log.debug("Successfully added {} messages of {} checkpoints to sessionId: {}",
+                  entities.size(), claimed.size(), sessionId);
+        return written;
+    }
+
+    /**
+     * Add messages through the write-ahead journal: durable when this returns, written to the database
+     * later by JournalFlusher. Replays are detected against journaled and stored checkpoints; the checkpoint
+     * is claimed in the journal first, so a concurrent replay waits for this one instead of journaling it too.
+     * Not transactional, and with open-in-view off the request holds no connection either, so none is held
+     * while waiting for the journal's fsync.
+     * @return true if the messages were journaled, false if this messageId was already journaled or stored
+     */
+    public boolean addJournaled(String chatId, String sessionId, String messageId, List<Message> messages)
+            throws IOException {
+        if (!journal.claim(sessionId, messageId)) {
+            log.debug("Checkpoint {} already journaled in session: {}, skipping", messageId, sessionId);
+            return false;
+        }
+        boolean appended = false;
+        try {
+            if (!getCheckpointMessages(sessionId, messageId).isEmpty()) {
+                log.debug("Checkpoint {} already stored in session: {}, skipping", messageId, sessionId);
+                return false;
+            }
+            List<WriteAheadJournal.JournaledMessage> journaled = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                journaled.add(new WriteAheadJournal.JournaledMessage(mapMessageTypeToRole(message.getMessageType()),
+                                                                     message.getContent()));
+            }
+            journal.append(new WriteAheadJournal.Checkpoint(chatId, sessionId, messageId, Instant.now(), journaled));
+            appended = true;
+        } finally {
+            if (!appended) {
+                journal.release(sessionId, messageId);
+            }
+        }
+        log.debug("Journaled {} messages for chatId: {}, sessionId: {}", messages.size(), chatId, sessionId);
+        return true;
+    }
+
+    /**
+     * Whether checkpoints are saved through the write-ahead journal
+     */
+    public boolean isJournaled() {
+        return journal.isEnabled();
+    }
+
+    /**
+     * Wait until the checkpoints journaled for a session so far are in the database, so that queries
+     * made afterwards see them. Call outside of a transaction: the flusher needs a connection of its own.
+     */
+    public void awaitJournalApplied(String sessionId) {
+        journal.awaitApplied(journal.lastSequence(sessionId));
+    }
+
+    /**
+     * Wait until every checkpoint journaled so far is in the database
+     */
+    public void awaitJournalApplied() {
+        journal.awaitApplied(journal.lastSequence());
+    }
+
+    /**
+     * Get the messages a checkpoint request stored, in order
+     * Checkpoints still in the write-ahead journal come back without message orders.
+     * @param sessionId The session ID
+     * @param messageId The messageId of the checkpoint request
+     */
+    @Transactional(readOnly = true)
+    public List<ChatMessageView> getCheckpointMessages(String sessionId, String messageId) {
+        // Journal first: a checkpoint leaves it only once it is in the database
+        WriteAheadJournal.Checkpoint journaled = journal.pendingCheckpoint(sessionId, messageId);
+        if (journaled != null) {
+            return journaled.messages().stream()
+                    .map(message -> new ChatMessageView(journaled.chatId(), message.role(), message.content(), null))
+                    .toList();
+        }
+        List<ChatMessageView> views = contentStore.resolveViews(messageRepository.findCheckpointViews(sessionId, messageId));
+        if (views.isEmpty()) {
+            SessionArchive.ArchivedSession archived = archivedSession(sessionId);
+            if (archived != null) {
+                return archived.messages().stream()
+                        .filter(message -> messageId.equals(message.messageId()))
+                        .map(message -> toView(archived, message))
+                        .toList();
+            }
+        }
+        return views;
     }
 
     /**
      * Get chat history for a session
      * @param conversationId The session ID
-     * @param lastN Number of recent messages to retrieve (ignored, returns all)
-     * @return List of messages
+     * @param lastN Number of recent messages to retrieve; Integer.MAX_VALUE returns all
+     * @return List of messages, oldest first
      */
     @Override
     @Transactional(readOnly = true)
     public List<Message> get(String conversationId, int lastN) {
-        log.debug("Retrieving messages for session: {}", conversationId);
+        List<ChatMessageView> views = loadHistory(conversationId, lastN);
 
-        List<ChatMessageEntity> entities = messageRepository.findBySessionIdOrderByMessageOrderAsc(conversationId);
-        List<Message> messages = new ArrayList<>();
+        List<Message> messages = new ArrayList<>(views.size());
+        for (ChatMessageView view : views) {
+            messages.add(convertToMessage(view.role(), view.content()));
+        }
+        return messages;
+    }
 
-        for (ChatMessageEntity entity : entities) {
-            Message message = convertToMessage(entity);
-            messages.add(message);
+    /**
+     * Get the last messages of a session as read-only projections carrying the session's chatId.
+     * Served from the history cache when possible, otherwise with a single query.
+     * @param sessionId The session ID
+     * @param lastN Number of recent messages to retrieve; Integer.MAX_VALUE returns all
+     * @return Messages oldest first, empty if the session has none
+     */
+    @Transactional(readOnly = true)
+    public List<ChatMessageView> loadHistory(String sessionId, int lastN) {
+        log.debug("Retrieving last {} messages for session: {}", lastN, sessionId);
+
+        if (lastN <= 0) {
+            return new ArrayList<>();
+        }
+        if (!journal.isEnabled()) {
+            return loadStoredHistory(sessionId, lastN);
+        }
+
+        // Retry if a flush of this session committed meanwhile, which would show its messages twice or not at all
+        while (true) {
+            long stamp = journal.stamp(sessionId);
+            List<ChatMessageView> stored = loadStoredHistory(sessionId, lastN);
+            List<WriteAheadJournal.Checkpoint> journaled = journal.pending(sessionId);
+            if (journal.validate(sessionId, stamp)) {
+                return withJournaled(stored, journaled, lastN);
+            }
+        }
+    }
+
+    /**
+     * History as stored in the cache, database or archive, without journaled checkpoints
+     */
+    private List<ChatMessageView> loadStoredHistory(String sessionId, int lastN) {
+        List<ChatMessageView> cached = historyCache.get(sessionId, lastN);
+        if (cached != null) {
+            log.debug("Retrieved {} cached messages for session: {}", cached.size(), sessionId);
+            return cached;
+        }
+        long generation = historyCache.generation(sessionId);
+
+        List<ChatMessageView> views = snapshots.covers(lastN) ? snapshots.loadHistory(sessionId, lastN) : null;
+        if (views == null) {
+            // Tail query comes back newest first
+            views = new ArrayList<>(contentStore.resolveViews(messageRepository.findTailViews(
+                    sessionId, lastN == Integer.MAX_VALUE ? Limit.unlimited() : Limit.of(lastN))));
+            Collections.reverse(views);
+        }
+        if (views.isEmpty()) {
+            views = readArchived(sessionId, lastN);
         }
 
-        log.info("Retrieved {} messages for session: {}", messages.size(), conversationId);
+        if (!views.isEmpty()) {
+            // Fewer rows than asked for means we read the session from its first message
+            boolean complete = lastN == Integer.MAX_VALUE || views.size() < lastN;
+            historyCache.populate(sessionId, generation, views, complete);
+        }
+
+        log.debug("Retrieved {} messages for session: {}", views.size(), sessionId);
+        return views;
+    }
+
+    /**
+     * Get the most recent messages of a session that fit in a token budget
+     * @param conversationId The session ID
+     * @param maxTokens Token budget, as counted by MessageTokenCounter
+     * @return List of messages, oldest first
+     */
+    @Transactional(readOnly = true)
+    public List<Message> getWithinTokens(String conversationId, int maxTokens) {
+        List<ChatMessageView> views = loadTokenWindow(conversationId, maxTokens);
+
+        List<Message> messages = new ArrayList<>(views.size());
+        for (ChatMessageView view : views) {
+            messages.add(convertToMessage(view.role(), view.content()));
+        }
         return messages;
     }
 
+    /**
+     * Get the most recent messages of a session that together take up at most maxTokens tokens
+     * The window is picked from the token counts stored with the messages by one index range query;
+     * only messages stored before token counts existed, and archived sessions, are counted here.
+     * Journaled checkpoints not written yet are not included.
+     * @param sessionId The session ID
+     * @param maxTokens Token budget; the window is empty if the newest message alone exceeds it
+     * @return Messages oldest first, empty if the session has none
+     */
+    @Transactional(readOnly = true)
+    public List<ChatMessageView> loadTokenWindow(String sessionId, int maxTokens) {
+        log.debug("Retrieving messages within {} tokens for session: {}", maxTokens, sessionId);
+
+        if (maxTokens <= 0) {
+            return new ArrayList<>();
+        }
+        List<ChatMessageView> window = new ArrayList<>();
+        long remaining = maxTokens;
+        boolean full = false;
+        for (ChatMessageTokenView row : messageRepository.findTokenWindow(sessionId, maxTokens)) {
+            long windowTokens = row.sessionTokens() - row.tokensBefore();
+            if (windowTokens > maxTokens) {
+                // Ends within the budget but does not fit in it
+                full = true;
+                continue;
+            }
+            if (window.isEmpty()) {
+                remaining = maxTokens - windowTokens;
+            }
+            window.add(row.message());
+        }
+        window = new ArrayList<>(contentStore.resolveViews(window));
+
+        // Older messages without stored counts may still fit
+        Integer oldestOrder = window.isEmpty() ? null : window.get(0).messageOrder();
+        if (!full && remaining > 0 && (oldestOrder == null || oldestOrder > 1)) {
+            List<ChatMessageView> older = countOlder(sessionId, oldestOrder, remaining);
+            if (older.isEmpty() && oldestOrder == null) {
+                older = fitTokens(readArchived(sessionId, Integer.MAX_VALUE), remaining);
+            }
+            window.addAll(0, older);
+        }
+
+        log.debug("Retrieved {} messages within {} tokens for session: {}", window.size(), maxTokens, sessionId);
+        return window;
+    }
+
+    /**
+     * Count messages before the given order, newest first, for as long as they fit in the budget
+     * @param beforeOrder Exclusive upper bound on messageOrder, or null to start from the newest message
+     * @return The fitting messages, oldest first
+     */
+    private List<ChatMessageView> countOlder(String sessionId, Integer beforeOrder, long budget) {
+        List<ChatMessageView> older = new ArrayList<>();
+        int before = beforeOrder != null ? beforeOrder : Integer.MAX_VALUE;
+        while (true) {
+            List<ChatMessageView> page = contentStore.resolveViews(
+                    messageRepository.findViewsBefore(sessionId, before, Limit.of(COUNT_PAGE_SIZE)));
+            for (ChatMessageView view : page) {
+                int tokens = tokenCounter.count(view.content());
+                if (tokens > budget) {
+                    Collections.reverse(older);
+                    return older;
+                }
+                budget -= tokens;
+                older.add(view);
+            }
+            if (page.size() < COUNT_PAGE_SIZE) {
+                Collections.reverse(older);
+                return older;
+            }
+            before = page.get(page.size() - 1).messageOrder();
+        }
+    }
+
+    /**
+     * The most recent of the given messages that fit in the budget, counted here
+     * @param views Messages oldest first
+     */
+    private List<ChatMessageView> fitTokens(List<ChatMessageView> views, long budget) {
+        int start = views.size();
+        while (start > 0) {
+            int tokens = tokenCounter.count(views.get(start - 1).content());
+            if (tokens > budget) {
+                break;
+            }
+            budget -= tokens;
+            start--;
+        }
+        return new ArrayList<>(views.subList(start, views.size()));
+    }
+
+    /**
+     * Get a page of messages after the given message order, oldest first
+     * @param sessionId The session ID
+     * @param afterOrder Exclusive lower bound on messageOrder (0 for the first page)
+     * @param limit Maximum number of messages to return
+     */
+    @Transactional(readOnly = true)
+    public List<ChatMessageEntity> getPage(String sessionId, int afterOrder, int limit) {
+        List<ChatMessageEntity> entities = messageRepository.findPage(sessionId, afterOrder, Limit.of(limit));
+        if (entities.isEmpty()) {
+            SessionArchive.ArchivedSession archived = archivedSession(sessionId);
+            if (archived != null) {
+                return archived.messages().stream()
+                        .filter(message -> message.messageOrder() > afterOrder)
+                        .limit(limit)
+                        .map(message -> toEntity(archived, message))
+                        .toList();
+            }
+        }
+        contentStore.resolve(entities);
+        return entities;
+    }
+
+    /**
+     * Visit every message of a session in order without materializing the history.
+     * Rows come from a JDBC cursor and each entity is detached once visited,
+     * so memory stays bounded by the fetch size.
+     */
+    @Transactional(readOnly = true)
+    public void forEachMessage(String sessionId, Consumer<ChatMessageEntity> consumer) {
+        long visited = 0;
+        try (Stream<ChatMessageEntity> entities = messageRepository.streamBySessionIdOrderByMessageOrderAsc(sessionId)) {
+            Iterator<ChatMessageEntity> iterator = entities.iterator();
+            while (iterator.hasNext()) {
+                ChatMessageEntity entity = iterator.next();
+                // Shared bodies are few and hot, so this is a cache lookup after the first one
+                contentStore.resolve(List.of(entity));
+                consumer.accept(entity);
+                entityManager.detach(entity);
+                visited++;
+            }
+        }
+        if (visited == 0) {
+            SessionArchive.ArchivedSession archived = archivedSession(sessionId);
+            if (archived != null) {
+                archived.messages().forEach(message -> consumer.accept(toEntity(archived, message)));
+            }
+        }
+    }
+
     /**
      * Clear all messages for a session
      * @param conversationId The session ID
@@ -170,17 +582,85 @@ public class PostgresChatMemory implements ChatMemory {
     public void clear(String conversationId) {
         log.debug("Clearing messages for session: {}", conversationId);
         
-        messageRepository.deleteBySessionId(conversationId);
-        sessionRepository.deleteById(conversationId);
+        // Delete the session row first: writers lock it before anything else, so this keeps lock order
+        boolean deleted = sessionRepository.deleteSession(conversationId) > 0 || archive.contains(conversationId);
+        // Delete messages and release their shared bodies in one statement
+        List<String> released = messageRepository.deleteSessionReleasingContent(conversationId);
+        contentStore.deleteUnreferenced(released);
+        checkpointRepository.deleteBySession(conversationId);
+        snapshots.delete(conversationId);
+        afterCommit(() -> {
+            historyCache.invalidate(conversationId);
+            removeFromArchive(conversationId);
+            if (deleted) {
+                metrics.sessionDeleted();
+            }
+        });
         
-        log.info("Cleared all messages for session: {}", conversationId);
+        log.debug("Cleared all messages for session: {}", conversationId);
     }
 
     /**
      * Check if session exists
      */
     public boolean exists(String sessionId) {
-        return sessionRepository.existsBySessionId(sessionId);
+        // Journal first: a checkpoint leaves it only once it is in the database
+        return journal.hasPending(sessionId) || archive.contains(sessionId)
+                || sessionRepository.existsBySessionId(sessionId);
+    }
+
+    /**
+     * Full-text search over the stored messages of a chat, best match first
+     * Sessions in the archive are not searched.
+     * @param query Search terms in websearch_to_tsquery syntax
+     * @param after Position of the last hit of the previous page, or SearchCursor.first for the first page
+     * @param limit Maximum number of hits to return
+     */
+    @Transactional(readOnly = true)
+    public List<SearchHit> search(String chatId, String query, SearchCursor after, int limit) {
+        List<ChatMessageRepository.SearchRow> rows = messageRepository.search(
+                chatId, query, after.asOf(), MAX_RANKED_MATCHES, after.rank(), after.sessionId(), after.messageOrder(),
+                limit);
+
+        List<ChatMessageView> views = new ArrayList<>(rows.size());
+        for (ChatMessageRepository.SearchRow row : rows) {
+            views.add(new ChatMessageView(chatId, row.getRole(), row.getContent(), row.getCompressedContent(),
+                                          row.getContentHash(), row.getMessageOrder()));
+        }
+        views = contentStore.resolveViews(views);
+
+        List<SearchHit> hits = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            ChatMessageRepository.SearchRow row = rows.get(i);
+            hits.add(new SearchHit(row.getSessionId(), views.get(i), row.getRank(), row.getCreatedAt()));
+        }
+        return hits;
+    }
+
+    /**
+     * Index for search up to limit messages stored before messages were indexed on insert
+     * @return Number of messages indexed; fewer than limit once none are left
+     */
+    @Transactional
+    public int indexForSearch(int limit) {
+        List<ChatMessageEntity> entities = messageRepository.findUnindexed(limit);
+        if (entities.isEmpty()) {
+            return 0;
+        }
+        entities.forEach(entityManager::detach);
+        contentStore.resolve(entities);
+
+        List<Map<String, Object>> texts = new ArrayList<>(entities.size());
+        for (ChatMessageEntity entity : entities) {
+            texts.add(Map.of("id", entity.getId(), "created_at", entity.getCreatedAt().toString(),
+                             "text", ChatMessageEntity.searchTextOf(entity.getContent())));
+        }
+        try {
+            messageRepository.updateSearchVectors(objectMapper.writeValueAsString(texts));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize message texts for search", e);
+        }
+        return entities.size();
     }
 
     /**
@@ -188,7 +668,108 @@ public class PostgresChatMemory implements ChatMemory {
      */
     @Transactional(readOnly = true)
     public List<ChatSessionEntity> getSessionsForChat(String chatId) {
-        return sessionRepository.findByChatIdOrderByUpdatedAtDesc(chatId);
+        List<ChatSessionEntity> sessions = sessionRepository.findByChatIdOrderByUpdatedAtDesc(chatId);
+        List<SessionArchive.Entry> archived = archive.sessionsForChat(chatId);
+        if (archived.isEmpty()) {
+            return sessions;
+        }
+
+        // Merge in archived sessions; a session in both is being archived or restored and the database wins
+        Set<String> live = sessions.stream().map(ChatSessionEntity::getSessionId).collect(Collectors.toSet());
+        List<ChatSessionEntity> merged = new ArrayList<>(sessions);
+        for (SessionArchive.Entry entry : archived) {
+            if (!live.contains(entry.sessionId())) {
+                merged.add(ChatSessionEntity.builder()
+                        .sessionId(entry.sessionId())
+                        .chatId(entry.chatId())
+                        .createdAt(entry.createdAt())
+                        .updatedAt(entry.updatedAt())
+                        .messageCount(entry.messageCount())
+                        .lastMessagePreview(entry.lastMessagePreview())
+                        .build());
+            }
+        }
+        merged.sort(Comparator.comparing(ChatSessionEntity::getUpdatedAt).reversed());
+        return merged;
+    }
+
+    /**
+     * Delete the oldest messages of a session, keeping the session itself
+     * Lets a purge take a large session apart in short transactions before clearing it.
+     * @return Number of messages deleted; fewer than limit once the session is empty
+     */
+    @Transactional
+    public long deleteOldestMessages(String sessionId, int limit) {
+        ChatMessageRepository.DeletedChunk chunk = messageRepository.deleteOldestReleasingContent(sessionId, limit);
+        if (chunk.getReleased() != null) {
+            contentStore.deleteUnreferenced(List.of(chunk.getReleased().split(",")));
+        }
+        if (chunk.getDeleted() > 0) {
+            snapshots.invalidate(sessionId);
+            afterCommit(() -> historyCache.invalidate(sessionId));
+        }
+        return chunk.getDeleted();
+    }
+
+    /**
+     * Snapshot a session and all of its messages for the archive
+     * @return null if the session does not exist
+     */
+    @Transactional(readOnly = true)
+    public SessionArchive.ArchivedSession snapshot(String sessionId) {
+        ChatSessionEntity session = sessionRepository.findById(sessionId).orElse(null);
+        if (session == null) {
+            return null;
+        }
+        List<SessionArchive.ArchivedMessage> messages = new ArrayList<>();
+        forEachMessage(sessionId, entity -> messages.add(new SessionArchive.ArchivedMessage(
+                entity.getMessageId(), entity.getRole(), entity.getContent(), entity.getMessageOrder(),
+                entity.getPosition(), entity.getCreatedAt())));
+        return new SessionArchive.ArchivedSession(session.getSessionId(), session.getChatId(), session.getCreatedAt(),
+                session.getUpdatedAt(), session.getMessageCount(), session.getLastMessagePreview(), messages);
+    }
+
+    /**
+     * Delete an archived session from the database, unless it was written to since its snapshot
+     * @param updatedAt The session's updatedAt in the snapshot
+     * @return false if the session changed or is gone; it then stays in the database
+     */
+    @Transactional
+    public boolean deleteArchived(String sessionId, Instant updatedAt) {
+        // Takes the session row lock, so writers wait and then find the session archived
+        if (sessionRepository.deleteSessionIfUnchanged(sessionId, updatedAt) == 0) {
+            return false;
+        }
+        List<String> released = messageRepository.deleteSessionReleasingContent(sessionId);
+        contentStore.deleteUnreferenced(released);
+        snapshots.delete(sessionId);
+        afterCommit(() -> historyCache.invalidate(sessionId));
+        return true;
+    }
+
+    /**
+     * Pin a summary to a session's snapshot, replacing any earlier one
+     * An archived session is restored first, as for a write.
+     * @param throughOrder Last message order the summary covers, or null
+     * @return false if the session does not exist
+     */
+    @Transactional
+    public boolean pinSummary(String sessionId, String content, Integer throughOrder) {
+        restoreIfArchived(sessionId);
+        // Clearing the session waits for the key-share lock, then deletes the summary with it
+        if (sessionRepository.lockForSnapshot(sessionId) == null) {
+            return false;
+        }
+        snapshots.pinSummary(sessionId, content, throughOrder);
+        return true;
+    }
+
+    /**
+     * The summary pinned to a session, or null
+     */
+    @Transactional(readOnly = true)
+    public ChatSessionSummaryEntity getSummary(String sessionId) {
+        return snapshots.getSummary(sessionId);
     }
 
     /**
@@ -196,14 +777,214 @@ public class PostgresChatMemory implements ChatMemory {
      */
     public String createNewSession(String chatId) {
         String sessionId = UUID.randomUUID().toString();
-        log.info("Created new sessionId: {} for chatId: {}", sessionId, chatId);
+        log.debug("Created new sessionId: {} for chatId: {}", sessionId, chatId);
         return sessionId;
     }
 
+    /**
+     * Get session history cache statistics
+     */
+    public SessionHistoryCache.Stats cacheStats() {
+        return historyCache.stats();
+    }
+
+    /**
+     * Get write-ahead journal statistics
+     */
+    public WriteAheadJournal.Stats journalStats() {
+        return journal.stats();
+    }
+
+    /**
+     * Move an archived session back into the database before writing to it, so its message order continues.
+     * Restored rows are dated now, so they land in the current partition.
+     */
+    @Transactional
+    public void restoreIfArchived(String sessionId) {
+        if (!archive.contains(sessionId)) {
+            return;
+        }
+        SessionArchive.ArchivedSession archived = archive.read(sessionId);
+        if (archived == null) {
+            return;
+        }
+        // Archives do not keep token counts; count the restored messages afresh
+        int[] tokens = new int[archived.messages().size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = tokenCounter.count(archived.messages().get(i).content());
+        }
+        // Only one writer gets to insert the row; the others wait for it, then see the restored session
+        if (sessionRepository.insertRestored(sessionId, archived.chatId(), archived.messageCount(),
+                archived.lastMessagePreview(), sum(tokens)) == 0) {
+            return;
+        }
+
+        Instant now = Instant.now();
+        List<ChatMessageEntity> entities = new ArrayList<>(archived.messages().size());
+        for (SessionArchive.ArchivedMessage message : archived.messages()) {
+            ChatMessageEntity entity = toEntity(archived, message);
+            entity.setCreatedAt(now);
+            entities.add(entity);
+        }
+        setTokens(entities, tokens, sum(tokens));
+        contentStore.intern(entities);
+        messageRepository.saveAll(entities);
+        afterCommit(() -> removeFromArchive(sessionId));
+
+        log.info("Restored archived session {} with {} messages", sessionId, entities.size());
+    }
+
+    /**
+     * Last messages of an archived session, oldest first; empty if it is not archived
+     */
+    private List<ChatMessageView> readArchived(String sessionId, int lastN) {
+        SessionArchive.ArchivedSession archived = archivedSession(sessionId);
+        if (archived == null) {
+            return new ArrayList<>();
+        }
+        List<SessionArchive.ArchivedMessage> messages = archived.messages();
+        List<ChatMessageView> views = new ArrayList<>();
+        for (int i = Math.max(0, messages.size() - lastN); i < messages.size(); i++) {
+            views.add(toView(archived, messages.get(i)));
+        }
+        log.debug("Read {} messages of archived session: {}", views.size(), sessionId);
+        return views;
+    }
+
+    /**
+     * The archived copy of a session, or null if it is not archived.
+     * While a session is being archived or restored it is in both places and the database wins.
+     */
+    private SessionArchive.ArchivedSession archivedSession(String sessionId) {
+        if (!archive.contains(sessionId) || sessionRepository.existsBySessionId(sessionId)) {
+            return null;
+        }
+        return archive.read(sessionId);
+    }
+
+    private void removeFromArchive(String sessionId) {
+        try {
+            archive.remove(sessionId);
+        } catch (IOException e) {
+            log.error("Failed to remove session {} from the archive", sessionId, e);
+        }
+    }
+
+    /**
+     * Append the messages of journaled checkpoints to stored history, numbering them on from its last
+     * message as the flusher will, and keep the last lastN
+     */
+    private static List<ChatMessageView> withJournaled(List<ChatMessageView> stored,
+                                                       List<WriteAheadJournal.Checkpoint> journaled, int lastN) {
+        if (journaled.isEmpty()) {
+            return stored;
+        }
+        List<ChatMessageView> views = new ArrayList<>(stored);
+        Integer lastOrder = stored.isEmpty() ? null : stored.get(stored.size() - 1).messageOrder();
+        int order = lastOrder != null ? lastOrder : 0;
+        for (WriteAheadJournal.Checkpoint checkpoint : journaled) {
+            for (WriteAheadJournal.JournaledMessage message : checkpoint.messages()) {
+                views.add(new ChatMessageView(checkpoint.chatId(), message.role(), message.content(), ++order));
+            }
+        }
+        return views.size() > lastN ? new ArrayList<>(views.subList(views.size() - lastN, views.size())) : views;
+    }
+
+    private static ChatMessageView toView(SessionArchive.ArchivedSession session, SessionArchive.ArchivedMessage message) {
+        return new ChatMessageView(session.chatId(), message.role(), message.content(), message.messageOrder());
+    }
+
+    private static ChatMessageEntity toEntity(SessionArchive.ArchivedSession session,
+                                              SessionArchive.ArchivedMessage message) {
+        return ChatMessageEntity.builder()
+                .chatId(session.chatId())
+                .sessionId(session.sessionId())
+                .messageId(message.messageId())
+                .role(message.role())
+                .content(message.content())
+                .messageOrder(message.messageOrder())
+                .position(message.position())
+                .createdAt(message.createdAt())
+                .build();
+    }
+
+    /**
+     * Write committed messages through to the history cache
+     */
+    private void cacheAfterCommit(String sessionId, List<ChatMessageEntity> entities) {
+        List<ChatMessageView> views = new ArrayList<>(entities.size());
+        for (ChatMessageEntity entity : entities) {
+            views.add(new ChatMessageView(entity.getChatId(), entity.getRole(), entity.getContent(), entity.getMessageOrder()));
+        }
+        afterCommit(() -> historyCache.append(sessionId, views));
+    }
+
+    /**
+     * Run an action once the current transaction commits, or right away if there is none
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Store token counts and the session's running token sum on messages that end the session
+     * @param tokens Token count of each entity
+     * @param sessionTokens The session's running token sum including these messages
+     */
+    private static void setTokens(List<ChatMessageEntity> entities, int[] tokens, long sessionTokens) {
+        long cumulative = sessionTokens;
+        for (int i = entities.size() - 1; i >= 0; i--) {
+            entities.get(i).setTokenCount(tokens[i]);
+            entities.get(i).setCumulativeTokens(cumulative);
+            cumulative -= tokens[i];
+        }
+    }
+
+    private static long sum(int[] tokens) {
+        long sum = 0;
+        for (int count : tokens) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    /**
+     * Convert Spring AI messages to entities with consecutive orders starting at firstOrder
+     * @param messageId The checkpoint's messageId, or null to give every message a random one
+     */
+    public static List<ChatMessageEntity> toEntities(String chatId, String sessionId, String messageId, int firstOrder,
+                                              List<Message> messages) {
+        Instant now = Instant.now();
+        List<ChatMessageEntity> entities = new ArrayList<>(messages.size());
+        for (int position = 0; position < messages.size(); position++) {
+            Message message = messages.get(position);
+            entities.add(ChatMessageEntity.builder()
+                    .messageId(messageId != null ? messageId : UUID.randomUUID().toString())
+                    .chatId(chatId)
+                    .sessionId(sessionId)
+                    .role(mapMessageTypeToRole(message.getMessageType()))
+                    .content(message.getContent())
+                    .messageOrder(firstOrder + position)
+                    .position(position)
+                    .createdAt(now)
+                    .build());
+        }
+        return entities;
+    }
+
     /**
      * Map Spring AI MessageType to our role string
      */
-    private String mapMessageTypeToRole(MessageType messageType) {
+    private static String mapMessageTypeToRole(MessageType messageType) {
         return switch (messageType) {
             case USER -> "USER";
             case ASSISTANT -> "ASSISTANT";
@@ -213,17 +994,24 @@ public class PostgresChatMemory implements ChatMemory {
     }
 
     /**
-     * Convert ChatMessageEntity to Spring AI Message
+     * Convert a stored role and content to Spring AI Message
      */
-    private Message convertToMessage(ChatMessageEntity entity) {
-        return switch (entity.getRole()) {
-            case "USER" -> new UserMessage(entity.getContent());
-            case "ASSISTANT" -> new AssistantMessage(entity.getContent());
-            case "SYSTEM" -> new org.springframework.ai.chat.messages.SystemMessage(entity.getContent());
-            default -> new UserMessage(entity.getContent());
+    public static Message convertToMessage(String role, String content) {
+        return switch (role) {
+            case "USER" -> new UserMessage(content);
+            case "ASSISTANT" -> new AssistantMessage(content);
+            case "SYSTEM" -> new org.springframework.ai.chat.messages.SystemMessage(content);
+            default -> new UserMessage(content);
         };
     }
 
+    /**
+     * Preview text for the session row: the last message, truncated
+     */
+    private String previewOf(List<Message> messages) {
+        return messages.isEmpty() ? null : truncate(messages.get(messages.size() - 1).getContent(), 100);
+    }
+
     /**
      * Truncate string to specified length
      */
@@ -233,4 +1021,34 @@ public class PostgresChatMemory implements ChatMemory {
         }
         return str.substring(0, maxLength) + "...";
     }
+
+    /**
+     * One checkpoint of {@link #addAll}
+     */
+    public record CheckpointWrite(String chatId, String messageId, List<Message> messages) {
+    }
+
+    /**
+     * A message found by search, with its rank for the query
+     */
+    public record SearchHit(String sessionId, ChatMessageView message, float rank, Instant createdAt) {
+
+        public SearchCursor cursor(Instant asOf) {
+            return new SearchCursor(asOf, rank, sessionId, message.messageOrder());
+        }
+    }
+
+    /**
+     * Position of a hit in search order, to continue a search after it
+     * @param asOf Messages created later are not searched, so that every page of a search sees the same matches
+     */
+    public record SearchCursor(Instant asOf, float rank, String sessionId, int messageOrder) {
+
+        /**
+         * Start of a search of the messages created up to asOf
+         */
+        public static SearchCursor first(Instant asOf) {
+            return new SearchCursor(asOf, Float.POSITIVE_INFINITY, "", 0);
+        }
+    }
 }
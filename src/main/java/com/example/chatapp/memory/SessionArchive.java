@@ -0,0 +1,327 @@
+package com.example.chatapp.memory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Local-disk archive of cold sessions
+ * Each archived session is one Deflate-compressed JSON record appended to a segment file
+ * (segment-000001.seg, ...). index.ndjson is an append-only log of put/delete entries locating the
+ * latest record of each session; it is replayed into memory on startup. Records are read through
+ * read-only memory mappings of the segments. Superseded records stay in their segment.
+ * The archive is per node: sessions archived on one node are only readable there.
+ */
+@Slf4j
+@Component
+public class SessionArchive {
+
+    private static final String INDEX_FILE = "index.ndjson";
+    private static final int RECORD_HEADER_BYTES = 8;  // uncompressed length, compressed length
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final long segmentBytes;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> sessionsByChat = new ConcurrentHashMap<>();
+    private final Map<Integer, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+
+    // Writer state, guarded by writeLock; a lock rather than synchronized so virtual threads doing file I/O
+    // under it do not pin their carrier thread
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private FileChannel segment;
+    private int segmentNumber;
+    private FileChannel index;
+
+    public SessionArchive(ObjectMapper objectMapper,
+                          @Value("${chat.archive.directory:./data/archive}") Path directory,
+                          @Value("${chat.archive.segment-bytes:268435456}") long segmentBytes) {
+        this.objectMapper = objectMapper;
+        this.directory = directory;
+        // Records are addressed with int offsets into the mapped segment
+        this.segmentBytes = Math.min(segmentBytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Replay the index of an existing archive
+     */
+    @PostConstruct
+    public void load() throws IOException {
+        Path indexPath = directory.resolve(INDEX_FILE);
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry;
+                try {
+                    entry = objectMapper.readValue(line, Entry.class);
+                } catch (IOException e) {
+                    // A torn last line from a crash; its record was never acknowledged
+                    log.warn("Skipping unreadable archive index line: {}", line);
+                    continue;
+                }
+                if (entry.segment() == null) {
+                    forget(entry.sessionId());
+                } else {
+                    remember(entry);
+                    segmentNumber = Math.max(segmentNumber, entry.segment());
+                }
+            }
+        }
+        log.info("Loaded session archive from {}: {} sessions", directory, entries.size());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            if (segment != null) {
+                segment.close();
+            }
+            if (index != null) {
+                index.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Check whether a session is archived
+     */
+    public boolean contains(String sessionId) {
+        return entries.containsKey(sessionId);
+    }
+
+    /**
+     * Index entries of the archived sessions of a chat
+     */
+    public List<Entry> sessionsForChat(String chatId) {
+        List<Entry> result = new ArrayList<>();
+        for (String sessionId : sessionsByChat.getOrDefault(chatId, Set.of())) {
+            Entry entry = entries.get(sessionId);
+            if (entry != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read an archived session
+     * @return The session, or null if it is not archived
+     */
+    public ArchivedSession read(String sessionId) {
+        Entry entry = entries.get(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        MappedByteBuffer mapped = mapping(entry.segment(), entry.offset() + entry.length());
+        int plainLength = mapped.getInt((int) entry.offset());
+        int compressedLength = mapped.getInt((int) entry.offset() + 4);
+        byte[] compressed = new byte[compressedLength];
+        mapped.get((int) entry.offset() + RECORD_HEADER_BYTES, compressed);
+
+        byte[] plain = new byte[plainLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int read = 0;
+            while (read < plainLength && !inflater.finished()) {
+                read += inflater.inflate(plain, read, plainLength - read);
+            }
+            return objectMapper.readValue(plain, ArchivedSession.class);
+        } catch (DataFormatException | IOException e) {
+            throw new IllegalStateException("Corrupt archive record of session " + sessionId, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Append a session to the current segment and index it; durable when this returns
+     */
+    public Entry write(ArchivedSession session) throws IOException {
+        byte[] plain = objectMapper.writeValueAsBytes(session);
+        byte[] compressed = deflate(plain);
+
+        writeLock.lock();
+        try {
+            FileChannel channel = currentSegment(RECORD_HEADER_BYTES + compressed.length);
+            long offset = channel.size();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + compressed.length);
+            record.putInt(plain.length).putInt(compressed.length).put(compressed).flip();
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+
+            Entry entry = new Entry(session.sessionId(), session.chatId(), segmentNumber, offset, record.capacity(),
+                    session.createdAt(), session.updatedAt(), session.messageCount(), session.lastMessagePreview());
+            appendIndex(entry);
+            remember(entry);
+            return entry;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Drop a session from the archive, e.g. once it was restored or cleared
+     */
+    public void remove(String sessionId) throws IOException {
+        writeLock.lock();
+        try {
+            if (!entries.containsKey(sessionId)) {
+                return;
+            }
+            appendIndex(new Entry(sessionId, null, null, 0, 0, null, null, null, null));
+            forget(sessionId);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void remember(Entry entry) {
+        Entry previous = entries.put(entry.sessionId(), entry);
+        if (previous != null && !previous.chatId().equals(entry.chatId())) {
+            unlink(previous);
+        }
+        sessionsByChat.computeIfAbsent(entry.chatId(), c -> ConcurrentHashMap.newKeySet()).add(entry.sessionId());
+    }
+
+    private void forget(String sessionId) {
+        Entry previous = entries.remove(sessionId);
+        if (previous != null) {
+            unlink(previous);
+        }
+    }
+
+    private void unlink(Entry entry) {
+        Set<String> sessions = sessionsByChat.get(entry.chatId());
+        if (sessions != null) {
+            sessions.remove(entry.sessionId());
+        }
+    }
+
+    private void appendIndex(Entry entry) throws IOException {
+        if (index == null) {
+            Files.createDirectories(directory);
+            index = FileChannel.open(directory.resolve(INDEX_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        ByteBuffer line = ByteBuffer.wrap((objectMapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            index.write(line);
+        }
+        index.force(false);
+    }
+
+    /**
+     * The segment to append to, rolling over to a new one when the record would not fit
+     */
+    private FileChannel currentSegment(int recordBytes) throws IOException {
+        if (segment == null) {
+            Files.createDirectories(directory);
+            segmentNumber = Math.max(segmentNumber, 1);
+            segment = openSegment(segmentNumber);
+        }
+        if (segment.size() > 0 && segment.size() + recordBytes > segmentBytes) {
+            segment.close();
+            segment = openSegment(++segmentNumber);
+        }
+        return segment;
+    }
+
+    private FileChannel openSegment(int number) throws IOException {
+        return FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Read-only mapping of a segment covering at least the given size; remapped as the segment grows
+     */
+    private MappedByteBuffer mapping(int number, long minSize) {
+        MappedByteBuffer mapped = mappings.get(number);
+        if (mapped != null && mapped.capacity() >= minSize) {
+            return mapped;
+        }
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map archive segment " + number, e);
+        }
+        mappings.put(number, mapped);
+        return mapped;
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve("segment-%06d.seg".formatted(number));
+    }
+
+    private static byte[] deflate(byte[] plain) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 4 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Index entry: where the latest record of a session is, plus the session row for listings.
+     * An entry without a segment removes the session.
+     */
+    public record Entry(String sessionId, String chatId, Integer segment, long offset, int length,
+                        Instant createdAt, Instant updatedAt, Integer messageCount, String lastMessagePreview) {
+    }
+
+    /**
+     * A session row and all of its messages, as archived
+     */
+    public record ArchivedSession(String sessionId, String chatId, Instant createdAt, Instant updatedAt,
+                                  Integer messageCount, String lastMessagePreview, List<ArchivedMessage> messages) {
+    }
+
+    /**
+     * A message as archived, with its body inline
+     */
+    public record ArchivedMessage(String messageId, String role, String content, Integer messageOrder,
+                                  Integer position, Instant createdAt) {
+    }
+}
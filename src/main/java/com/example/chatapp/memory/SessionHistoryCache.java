@@ -0,0 +1,245 @@
+package com.example.chatapp.memory;
+
+import com.example.chatapp.repository.ChatMessageView;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process cache of recent session tails in front of PostgresChatMemory
+ * Entries are kept in messageOrder, bounded per session by message count and overall by content bytes.
+ * The newest cached message of a session always has the session's messageCount as its order
+ * (the value getLastMessageOrder would return), so appends are only applied when they continue
+ * that order exactly; anything else drops the entry.
+ */
+@Slf4j
+@Component
+public class SessionHistoryCache {
+
+    private static final int GENERATION_STRIPES = 1024;
+    private static final long MESSAGE_OVERHEAD_BYTES = 48;
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final int maxMessagesPerSession;
+
+    // Access-ordered, so iteration starts at the least recently used session
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // Bumped on every write to a session; a read only populates if its stripe did not move meanwhile
+    private final long[] generations = new long[GENERATION_STRIPES];
+    private long totalBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SessionHistoryCache(@Value("${chat.memory.cache.enabled:true}") boolean enabled,
+                               @Value("${chat.memory.cache.max-bytes:67108864}") long maxBytes,
+                               @Value("${chat.memory.cache.max-messages-per-session:200}") int maxMessagesPerSession) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.maxMessagesPerSession = maxMessagesPerSession;
+        log.info("Session history cache enabled: {}, maxBytes: {}, maxMessagesPerSession: {}",
+                 enabled, maxBytes, maxMessagesPerSession);
+    }
+
+    /**
+     * Get the last messages of a session if the cache can answer exactly
+     * @return The messages oldest first, or null on a miss
+     */
+    public List<ChatMessageView> get(String sessionId, int lastN) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(sessionId);
+            if (entry != null && (entry.complete || entry.messages.size() >= lastN)) {
+                hits.increment();
+                return entry.tail(lastN);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Write generation of a session, taken before reading it from the database
+     */
+    public synchronized long generation(String sessionId) {
+        return generations[stripe(sessionId)];
+    }
+
+    /**
+     * Cache messages read from the database
+     * @param generation The value of {@link #generation} taken before the read
+     * @param messages Contiguous messages, oldest first
+     * @param complete Whether the messages start at the first message of the session
+     */
+    public void populate(String sessionId, long generation, List<ChatMessageView> messages, boolean complete) {
+        if (!enabled || messages.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            // A write committed since the read started; the rows may already be stale
+            if (generations[stripe(sessionId)] != generation || entries.containsKey(sessionId)) {
+                return;
+            }
+            Entry entry = new Entry(messages.get(0).messageOrder() - 1, complete);
+            entries.put(sessionId, entry);
+            totalBytes += entry.append(messages, maxMessagesPerSession);
+            evictOverflow();
+        }
+    }
+
+    /**
+     * Write-through of committed messages, oldest first
+     */
+    public void append(String sessionId, List<ChatMessageView> messages) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            generations[stripe(sessionId)]++;
+            if (messages.isEmpty()) {
+                // Nothing to append, but the session row (and its chatId) may have changed
+                remove(sessionId);
+                return;
+            }
+            int firstOrder = messages.get(0).messageOrder();
+            Entry entry = entries.get(sessionId);
+            if (entry == null && firstOrder == 1) {
+                // Brand new session: we hold all of it
+                entry = new Entry(0, true);
+                entries.put(sessionId, entry);
+            } else if (entry == null || entry.lastOrder != firstOrder - 1) {
+                // Not cached, or another writer got in between; the next read will reload
+                remove(sessionId);
+                return;
+            }
+            totalBytes += entry.append(messages, maxMessagesPerSession);
+            evictOverflow();
+        }
+    }
+
+    /**
+     * Drop a session, e.g. after it was cleared
+     */
+    public void invalidate(String sessionId) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            generations[stripe(sessionId)]++;
+            remove(sessionId);
+        }
+    }
+
+    /**
+     * Drop every session, e.g. after messages were removed outside the write path
+     */
+    public void invalidateAll() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            for (int i = 0; i < GENERATION_STRIPES; i++) {
+                generations[i]++;
+            }
+            entries.clear();
+            totalBytes = 0;
+        }
+    }
+
+    /**
+     * Current hit/miss/eviction counters and size
+     */
+    public synchronized Stats stats() {
+        return new Stats(enabled, hits.sum(), misses.sum(), evictions.sum(), entries.size(), totalBytes, maxBytes);
+    }
+
+    private void remove(String sessionId) {
+        Entry removed = entries.remove(sessionId);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private static int stripe(String sessionId) {
+        return (sessionId.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    private static long sizeOf(ChatMessageView message) {
+        String content = message.content();
+        return MESSAGE_OVERHEAD_BYTES + (content != null ? 2L * content.length() : 0);
+    }
+
+    /**
+     * Contiguous run of a session's newest messages
+     */
+    private static final class Entry {
+        private final ArrayDeque<ChatMessageView> messages = new ArrayDeque<>();
+        private int lastOrder;
+        private boolean complete;
+        private long bytes;
+
+        private Entry(int lastOrder, boolean complete) {
+            this.lastOrder = lastOrder;
+            this.complete = complete;
+        }
+
+        /**
+         * Append newer messages, trimming the oldest beyond the cap
+         * @return Change in size, in bytes
+         */
+        private long append(List<ChatMessageView> added, int maxMessages) {
+            long before = bytes;
+            for (ChatMessageView message : added) {
+                messages.addLast(message);
+                bytes += sizeOf(message);
+            }
+            lastOrder += added.size();
+            while (messages.size() > maxMessages) {
+                bytes -= sizeOf(messages.removeFirst());
+                complete = false;
+            }
+            return bytes - before;
+        }
+
+        private List<ChatMessageView> tail(int lastN) {
+            int skip = Math.max(0, messages.size() - lastN);
+            List<ChatMessageView> result = new ArrayList<>(messages.size() - skip);
+            Iterator<ChatMessageView> it = messages.iterator();
+            for (int i = 0; it.hasNext(); i++) {
+                ChatMessageView message = it.next();
+                if (i >= skip) {
+                    result.add(message);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Snapshot of cache statistics
+     */
+    public record Stats(boolean enabled, long hits, long misses, long evictions,
+                        int sessions, long bytes, long maxBytes) {
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.chatapp.memory;
+
+import com.example.chatapp.entity.ChatMessageEntity;
+import com.example.chatapp.entity.ChatSessionSnapshotEntity;
+import com.example.chatapp.entity.ChatSessionSummaryEntity;
+import com.example.chatapp.entity.MessageContentCodec;
+import com.example.chatapp.repository.ChatMessageRepository;
+import com.example.chatapp.repository.ChatMessageView;
+import com.example.chatapp.repository.ChatSessionRepository;
+import com.example.chatapp.repository.ChatSessionSnapshotRepository;
+import com.example.chatapp.repository.ChatSessionSummaryRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot-plus-tail storage for long sessions
+ * A session's snapshot materializes its messages up to some order K in a few compressed chunk rows;
+ * SessionCompactor extends it in the background, never closer than keep-tail messages to the end of the
+ * session. A history read then takes the rows after K from chat_messages and the rest from the snapshot,
+ * instead of walking thousands of index entries and heap rows. The rows themselves are never removed, so
+ * paging, streaming and token windows read them as before, and a missing snapshot only costs speed.
+ * Deleting messages of a session deletes its snapshot, which is then rebuilt from the rows that are left.
+ * A summary of the session can be pinned to its snapshot; it goes when the session is cleared or archived.
+ */
+@Slf4j
+@Component
+public class SessionSnapshotStore {
+
+    // A compaction or delete between the queries of a read makes it retry, and give up after this many tries
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    private final ChatSessionSnapshotRepository snapshotRepository;
+    private final ChatSessionSummaryRepository summaryRepository;
+    private final ChatSessionRepository sessionRepository;
+    private final ChatMessageRepository messageRepository;
+    private final SharedContentStore contentStore;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int keepTail;
+
+    public SessionSnapshotStore(ChatSessionSnapshotRepository snapshotRepository,
+                                ChatSessionSummaryRepository summaryRepository,
+                                ChatSessionRepository sessionRepository,
+                                ChatMessageRepository messageRepository,
+                                SharedContentStore contentStore,
+                                EntityManager entityManager,
+                                ObjectMapper objectMapper,
+                                @Value("${chat.compaction.enabled:false}") boolean enabled,
+                                @Value("${chat.compaction.keep-tail:100}") int keepTail) {
+        this.snapshotRepository = snapshotRepository;
+        this.summaryRepository = summaryRepository;
+        this.sessionRepository = sessionRepository;
+        this.messageRepository = messageRepository;
+        this.contentStore = contentStore;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.keepTail = keepTail;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int keepTail() {
+        return keepTail;
+    }
+
+    /**
+     * Whether a read of the last lastN messages can reach into a snapshot
+     */
+    public boolean covers(int lastN) {
+        return enabled && lastN > keepTail;
+    }
+
+    /**
+     * Last messages of a session from its snapshot and the rows after it, oldest first
+     * Must run in a transaction. Chunks are read last: a delete that committed before then removed them,
+     * and one that did not cannot have removed the tail rows read before.
+     * @param lastN Number of recent messages to retrieve; Integer.MAX_VALUE returns all
+     * @return null if the session has no snapshot or no rows after it; read the rows instead
+     */
+    public List<ChatMessageView> loadHistory(String sessionId, int lastN) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            List<ChatSessionSnapshotRepository.ChunkHead> heads = snapshotRepository.findChunkHeads(sessionId);
+            if (heads.isEmpty()) {
+                return null;
+            }
+            int throughOrder = heads.get(0).getThroughOrder();
+
+            // Tail query comes back newest first
+            List<ChatMessageView> tail = new ArrayList<>(contentStore.resolveViews(messageRepository.findTailViewsAfter(
+                    sessionId, throughOrder, lastN == Integer.MAX_VALUE ? Limit.unlimited() : Limit.of(lastN))));
+            if (tail.isEmpty()) {
+                return null;
+            }
+            Collections.reverse(tail);
+            int needed = lastN == Integer.MAX_VALUE ? Integer.MAX_VALUE : lastN - tail.size();
+            if (needed == 0) {
+                return tail;
+            }
+
+            // Only the newest chunks that hold the needed messages
+            List<ChatSessionSnapshotRepository.ChunkHead> used = new ArrayList<>();
+            long available = 0;
+            for (ChatSessionSnapshotRepository.ChunkHead head : heads) {
+                used.add(head);
+                available += head.getMessageCount();
+                if (available >= needed) {
+                    break;
+                }
+            }
+            Collections.reverse(used);
+            List<ChatSessionSnapshotEntity> chunks = snapshotRepository.findChunks(
+                    sessionId, used.get(0).getFirstOrder(), throughOrder);
+            if (!matches(chunks, used)) {
+                log.debug("Snapshot of session {} changed while reading it, retrying", sessionId);
+                continue;
+            }
+
+            // Snapshot messages take the session's current chatId, as rows read through the session join do
+            String chatId = tail.get(0).chatId();
+            List<ChatMessageView> views = new ArrayList<>();
+            for (ChatSessionSnapshotEntity chunk : chunks) {
+                for (SnapshotMessage message : decode(chunk)) {
+                    views.add(new ChatMessageView(chatId, message.role(), message.content(), message.messageOrder()));
+                }
+            }
+            if (views.size() > needed) {
+                views = new ArrayList<>(views.subList(views.size() - needed, views.size()));
+            }
+            views.addAll(tail);
+            return views;
+        }
+        log.debug("Snapshot of session {} kept changing, reading its rows", sessionId);
+        return null;
+    }
+
+    /**
+     * Extend a session's snapshot by one chunk, up to maxMessages orders and never into the last keep-tail messages
+     * Holds a key-share lock on the session row, so the session cannot be cleared or archived meanwhile.
+     * @return Number of message orders the snapshot grew by; 0 if there was nothing to do or another node did it
+     */
+    @Transactional
+    public int compact(String sessionId, int maxMessages) {
+        Integer messageCount = sessionRepository.lockForSnapshot(sessionId);
+        if (messageCount == null) {
+            return 0;
+        }
+        Integer snapshotThrough = snapshotRepository.findThroughOrder(sessionId);
+        int fromOrder = snapshotThrough != null ? snapshotThrough : 0;
+        int throughOrder = Math.min(messageCount - keepTail, fromOrder + maxMessages);
+        if (throughOrder <= fromOrder) {
+            return 0;
+        }
+
+        // Orders are unique, so no more rows than orders in the range; detached so nothing is dirty-checked
+        List<ChatMessageEntity> entities = messageRepository.findPage(sessionId, fromOrder, Limit.of(throughOrder - fromOrder));
+        entities.forEach(entityManager::detach);
+        contentStore.resolve(entities);
+
+        List<SnapshotMessage> messages = new ArrayList<>(entities.size());
+        Instant oldest = null;
+        for (ChatMessageEntity entity : entities) {
+            if (entity.getMessageOrder() > throughOrder) {
+                break;
+            }
+            messages.add(new SnapshotMessage(entity.getRole(), entity.getContent(), entity.getMessageOrder()));
+            if (oldest == null || entity.getCreatedAt().isBefore(oldest)) {
+                oldest = entity.getCreatedAt();
+            }
+        }
+        // A chunk without messages still moves the snapshot past orders whose messages were deleted
+        if (snapshotRepository.insertChunk(sessionId, fromOrder + 1, throughOrder, messages.size(),
+                encode(sessionId, messages), oldest) == 0) {
+            return 0;
+        }
+        log.debug("Compacted messages {} to {} of session {} ({} stored)", fromOrder + 1, throughOrder, sessionId,
+                  messages.size());
+        return throughOrder - fromOrder;
+    }
+
+    /**
+     * Drop a session's snapshot but keep its summary; call in the transaction that deletes some of its messages
+     */
+    public void invalidate(String sessionId) {
+        snapshotRepository.deleteBySession(sessionId);
+    }
+
+    /**
+     * Delete a session's snapshot and summary; call in the transaction that deletes the session
+     */
+    public void delete(String sessionId) {
+        snapshotRepository.deleteBySession(sessionId);
+        summaryRepository.deleteBySession(sessionId);
+    }
+
+    /**
+     * Pin a summary to a session, replacing any earlier one
+     * @param throughOrder Last message order the summary covers, or null
+     */
+    public void pinSummary(String sessionId, String content, Integer throughOrder) {
+        summaryRepository.upsert(sessionId, content, throughOrder);
+    }
+
+    /**
+     * The summary pinned to a session, or null
+     */
+    public ChatSessionSummaryEntity getSummary(String sessionId) {
+        return summaryRepository.findById(sessionId).orElse(null);
+    }
+
+    /**
+     * The chunks were read in full and are the ones the heads described, not ones written after a delete
+     */
+    private static boolean matches(List<ChatSessionSnapshotEntity> chunks,
+                                   List<ChatSessionSnapshotRepository.ChunkHead> heads) {
+        if (chunks.size() != heads.size()) {
+            return false;
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            if (!chunks.get(i).getFirstOrder().equals(heads.get(i).getFirstOrder())
+                    || !chunks.get(i).getCreatedAt().equals(heads.get(i).getCreatedAt())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] encode(String sessionId, List<SnapshotMessage> messages) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(messages);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize snapshot of session " + sessionId, e);
+        }
+        byte[] compressed = MessageContentCodec.compress(json);
+        return compressed != null ? compressed : json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private SnapshotMessage[] decode(ChatSessionSnapshotEntity chunk) {
+        byte[] stored = chunk.getMessages();
+        // Plain JSON starts with '[', never with a codec marker
+        String json = stored.length > 0 && stored[0] == MessageContentCodec.DEFLATE
+                ? MessageContentCodec.decompress(stored)
+                : new String(stored, StandardCharsets.UTF_8);
+        try {
+            return objectMapper.readValue(json, SnapshotMessage[].class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt snapshot chunk " + chunk.getFirstOrder()
+                    + " of session " + chunk.getSessionId(), e);
+        }
+    }
+
+    /**
+     * A message as stored in a snapshot chunk
+     */
+    public record SnapshotMessage(String role, String content, int messageOrder) {
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.chatapp.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Merges concurrent checkpoint writes to the same session into one transaction
+ * Without it, concurrent writers of a session each open a transaction and queue on the session row lock,
+ * holding a connection while they wait. Here each session has an in-process queue and lock instead: the
+ * writer holding the lock takes every checkpoint queued for the session so far (up to max-batch) and
+ * writes them with PostgresChatMemory.addAll, one session row update and one insert batch, while the
+ * others wait without a connection and find their checkpoint written when they get the lock.
+ * They wait without their DatabasePermits permit too, so writers piling up on one session cannot hold
+ * every permit and stall requests for other sessions. Writes to different sessions never wait for each
+ * other here. A lone writer goes through
+ * PostgresChatMemory.add as before, and the row lock still serializes writers on other nodes.
+ * If a merged write fails, its checkpoints are written one transaction each so every caller gets
+ * its own outcome.
+ */
+@Slf4j
+@Component
+public class SessionWriteCoalescer {
+
+    private final PostgresChatMemory chatMemory;
+    private final DatabasePermits permits;
+    private final boolean enabled;
+    private final int maxBatch;
+
+    private final Map<String, SessionQueue> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong coalescedCheckpoints = new AtomicLong();
+
+    public SessionWriteCoalescer(PostgresChatMemory chatMemory,
+                                 DatabasePermits permits,
+                                 @Value("${chat.memory.coalescing.enabled:true}") boolean enabled,
+                                 @Value("${chat.memory.coalescing.max-batch:64}") int maxBatch) {
+        this.chatMemory = chatMemory;
+        this.permits = permits;
+        this.enabled = enabled;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Add a checkpoint as PostgresChatMemory.add does, possibly together with concurrent ones of the session
+     * @return true if the messages were written, false if this messageId was already stored
+     */
+    public boolean add(String chatId, String sessionId, String messageId, List<Message> messages) {
+        if (!enabled) {
+            return chatMemory.add(chatId, sessionId, messageId, messages);
+        }
+        Write write = new Write(new PostgresChatMemory.CheckpointWrite(chatId, messageId, messages));
+        SessionQueue queue = sessions.compute(sessionId, (id, existing) -> {
+            SessionQueue session = existing != null ? existing : new SessionQueue();
+            session.writers++;
+            session.writes.add(write);
+            return session;
+        });
+        try {
+            // The permit is queued for again once the lock is ours, before any database work
+            permits.awaitWithoutPermit(queue.lock::lock);
+            try {
+                // A previous lock holder may have written ours along with its own
+                while (!write.done) {
+                    List<Write> batch = drain(queue.writes);
+                    try {
+                        apply(sessionId, batch);
+                    } finally {
+                        abandon(batch);
+                    }
+                }
+            } finally {
+                queue.lock.unlock();
+            }
+        } finally {
+            sessions.computeIfPresent(sessionId, (id, session) -> --session.writers == 0 ? null : session);
+        }
+        if (write.failure != null) {
+            throw write.failure;
+        }
+        return write.written;
+    }
+
+    public Stats stats() {
+        return new Stats(enabled, sessions.size(), batches.get(), coalescedCheckpoints.get());
+    }
+
+    private List<Write> drain(Queue<Write> writes) {
+        List<Write> batch = new ArrayList<>();
+        Write write;
+        while (batch.size() < maxBatch && (write = writes.poll()) != null) {
+            batch.add(write);
+        }
+        return batch;
+    }
+
+    private void apply(String sessionId, List<Write> batch) {
+        if (batch.size() == 1) {
+            applyOne(sessionId, batch.get(0));
+            return;
+        }
+        List<PostgresChatMemory.CheckpointWrite> checkpoints = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            checkpoints.add(write.checkpoint);
+        }
+        List<Boolean> written;
+        try {
+            written = chatMemory.addAll(sessionId, checkpoints);
+        } catch (RuntimeException e) {
+            log.debug("Failed to add {} checkpoints to session {} together, adding them one by one",
+                      batch.size(), sessionId, e);
+            batch.forEach(write -> applyOne(sessionId, write));
+            return;
+        }
+        batches.incrementAndGet();
+        coalescedCheckpoints.addAndGet(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).written = written.get(i);
+            batch.get(i).done = true;
+        }
+    }
+
+    /**
+     * Fail whatever an Error left unwritten, so its writers do not wait for it forever
+     */
+    private static void abandon(List<Write> batch) {
+        for (Write write : batch) {
+            if (!write.done) {
+                write.failure = new IllegalStateException("Failed to add checkpoint " + write.checkpoint.messageId());
+                write.done = true;
+            }
+        }
+    }
+
+    private void applyOne(String sessionId, Write write) {
+        PostgresChatMemory.CheckpointWrite checkpoint = write.checkpoint;
+        try {
+            write.written = chatMemory.add(checkpoint.chatId(), sessionId, checkpoint.messageId(), checkpoint.messages());
+        } catch (RuntimeException e) {
+            write.failure = e;
+        }
+        write.done = true;
+    }
+
+    /**
+     * Checkpoints waiting for a session's lock; writers is guarded by the map's compute
+     */
+    private static final class SessionQueue {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Queue<Write> writes = new ConcurrentLinkedQueue<>();
+        private int writers;
+    }
+
+    /**
+     * A queued checkpoint and its outcome, published to its writer through the session lock
+     */
+    private static final class Write {
+        private final PostgresChatMemory.CheckpointWrite checkpoint;
+        private boolean done;
+        private boolean written;
+        private RuntimeException failure;
+
+        private Write(PostgresChatMemory.CheckpointWrite checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    /**
+     * Coalescing counters: sessions with writers right now, merged transactions and the checkpoints in them
+     */
+    public record Stats(boolean enabled, int activeSessions, long batches, long coalescedCheckpoints) {
+    }
+}
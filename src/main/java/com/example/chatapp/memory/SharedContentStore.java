@@ -0,0 +1,217 @@
+package com.example.chatapp.memory;
+
+import com.example.chatapp.entity.ChatContentEntity;
+import com.example.chatapp.entity.ChatMessageEntity;
+import com.example.chatapp.entity.MessageContentCompressionListener;
+import com.example.chatapp.repository.ChatContentRepository;
+import com.example.chatapp.repository.ChatMessageView;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content-addressed storage of repeated message bodies, such as the SYSTEM prompt every session starts with
+ * Bodies of the configured roles above a minimum size are stored once in chat_contents, keyed by SHA-256,
+ * and message rows only keep the hash. Bodies are reference counted by the messages pointing at them.
+ * A small LRU cache of hot bodies resolves hashes without a query and lets writes of known content
+ * skip sending the body: they only bump its reference count.
+ */
+@Slf4j
+@Component
+public class SharedContentStore {
+
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+
+    private final ChatContentRepository contentRepository;
+    private final MessageContentCompressionListener compression;
+    private final boolean enabled;
+    private final int minBytes;
+    private final Set<String> roles;
+    private final long cacheMaxBytes;
+
+    // Access-ordered, so iteration starts at the least recently used body
+    private final LinkedHashMap<String, String> hot = new LinkedHashMap<>(64, 0.75f, true);
+    private long hotBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SharedContentStore(ChatContentRepository contentRepository,
+                              MessageContentCompressionListener compression,
+                              @Value("${chat.storage.dedup.enabled:true}") boolean enabled,
+                              @Value("${chat.storage.dedup.min-bytes:256}") int minBytes,
+                              @Value("${chat.storage.dedup.roles:SYSTEM}") Set<String> roles,
+                              @Value("${chat.storage.dedup.cache-max-bytes:8388608}") long cacheMaxBytes) {
+        this.contentRepository = contentRepository;
+        this.compression = compression;
+        this.enabled = enabled;
+        this.minBytes = minBytes;
+        this.roles = roles;
+        this.cacheMaxBytes = cacheMaxBytes;
+        log.info("Shared content store enabled: {}, roles: {}, minBytes: {}", enabled, roles, minBytes);
+    }
+
+    /**
+     * Move eligible bodies of new messages into the shared store.
+     * Must run in the transaction that inserts the messages, before they are persisted.
+     */
+    public void intern(List<ChatMessageEntity> entities) {
+        if (!enabled) {
+            return;
+        }
+
+        // Group by hash so a checkpoint repeating a body takes all its references at once.
+        // Rows are locked in hash order, the same order a session clear takes them in.
+        Map<String, List<ChatMessageEntity>> byHash = new TreeMap<>();
+        for (ChatMessageEntity entity : entities) {
+            String content = entity.getContent();
+            if (roles.contains(entity.getRole()) && content != null && content.length() >= minBytes) {
+                byHash.computeIfAbsent(hash(content), h -> new ArrayList<>()).add(entity);
+            }
+        }
+
+        for (Map.Entry<String, List<ChatMessageEntity>> group : byHash.entrySet()) {
+            String hash = group.getKey();
+            String content = group.getValue().get(0).getContent();
+            int refs = group.getValue().size();
+
+            // Known body: only the counter changes. Fall back to a full insert if it was released meanwhile.
+            if (!isHot(hash) || contentRepository.addReferences(hash, refs) == 0) {
+                byte[] compressed = compression.encode(content);
+                contentRepository.insertOrAddReferences(hash, compressed != null ? "" : content, compressed, refs);
+                remember(hash, content);
+            }
+            group.getValue().forEach(entity -> entity.storeShared(hash));
+        }
+    }
+
+    /**
+     * Fill in shared bodies of loaded messages
+     */
+    public void resolve(List<ChatMessageEntity> entities) {
+        List<String> hashes = entities.stream()
+                .map(ChatMessageEntity::getContentHash)
+                .filter(hash -> hash != null)
+                .distinct()
+                .toList();
+        if (hashes.isEmpty()) {
+            return;
+        }
+        Map<String, String> bodies = lookup(hashes);
+        for (ChatMessageEntity entity : entities) {
+            if (entity.getContentHash() != null) {
+                entity.resolveShared(bodies.get(entity.getContentHash()));
+            }
+        }
+    }
+
+    /**
+     * Fill in shared bodies of loaded projections
+     * @return The views with content set, in the same order
+     */
+    public List<ChatMessageView> resolveViews(List<ChatMessageView> views) {
+        List<String> hashes = views.stream()
+                .map(ChatMessageView::contentHash)
+                .filter(hash -> hash != null)
+                .distinct()
+                .toList();
+        if (hashes.isEmpty()) {
+            return views;
+        }
+        Map<String, String> bodies = lookup(hashes);
+        List<ChatMessageView> resolved = new ArrayList<>(views.size());
+        for (ChatMessageView view : views) {
+            resolved.add(view.contentHash() != null ? view.withContent(bodies.get(view.contentHash())) : view);
+        }
+        return resolved;
+    }
+
+    /**
+     * Delete bodies that lost their last reference
+     * @param hashes Bodies whose references were just released
+     */
+    public void deleteUnreferenced(Collection<String> hashes) {
+        if (!hashes.isEmpty()) {
+            int deleted = contentRepository.deleteUnreferenced(hashes);
+            log.debug("Released {} shared bodies, {} deleted", hashes.size(), deleted);
+        }
+    }
+
+    /**
+     * Hot cache hits and misses, and its size in bytes
+     */
+    public synchronized Map<String, Long> cacheStats() {
+        return Map.of("hits", hits.sum(), "misses", misses.sum(), "entries", (long) hot.size(), "bytes", hotBytes);
+    }
+
+    /**
+     * Bodies for the given hashes, from the hot cache or with one query for the rest
+     */
+    private Map<String, String> lookup(List<String> hashes) {
+        Map<String, String> bodies = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (this) {
+            for (String hash : hashes) {
+                String body = hot.get(hash);
+                if (body != null) {
+                    bodies.put(hash, body);
+                } else {
+                    missing.add(hash);
+                }
+            }
+        }
+        hits.add(bodies.size());
+        misses.add(missing.size());
+
+        if (!missing.isEmpty()) {
+            for (ChatContentEntity content : contentRepository.findAllById(missing)) {
+                String body = content.getContent();
+                bodies.put(content.getHash(), body);
+                remember(content.getHash(), body);
+            }
+        }
+        return bodies;
+    }
+
+    private synchronized boolean isHot(String hash) {
+        return hot.get(hash) != null;
+    }
+
+    private synchronized void remember(String hash, String content) {
+        if (hot.put(hash, content) == null) {
+            hotBytes += sizeOf(content);
+        }
+        Iterator<String> it = hot.values().iterator();
+        while (hotBytes > cacheMaxBytes && it.hasNext()) {
+            hotBytes -= sizeOf(it.next());
+            it.remove();
+        }
+    }
+
+    private static long sizeOf(String content) {
+        return ENTRY_OVERHEAD_BYTES + 2L * content.length();
+    }
+
+    private static String hash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
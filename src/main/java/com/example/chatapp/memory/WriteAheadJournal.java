@@ -0,0 +1,703 @@
+package com.example.chatapp.memory;
+
+import com.example.chatapp.entity.ChatJournalStateEntity;
+import com.example.chatapp.repository.ChatJournalStateRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Local write-ahead journal for checkpoint writes
+ * Checkpoints are appended as framed records (payload length, CRC32C of the payload, sequence, JSON) to
+ * memory-mapped segment files of a fixed size (journal-000001.wal, ...). A single sync thread msyncs
+ * everything appended since its last sync, so writers waiting in append() at the same time share one
+ * fsync (group commit).
+ * Durable checkpoints stay pending, in memory and in their segment, until JournalFlusher has applied them
+ * to the database; readers merge the pending checkpoints of a session into what the database returns.
+ * A segment is deleted once all of its records are applied. On startup the segments are scanned up to the
+ * first torn record or sequence gap, which can only be an unacknowledged tail, and every checkpoint the
+ * database has not applied yet becomes pending again.
+ * The journal is per node, like the SessionArchive.
+ */
+@Slf4j
+@Component
+public class WriteAheadJournal {
+
+    private static final String ID_FILE = "journal.id";
+    private static final String FAILED_FILE = "failed.ndjson";
+    private static final int RECORD_HEADER_BYTES = 16;  // payload length, payload CRC32C, sequence
+    private static final int STRIPES = 64;
+
+    private final ObjectMapper objectMapper;
+    private final ChatJournalStateRepository stateRepository;
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentBytes;
+    private final Duration flushTimeout;
+
+    private String journalId;
+
+    // Append, sync and segment state, guarded by lock; a lock rather than synchronized so virtual threads
+    // waiting for their fsync do not pin their carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final Condition applied = lock.newCondition();
+    private final Deque<Segment> segments = new ArrayDeque<>();  // segments holding unapplied records, oldest first
+    private final List<Segment> rolled = new ArrayList<>();      // full segments the sync thread has not forced yet
+    private Segment current;
+    private int position;
+    private int segmentNumber;
+    private long lastSequence;
+    private long syncs;
+    private long syncedRecords;
+    private IOException failure;
+    private boolean closed;
+    private Thread syncThread;
+
+    private volatile long durableSequence;
+    private volatile long appliedSequence;
+
+    // Unapplied checkpoints in sequence order, and the same checkpoints by session
+    private final ConcurrentLinkedDeque<Pending> pending = new ConcurrentLinkedDeque<>();
+    private final Map<String, List<Pending>> pendingBySession = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    // Checkpoints being appended or pending, completed with true once durable or false if the append was given
+    // up; see claim()
+    private final Map<Claim, CompletableFuture<Boolean>> claims = new ConcurrentHashMap<>();
+
+    // Per stripe of sessions: odd while a flush touching the stripe is committing, see stamp()
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES);
+
+    public WriteAheadJournal(ObjectMapper objectMapper,
+                             ChatJournalStateRepository stateRepository,
+                             @Value("${chat.journal.enabled:false}") boolean enabled,
+                             @Value("${chat.journal.directory:./data/journal}") Path directory,
+                             @Value("${chat.journal.segment-bytes:67108864}") long segmentBytes,
+                             @Value("${chat.journal.flush-timeout:30s}") Duration flushTimeout) {
+        this.objectMapper = objectMapper;
+        this.stateRepository = stateRepository;
+        this.enabled = enabled;
+        this.directory = directory;
+        // Records are addressed with int offsets into the mapped segment
+        this.segmentBytes = (int) Math.min(segmentBytes, Integer.MAX_VALUE);
+        this.flushTimeout = flushTimeout;
+    }
+
+    /**
+     * Recover the checkpoints the database has not applied yet and start the sync thread
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+        journalId = readOrCreateId();
+        long applied = stateRepository.findById(journalId).map(ChatJournalStateEntity::getAppliedSequence).orElse(0L);
+        appliedSequence = applied;
+
+        List<Integer> numbers;
+        try (Stream<Path> files = Files.list(directory)) {
+            numbers = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("journal-") && name.endsWith(".wal"))
+                    .map(name -> Integer.parseInt(name.substring("journal-".length(), name.length() - ".wal".length())))
+                    .sorted()
+                    .toList();
+        }
+        boolean truncated = false;
+        for (int number : numbers) {
+            segmentNumber = number;
+            if (truncated) {
+                Files.delete(segmentPath(number));
+            } else {
+                truncated = !recoverSegment(number, applied);
+            }
+        }
+        // Sequences continue after anything applied, even if the segments holding it are gone
+        lastSequence = Math.max(lastSequence, applied);
+        durableSequence = lastSequence;
+
+        syncThread = new Thread(this::syncLoop, "journal-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+        log.info("Opened write-ahead journal {} in {}: {} checkpoints to apply after sequence {}",
+                 journalId, directory, pendingCount.get(), applied);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (syncThread == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        syncThread.join();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Identifies this journal's row in chat_journal_state
+     */
+    public String journalId() {
+        return journalId;
+    }
+
+    /**
+     * Claim a checkpoint for appending, before checking whether the database has it already, so that a
+     * concurrent replay cannot journal it a second time
+     * If another caller holds the claim, waits until its append is durable, or given up and claimed again.
+     * @return false if the checkpoint is journaled already; otherwise append it, or release the claim
+     */
+    public boolean claim(String sessionId, String messageId) {
+        Claim key = new Claim(sessionId, messageId);
+        CompletableFuture<Boolean> claim = new CompletableFuture<>();
+        while (true) {
+            CompletableFuture<Boolean> held = claims.putIfAbsent(key, claim);
+            if (held == null) {
+                return true;
+            }
+            if (held.join()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Give up a claim without appending the checkpoint
+     */
+    public void release(String sessionId, String messageId) {
+        CompletableFuture<Boolean> claim = claims.remove(new Claim(sessionId, messageId));
+        if (claim != null) {
+            claim.complete(false);
+        }
+    }
+
+    /**
+     * Append a checkpoint; durable when this returns
+     * The checkpoint stays claimed until it is applied.
+     * @throws IllegalArgumentException if the record is larger than a segment
+     */
+    public void append(Checkpoint checkpoint) throws IOException {
+        byte[] payload = objectMapper.writeValueAsBytes(checkpoint);
+        int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        if (recordBytes > segmentBytes) {
+            throw new IllegalArgumentException("Checkpoint of " + payload.length
+                    + " bytes does not fit in a journal segment of " + segmentBytes + " bytes");
+        }
+        int checksum = checksum(payload);
+
+        lock.lock();
+        try {
+            if (closed || failure != null) {
+                throw new IOException("Write-ahead journal is not accepting writes", failure);
+            }
+            if (current == null || position + recordBytes > current.buffer.capacity()) {
+                roll();
+            }
+            long sequence = lastSequence + 1;
+            MappedByteBuffer buffer = current.buffer;
+            buffer.putInt(position + 4, checksum);
+            buffer.putLong(position + 8, sequence);
+            buffer.put(position + RECORD_HEADER_BYTES, payload);
+            buffer.putInt(position, payload.length);
+            position += recordBytes;
+            lastSequence = sequence;
+            current.lastSequence = sequence;
+            addPending(new Pending(sequence, checkpoint));
+            appended.signal();
+
+            while (durableSequence < sequence) {
+                if (failure != null) {
+                    throw new IOException("Write-ahead journal sync failed", failure);
+                }
+                synced.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        claims.computeIfAbsent(new Claim(checkpoint.sessionId(), checkpoint.messageId()),
+                               key -> new CompletableFuture<>()).complete(true);
+    }
+
+    /**
+     * Durable checkpoints of a session that are not in the database yet, oldest first
+     */
+    public List<Checkpoint> pending(String sessionId) {
+        List<Pending> sessionPending = pendingBySession.get(sessionId);
+        if (sessionPending == null) {
+            return List.of();
+        }
+        long durable = durableSequence;
+        List<Checkpoint> checkpoints = new ArrayList<>(sessionPending.size());
+        for (Pending entry : sessionPending) {
+            if (entry.sequence() <= durable) {
+                checkpoints.add(entry.checkpoint());
+            }
+        }
+        return checkpoints;
+    }
+
+    /**
+     * A durable checkpoint that is not in the database yet
+     * @return null if this messageId is not pending in the session
+     */
+    public Checkpoint pendingCheckpoint(String sessionId, String messageId) {
+        for (Checkpoint checkpoint : pending(sessionId)) {
+            if (checkpoint.messageId().equals(messageId)) {
+                return checkpoint;
+            }
+        }
+        return null;
+    }
+
+    public boolean hasPending(String sessionId) {
+        List<Pending> sessionPending = pendingBySession.get(sessionId);
+        return sessionPending != null && sessionPending.get(0).sequence() <= durableSequence;
+    }
+
+    /**
+     * Sequence of the last checkpoint appended for a session, 0 if none is pending
+     */
+    public long lastSequence(String sessionId) {
+        List<Pending> sessionPending = pendingBySession.get(sessionId);
+        return sessionPending == null ? 0 : sessionPending.get(sessionPending.size() - 1).sequence();
+    }
+
+    /**
+     * Sequence of the last checkpoint appended
+     */
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until every checkpoint up to the sequence is in the database
+     * @throws IllegalStateException if that takes longer than the flush timeout
+     */
+    public void awaitApplied(long sequence) {
+        if (appliedSequence >= sequence) {
+            return;
+        }
+        long remaining = flushTimeout.toNanos();
+        lock.lock();
+        try {
+            while (appliedSequence < sequence) {
+                if (remaining <= 0) {
+                    throw new IllegalStateException("Timed out after " + flushTimeout
+                            + " waiting for the journal to be applied up to sequence " + sequence);
+                }
+                remaining = applied.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the journal to be applied", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait up to the timeout for durable checkpoints to apply
+     * @return Up to max of the oldest durable checkpoints, still pending; empty if there were none in time
+     */
+    public List<Pending> awaitPending(int max, Duration timeout) throws InterruptedException {
+        long remaining = timeout.toNanos();
+        lock.lock();
+        try {
+            while (pending.isEmpty() || pending.peekFirst().sequence() > durableSequence) {
+                if (remaining <= 0 || closed) {
+                    return List.of();
+                }
+                remaining = synced.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+        long durable = durableSequence;
+        List<Pending> batch = new ArrayList<>(Math.min(max, pendingCount.get()));
+        for (Iterator<Pending> it = pending.iterator(); it.hasNext() && batch.size() < max; ) {
+            Pending entry = it.next();
+            if (entry.sequence() > durable) {
+                break;
+            }
+            batch.add(entry);
+        }
+        return batch;
+    }
+
+    /**
+     * Stamp of the session's stripe for a consistent read of database and pending checkpoints
+     * Read the database and pending(sessionId) after taking the stamp, and retry if validate() then fails:
+     * a flush of the session committed in between, so the read could show its messages twice or not at all.
+     * Waits while such a commit is in progress.
+     */
+    public long stamp(String sessionId) {
+        int stripe = stripe(sessionId);
+        long stamp;
+        while (((stamp = stripes.get(stripe)) & 1) != 0) {
+            LockSupport.parkNanos(50_000);
+        }
+        return stamp;
+    }
+
+    public boolean validate(String sessionId, long stamp) {
+        return stripes.get(stripe(sessionId)) == stamp;
+    }
+
+    /**
+     * Called by the flusher right before committing a batch: readers of its sessions wait until endApply
+     */
+    public void beginApply(List<Pending> batch) {
+        for (int stripe : stripesOf(batch)) {
+            stripes.incrementAndGet(stripe);
+        }
+    }
+
+    /**
+     * Called by the flusher once a batch is committed or rolled back
+     * A committed batch stops being pending and segments holding only applied records are deleted.
+     */
+    public void endApply(List<Pending> batch, boolean committed) {
+        if (committed) {
+            // A batch is always the oldest pending checkpoints
+            long last = batch.get(batch.size() - 1).sequence();
+            for (int i = 0; i < batch.size(); i++) {
+                pending.pollFirst();
+            }
+            // Replays now find these checkpoints in the database
+            for (Pending entry : batch) {
+                claims.remove(new Claim(entry.checkpoint().sessionId(), entry.checkpoint().messageId()));
+            }
+            for (String sessionId : batch.stream().map(entry -> entry.checkpoint().sessionId()).distinct().toList()) {
+                pendingBySession.computeIfPresent(sessionId, (id, sessionPending) -> {
+                    List<Pending> remaining = sessionPending.stream().filter(entry -> entry.sequence() > last).toList();
+                    return remaining.isEmpty() ? null : remaining;
+                });
+            }
+            pendingCount.addAndGet(-batch.size());
+            appliedSequence = last;
+        }
+        for (int stripe : stripesOf(batch)) {
+            stripes.incrementAndGet(stripe);
+        }
+        if (committed) {
+            lock.lock();
+            try {
+                applied.signalAll();
+                deleteAppliedSegments();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Keep a checkpoint that could not be applied in failed.ndjson, one JSON line each; flusher thread only
+     */
+    public void writeFailed(Pending entry) throws IOException {
+        byte[] line = (objectMapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+        Files.write(directory.resolve(FAILED_FILE), line, StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+                    StandardOpenOption.SYNC);
+    }
+
+    /**
+     * Journal statistics
+     */
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(lastSequence, durableSequence, appliedSequence, pendingCount.get(), segments.size(),
+                             syncs, syncedRecords);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncLoop() {
+        Segment syncedSegment = null;
+        int syncedPosition = 0;
+        while (true) {
+            long target;
+            List<Segment> full;
+            Segment segment;
+            int end;
+            lock.lock();
+            try {
+                while (durableSequence == lastSequence && !closed) {
+                    appended.awaitUninterruptibly();
+                }
+                if (durableSequence == lastSequence) {
+                    return;
+                }
+                target = lastSequence;
+                full = new ArrayList<>(rolled);
+                rolled.clear();
+                segment = current;
+                end = position;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException syncFailure = null;
+            try {
+                for (Segment segmentToForce : full) {
+                    segmentToForce.buffer.force();
+                }
+                if (segment != syncedSegment) {
+                    syncedSegment = segment;
+                    syncedPosition = 0;
+                }
+                segment.buffer.force(syncedPosition, end - syncedPosition);
+                syncedPosition = end;
+            } catch (UncheckedIOException e) {
+                syncFailure = e.getCause();
+            }
+
+            lock.lock();
+            try {
+                if (syncFailure != null) {
+                    // What reached the disk is unknown, so nothing more can be acknowledged
+                    log.error("Write-ahead journal sync failed, rejecting further writes", syncFailure);
+                    failure = syncFailure;
+                    closed = true;
+                } else {
+                    syncs++;
+                    syncedRecords += target - durableSequence;
+                    durableSequence = target;
+                }
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Start a new segment; the full one is forced by the next sync
+     */
+    private void roll() throws IOException {
+        if (current != null) {
+            rolled.add(current);
+        }
+        Path path = segmentPath(++segmentNumber);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // Mapping extends the file to its full size; make that and the directory entry durable up front
+            current = new Segment(segmentNumber, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+            channel.force(true);
+        }
+        forceDirectory();
+        segments.add(current);
+        position = 0;
+    }
+
+    /**
+     * Read the records of a segment into pending, skipping those already applied
+     * @return false if the segment ends in a torn record or sequence gap; the rest of the journal is then discarded
+     */
+    private boolean recoverSegment(int number, long applied) throws IOException {
+        Path path = segmentPath(number);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        Segment segment = new Segment(number, buffer);
+        boolean intact = true;
+        int offset = 0;
+        while (offset + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            long sequence = buffer.getLong(offset + 8);
+            boolean valid = length > 0 && offset + RECORD_HEADER_BYTES + length <= buffer.capacity()
+                    && (lastSequence == 0 || sequence == lastSequence + 1);
+            byte[] payload = valid ? new byte[length] : null;
+            if (valid) {
+                buffer.get(offset + RECORD_HEADER_BYTES, payload);
+                valid = checksum(payload) == buffer.getInt(offset + 4);
+            }
+            if (!valid) {
+                // Never acknowledged: acknowledgements only ever cover a prefix of the journal
+                log.warn("Discarding the unacknowledged tail of journal segment {} from offset {}", number, offset);
+                buffer.putInt(offset, 0);
+                buffer.force();
+                intact = false;
+                break;
+            }
+            lastSequence = sequence;
+            segment.lastSequence = sequence;
+            if (sequence > applied) {
+                Checkpoint checkpoint = objectMapper.readValue(payload, Checkpoint.class);
+                addPending(new Pending(sequence, checkpoint));
+                claims.put(new Claim(checkpoint.sessionId(), checkpoint.messageId()),
+                           CompletableFuture.completedFuture(true));
+            }
+            offset += RECORD_HEADER_BYTES + length;
+        }
+
+        if (segment.lastSequence <= applied) {
+            Files.delete(path);
+        } else {
+            segments.add(segment);
+        }
+        return intact;
+    }
+
+    /**
+     * Delete the segments, other than the one being appended to, whose records are all applied
+     */
+    private void deleteAppliedSegments() {
+        while (!segments.isEmpty() && segments.peekFirst() != current
+                && segments.peekFirst().lastSequence <= appliedSequence) {
+            Segment segment = segments.pollFirst();
+            try {
+                Files.deleteIfExists(segmentPath(segment.number));
+            } catch (IOException e) {
+                log.error("Failed to delete applied journal segment {}", segment.number, e);
+            }
+        }
+    }
+
+    private void addPending(Pending entry) {
+        pending.addLast(entry);
+        pendingCount.incrementAndGet();
+        pendingBySession.merge(entry.checkpoint().sessionId(), List.of(entry), (sessionPending, added) -> {
+            List<Pending> merged = new ArrayList<>(sessionPending.size() + 1);
+            merged.addAll(sessionPending);
+            merged.addAll(added);
+            return merged;
+        });
+    }
+
+    private String readOrCreateId() throws IOException {
+        Path path = directory.resolve(ID_FILE);
+        if (Files.exists(path)) {
+            return Files.readString(path, StandardCharsets.UTF_8).trim();
+        }
+        String id = UUID.randomUUID().toString();
+        // Durable before any segment exists, or a crash could leave segments that belong to no journal
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(StandardCharsets.UTF_8.encode(id));
+            channel.force(true);
+        }
+        forceDirectory();
+        return id;
+    }
+
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve("journal-%06d.wal".formatted(number));
+    }
+
+    private static int[] stripesOf(List<Pending> batch) {
+        return batch.stream().mapToInt(entry -> stripe(entry.checkpoint().sessionId())).distinct().sorted().toArray();
+    }
+
+    private static int stripe(String sessionId) {
+        return Math.floorMod(sessionId.hashCode(), STRIPES);
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A mapped segment file and the sequence of its last record
+     */
+    private static final class Segment {
+        private final int number;
+        private final MappedByteBuffer buffer;
+        private long lastSequence;
+
+        private Segment(int number, MappedByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * A checkpoint request as journaled
+     */
+    public record Checkpoint(String chatId, String sessionId, String messageId, Instant journaledAt,
+                             List<JournaledMessage> messages) {
+    }
+
+    /**
+     * A message of a journaled checkpoint, with its role as stored in chat_messages
+     */
+    public record JournaledMessage(String role, String content) {
+    }
+
+    /**
+     * Key of a checkpoint in claims
+     */
+    private record Claim(String sessionId, String messageId) {
+    }
+
+    /**
+     * A journaled checkpoint with its sequence in the journal
+     */
+    public record Pending(long sequence, Checkpoint checkpoint) {
+    }
+
+    /**
+     * Journal statistics: sequences of the last appended, last durable and last applied checkpoint
+     */
+    public record Stats(long lastSequence, long durableSequence, long appliedSequence, int pendingCheckpoints,
+                        int segments, long syncs, long syncedCheckpoints) {
+    }
+}
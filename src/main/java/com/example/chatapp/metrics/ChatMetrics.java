@@ -0,0 +1,214 @@
+package com.example.chatapp.metrics;
+
+import com.example.chatapp.memory.SessionHistoryCache;
+import com.example.chatapp.memory.WriteAheadJournal;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the checkpoint API and chat memory
+ * Every meter is registered once up front and held in a field, so recording on the request path is a
+ * field read and an add: no registry lookup, tag allocation or Timer.Sample. Callers time operations
+ * with System.nanoTime() and a try/finally instead of a lambda for the same reason.
+ */
+@Component
+public class ChatMetrics {
+
+    private final Operation save;
+    private final Operation load;
+    private final Operation stream;
+    private final Operation page;
+    private final Operation sessions;
+    private final Operation exists;
+    private final Operation delete;
+    private final Operation reset;
+    private final Operation search;
+
+    private final DistributionSummary messagesPerCheckpoint;
+    private final DistributionSummary checkpointContentBytes;
+    private final DistributionSummary messagesPerLoad;
+
+    private final Counter sessionsCreated;
+    private final Counter sessionsDeleted;
+    private final Counter chatIdMismatches;
+
+    public ChatMetrics(MeterRegistry registry, SessionHistoryCache historyCache, WriteAheadJournal journal) {
+        this.save = new Operation(registry, "save");
+        this.load = new Operation(registry, "load");
+        this.stream = new Operation(registry, "stream");
+        this.page = new Operation(registry, "page");
+        this.sessions = new Operation(registry, "sessions");
+        this.exists = new Operation(registry, "exists");
+        this.delete = new Operation(registry, "delete");
+        this.reset = new Operation(registry, "reset");
+        this.search = new Operation(registry, "search");
+
+        this.messagesPerCheckpoint = DistributionSummary.builder("chat.checkpoint.messages")
+                .description("Messages per saved checkpoint")
+                .baseUnit("messages")
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(1_000.0)
+                .register(registry);
+        this.checkpointContentBytes = DistributionSummary.builder("chat.checkpoint.content")
+                .description("UTF-8 content bytes per saved checkpoint")
+                .baseUnit("bytes")
+                .minimumExpectedValue(16.0)
+                .maximumExpectedValue(16.0 * 1024 * 1024)
+                .register(registry);
+        this.messagesPerLoad = DistributionSummary.builder("chat.session.load.messages")
+                .description("Messages returned by a session load")
+                .baseUnit("messages")
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(100_000.0)
+                .register(registry);
+
+        this.sessionsCreated = Counter.builder("chat.sessions.created")
+                .description("Sessions created by their first checkpoint")
+                .register(registry);
+        this.sessionsDeleted = Counter.builder("chat.sessions.deleted")
+                .description("Sessions deleted, including purges of whole chats")
+                .register(registry);
+        this.chatIdMismatches = Counter.builder("chat.sessions.chat.id.mismatches")
+                .description("Checkpoints whose chatId differs from the chatId their session was created with")
+                .register(registry);
+
+        // Read on scrape only
+        FunctionCounter.builder("chat.cache.hits", historyCache, c -> c.stats().hits())
+                .description("Session history cache hits").register(registry);
+        FunctionCounter.builder("chat.cache.misses", historyCache, c -> c.stats().misses())
+                .description("Session history cache misses").register(registry);
+        FunctionCounter.builder("chat.cache.evictions", historyCache, c -> c.stats().evictions())
+                .description("Sessions evicted from the history cache").register(registry);
+        Gauge.builder("chat.cache.sessions", historyCache, c -> c.stats().sessions())
+                .description("Sessions in the history cache").register(registry);
+        Gauge.builder("chat.cache.size", historyCache, c -> c.stats().bytes())
+                .description("Estimated bytes held by the history cache").baseUnit("bytes").register(registry);
+        if (journal.isEnabled()) {
+            FunctionCounter.builder("chat.journal.syncs", journal, j -> j.stats().syncs())
+                    .description("Write-ahead journal fsyncs").register(registry);
+            FunctionCounter.builder("chat.journal.synced", journal, j -> j.stats().syncedCheckpoints())
+                    .description("Checkpoints made durable by journal fsyncs; divided by syncs, the group commit size")
+                    .register(registry);
+            Gauge.builder("chat.journal.pending", journal, j -> j.stats().pendingCheckpoints())
+                    .description("Journaled checkpoints not yet applied to the database").register(registry);
+        }
+    }
+
+    public Operation save() {
+        return save;
+    }
+
+    public Operation load() {
+        return load;
+    }
+
+    public Operation stream() {
+        return stream;
+    }
+
+    public Operation page() {
+        return page;
+    }
+
+    public Operation sessions() {
+        return sessions;
+    }
+
+    public Operation exists() {
+        return exists;
+    }
+
+    public Operation delete() {
+        return delete;
+    }
+
+    public Operation reset() {
+        return reset;
+    }
+
+    public Operation search() {
+        return search;
+    }
+
+    /**
+     * Record the size of a saved checkpoint
+     */
+    public void checkpointSaved(int messages, long contentBytes) {
+        messagesPerCheckpoint.record(messages);
+        checkpointContentBytes.record(contentBytes);
+    }
+
+    public void sessionLoaded(int messages) {
+        messagesPerLoad.record(messages);
+    }
+
+    public void sessionCreated() {
+        sessionsCreated.increment();
+    }
+
+    public void sessionDeleted() {
+        sessionsDeleted.increment();
+    }
+
+    public void chatIdMismatch() {
+        chatIdMismatches.increment();
+    }
+
+    /**
+     * UTF-8 encoded length, counted without encoding
+     */
+    public static long utf8Length(CharSequence text) {
+        long bytes = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Timers of one ChatCheckpointService operation, chat.checkpoint.operations{operation, outcome}
+     */
+    public static final class Operation {
+        private final Timer success;
+        private final Timer error;
+
+        private Operation(MeterRegistry registry, String name) {
+            this.success = timer(registry, name, "success");
+            this.error = timer(registry, name, "error");
+        }
+
+        /**
+         * @param startNanos System.nanoTime() when the operation started
+         * @param succeeded Whether it completed normally
+         */
+        public void record(long startNanos, boolean succeeded) {
+            (succeeded ? success : error).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private static Timer timer(MeterRegistry registry, String operation, String outcome) {
+            return Timer.builder("chat.checkpoint.operations")
+                    .description("ChatCheckpointService operations")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(registry);
+        }
+    }
+}
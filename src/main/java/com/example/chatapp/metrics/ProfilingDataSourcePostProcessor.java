@@ -0,0 +1,113 @@
+package com.example.chatapp.metrics;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Wraps the DataSource so that SqlProfiler sees every statement execution
+ * Connections and statements are JDK proxies that delegate everything, including unwrap, to the
+ * pool's objects; only execute calls are timed. The DataSource proxy implements all interfaces of
+ * the pool (Closeable, HikariConfigMXBean, ...) so shutdown and pool metrics keep working.
+ * Nothing is wrapped when the profiler is disabled.
+ */
+@Component
+public class ProfilingDataSourcePostProcessor implements BeanPostProcessor {
+
+    // Resolved when the DataSource is created rather than with the other post-processors
+    private final ObjectProvider<SqlProfiler> profiler;
+
+    public ProfilingDataSourcePostProcessor(ObjectProvider<SqlProfiler> profiler) {
+        this.profiler = profiler;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof DataSource)) {
+            return bean;
+        }
+        SqlProfiler sqlProfiler = profiler.getObject();
+        if (!sqlProfiler.isEnabled()) {
+            return bean;
+        }
+        Class<?>[] interfaces = Arrays.stream(ClassUtils.getAllInterfaces(bean))
+                .filter(type -> Modifier.isPublic(type.getModifiers()))
+                .toArray(Class<?>[]::new);
+        return proxy(bean, interfaces, (target, method, args) -> {
+            Object result = invoke(target, method, args);
+            if (result instanceof Connection connection && method.getName().equals("getConnection")) {
+                return proxy(connection, new Class<?>[]{Connection.class}, connectionHandler(sqlProfiler));
+            }
+            return result;
+        });
+    }
+
+    private static ProxyHandler connectionHandler(SqlProfiler profiler) {
+        return (target, method, args) -> {
+            Object result = invoke(target, method, args);
+            if (result instanceof Statement statement) {
+                String name = method.getName();
+                // prepareStatement / prepareCall carry their SQL; plain statements get it per execute call
+                String sql = (name.startsWith("prepare") && args != null && args[0] instanceof String s) ? s : null;
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                return proxy(statement, new Class<?>[]{type}, statementHandler(profiler, sql));
+            }
+            return result;
+        };
+    }
+
+    private static ProxyHandler statementHandler(SqlProfiler profiler, String preparedSql) {
+        return (target, method, args) -> {
+            if (!method.getName().startsWith("execute")) {
+                return invoke(target, method, args);
+            }
+            String sql = preparedSql;
+            if (sql == null) {
+                sql = args != null && args.length > 0 && args[0] instanceof String s ? s : "<batch>";
+            }
+            long start = System.nanoTime();
+            try {
+                return invoke(target, method, args);
+            } finally {
+                profiler.statementExecuted(sql, System.nanoTime() - start);
+            }
+        };
+    }
+
+    private static Object proxy(Object target, Class<?>[] interfaces, ProxyHandler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> switch (method.getName()) {
+            // Identity of the proxy, as the pool's objects compare by identity too
+            case "equals" -> method.getParameterCount() == 1 ? proxy == args[0] : handler.handle(target, method, args);
+            case "hashCode" -> method.getParameterCount() == 0 ? System.identityHashCode(proxy) : handler.handle(target, method, args);
+            default -> handler.handle(target, method, args);
+        };
+        return Proxy.newProxyInstance(ProfilingDataSourcePostProcessor.class.getClassLoader(), interfaces, invocationHandler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ProxyHandler {
+        Object handle(Object target, Method method, Object[] args) throws Throwable;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.chatapp.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every call to a Spring Data repository of this application as
+ * chat.repository.calls{repository, method, outcome}
+ * The timers of a method are created on its first call and then looked up by the Method the proxy
+ * was invoked with, which is the same object on every call, so later calls allocate nothing.
+ * This replaces Spring Boot's spring.data.repository.invocations timer, which builds its tags on
+ * every call and is switched off in application.properties.
+ * Calls returning a Stream are timed until the stream is returned, not until it is consumed.
+ */
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+    // Resolved lazily: post-processors are created before the registry and should not pull it in early
+    private final ObjectProvider<MeterRegistry> registry;
+
+    public RepositoryMetricsPostProcessor(ObjectProvider<MeterRegistry> registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof Repository<?, ?> && bean instanceof Advised advised) {
+            String repository = repositoryName(advised, beanName);
+            // Outermost, so the time includes the transaction and exception translation around the query
+            advised.addAdvice(0, new TimingInterceptor(registry, repository));
+        }
+        return bean;
+    }
+
+    private static String repositoryName(Advised advised, String beanName) {
+        for (Class<?> type : advised.getProxiedInterfaces()) {
+            if (Repository.class.isAssignableFrom(type) && type.getPackageName().startsWith("com.example.chatapp")) {
+                return type.getSimpleName();
+            }
+        }
+        return beanName;
+    }
+
+    private static final class TimingInterceptor implements MethodInterceptor {
+        private final ObjectProvider<MeterRegistry> registry;
+        private final String repository;
+        private final Map<Method, Timer[]> timers = new ConcurrentHashMap<>();
+
+        private TimingInterceptor(ObjectProvider<MeterRegistry> registry, String repository) {
+            this.registry = registry;
+            this.repository = repository;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Method method = invocation.getMethod();
+            if (method.getDeclaringClass() == Object.class) {
+                return invocation.proceed();
+            }
+            Timer[] methodTimers = timers.get(method);
+            if (methodTimers == null) {
+                methodTimers = register(method);
+            }
+
+            long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                Object result = invocation.proceed();
+                succeeded = true;
+                return result;
+            } finally {
+                methodTimers[succeeded ? 0 : 1].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private Timer[] register(Method method) {
+            MeterRegistry meterRegistry = registry.getObject();
+            Timer[] methodTimers = {timer(meterRegistry, method, "success"), timer(meterRegistry, method, "error")};
+            Timer[] previous = timers.putIfAbsent(method, methodTimers);
+            return previous != null ? previous : methodTimers;
+        }
+
+        private Timer timer(MeterRegistry meterRegistry, Method method, String outcome) {
+            return Timer.builder("chat.repository.calls")
+                    .description("Spring Data repository calls")
+                    .tag("repository", repository)
+                    .tag("method", method.getName())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+    }
+}
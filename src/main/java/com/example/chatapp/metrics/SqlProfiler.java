@@ -0,0 +1,214 @@
+package com.example.chatapp.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-request accounting of SQL round trips
+ * SqlProfilingFilter opens a Profile for each API request on the request thread, and the profiling
+ * DataSource adds every statement execution on that thread to it: one per execute call, one per
+ * executeBatch. Statements on other threads (async NDJSON streams, background purges, scheduled jobs)
+ * are not attributed to a request. Extra fetches of a result set read with a fetch size are not
+ * counted either.
+ * A request is flagged when it runs more statements than the budget, or the same SQL text at least
+ * repeat-threshold times, which is what an N+1 or a per-row save looks like from here.
+ * Totals are kept per route so the worst offenders can be listed.
+ */
+@Slf4j
+@Component
+public class SqlProfiler {
+
+    private static final int MAX_SQL_CHARS = 300;
+
+    private final boolean enabled;
+    private final boolean debug;
+    private final int statementBudget;
+    private final int repeatThreshold;
+
+    private final ThreadLocal<Profile> current = new ThreadLocal<>();
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    public SqlProfiler(@Value("${chat.sql-profiler.enabled:true}") boolean enabled,
+                       @Value("${chat.sql-profiler.debug:false}") boolean debug,
+                       @Value("${chat.sql-profiler.statement-budget:10}") int statementBudget,
+                       @Value("${chat.sql-profiler.repeat-threshold:3}") int repeatThreshold) {
+        this.enabled = enabled;
+        this.debug = debug;
+        this.statementBudget = statementBudget;
+        this.repeatThreshold = repeatThreshold;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether requests get X-SQL-* response headers and a log line each
+     */
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Start attributing statements on this thread to a new request profile
+     */
+    public Profile begin() {
+        Profile profile = new Profile(System.nanoTime());
+        current.set(profile);
+        return profile;
+    }
+
+    /**
+     * Stop attributing statements on this thread and add the profile to its route
+     */
+    public void end(Profile profile, String route, int status) {
+        current.remove();
+        long elapsedNanos = System.nanoTime() - profile.startNanos;
+
+        boolean overBudget = profile.statements > statementBudget;
+        boolean repeated = profile.repeats >= repeatThreshold;
+        routes.computeIfAbsent(route, Route::new).add(profile, overBudget || repeated);
+
+        if (overBudget || repeated) {
+            log.warn("{} {}: {} statements in {} ms of database time{}{}", route, status, profile.statements,
+                     millis(profile.dbNanos), overBudget ? ", over the budget of " + statementBudget : "",
+                     repeated ? ", " + profile.repeats + "x: " + abbreviate(profile.repeatedSql) : "");
+        } else if (debug) {
+            log.info("{} {}: {} statements, {} ms database, {} ms total", route, status, profile.statements,
+                     millis(profile.dbNanos), millis(elapsedNanos));
+        }
+    }
+
+    /**
+     * Called by the profiling DataSource after each statement execution
+     */
+    void statementExecuted(String sql, long nanos) {
+        Profile profile = current.get();
+        if (profile != null) {
+            profile.add(sql, nanos);
+        }
+    }
+
+    /**
+     * Routes ordered worst first
+     * @param sort statements (mean per request), time (mean database time) or flagged (flagged requests)
+     */
+    public List<RouteStats> worstRoutes(String sort, int limit) {
+        Comparator<RouteStats> order = switch (sort) {
+            case "time" -> Comparator.comparingDouble(RouteStats::meanDbMillis);
+            case "flagged" -> Comparator.comparingLong(RouteStats::flaggedRequests);
+            default -> Comparator.comparingDouble(RouteStats::meanStatements);
+        };
+        List<RouteStats> stats = new ArrayList<>(routes.size());
+        for (Route route : routes.values()) {
+            stats.add(route.stats());
+        }
+        stats.sort(order.reversed());
+        return stats.size() > limit ? stats.subList(0, limit) : stats;
+    }
+
+    public void reset() {
+        routes.clear();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1_000_000.0);
+    }
+
+    private static String abbreviate(String sql) {
+        String oneLine = sql.replaceAll("\\s+", " ").trim();
+        return oneLine.length() > MAX_SQL_CHARS ? oneLine.substring(0, MAX_SQL_CHARS) + "..." : oneLine;
+    }
+
+    /**
+     * Statements of one request; only touched by the request thread
+     */
+    public static final class Profile {
+        private final long startNanos;
+        private final Map<String, Integer> executions = new HashMap<>();
+        private int statements;
+        private long dbNanos;
+        private int repeats;
+        private String repeatedSql;
+
+        private Profile(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        private void add(String sql, long nanos) {
+            statements++;
+            dbNanos += nanos;
+            int count = executions.merge(sql, 1, Integer::sum);
+            if (count > repeats) {
+                repeats = count;
+                repeatedSql = sql;
+            }
+        }
+
+        public int statements() {
+            return statements;
+        }
+
+        public long dbNanos() {
+            return dbNanos;
+        }
+    }
+
+    /**
+     * Totals of one route
+     */
+    private static final class Route {
+        private final String route;
+        private long requests;
+        private long statements;
+        private int maxStatements;
+        private long dbNanos;
+        private long maxDbNanos;
+        private long flagged;
+        private int worstRepeats;
+        private String worstRepeatedSql;
+
+        private Route(String route) {
+            this.route = route;
+        }
+
+        private synchronized void add(Profile profile, boolean flaggedRequest) {
+            requests++;
+            statements += profile.statements;
+            maxStatements = Math.max(maxStatements, profile.statements);
+            dbNanos += profile.dbNanos;
+            maxDbNanos = Math.max(maxDbNanos, profile.dbNanos);
+            if (flaggedRequest) {
+                flagged++;
+            }
+            if (profile.repeats > worstRepeats) {
+                worstRepeats = profile.repeats;
+                worstRepeatedSql = profile.repeatedSql;
+            }
+        }
+
+        private synchronized RouteStats stats() {
+            return new RouteStats(route, requests, (double) statements / requests, maxStatements,
+                    dbNanos / 1_000_000.0 / requests, maxDbNanos / 1_000_000.0, flagged,
+                    worstRepeats, worstRepeats > 1 ? abbreviate(worstRepeatedSql) : null);
+        }
+    }
+
+    /**
+     * Route totals as served by GET /api/chat/sql-profile
+     * worstRepeats is the most executions of one SQL text seen in a single request of the route,
+     * worstRepeatedSql that text when it ran more than once
+     */
+    public record RouteStats(String route, long requests, double meanStatements, int maxStatements,
+                             double meanDbMillis, double maxDbMillis, long flaggedRequests,
+                             int worstRepeats, String worstRepeatedSql) {
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.chatapp.model;
+
+public class BulkIngestResult {
+    private long requests;  // Checkpoints accepted
+    private long rejected;  // Lines skipped because chat info or messages were missing
+    private long messages;  // Rows written to chat_messages
+    private long duplicates; // Messages skipped because their checkpoint was already stored
+    private long sessions;  // Sessions created or updated
+    private long elapsedMillis;
+
+    // Constructors
+    public BulkIngestResult() {}
+
+    public BulkIngestResult(long requests, long rejected, long messages, long duplicates, long sessions,
+                            long elapsedMillis) {
+        this.requests = requests;
+        this.rejected = rejected;
+        this.messages = messages;
+        this.duplicates = duplicates;
+        this.sessions = sessions;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    // Getters and Setters
+    public long getRequests() {
+        return requests;
+    }
+
+    public void setRequests(long requests) {
+        this.requests = requests;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public void setMessages(long messages) {
+        this.messages = messages;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public void setDuplicates(long duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    public long getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(long sessions) {
+        this.sessions = sessions;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.chatapp.model;
+
+import java.time.Instant;
+
+/**
+ * Progress of deleting every session of a chat
+ * Updated by the purge thread while clients poll it, so fields are volatile.
+ */
+public class ChatPurge {
+
+    public enum Status { RUNNING, COMPLETED, FAILED }
+
+    private volatile String purgeId;
+    private volatile String chatId;
+    private volatile Status status;
+    private volatile int sessionsTotal;     // Sessions of the chat when the purge started
+    private volatile int sessionsDeleted;
+    private volatile long messagesDeleted;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;          // Set when the purge failed; deleted sessions stay deleted
+
+    // Constructors
+    public ChatPurge() {}
+
+    public ChatPurge(String purgeId, String chatId, int sessionsTotal) {
+        this.purgeId = purgeId;
+        this.chatId = chatId;
+        this.status = Status.RUNNING;
+        this.sessionsTotal = sessionsTotal;
+        this.startedAt = Instant.now();
+    }
+
+    // Getters and Setters
+    public String getPurgeId() {
+        return purgeId;
+    }
+
+    public void setPurgeId(String purgeId) {
+        this.purgeId = purgeId;
+    }
+
+    public String getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(String chatId) {
+        this.chatId = chatId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public int getSessionsTotal() {
+        return sessionsTotal;
+    }
+
+    public void setSessionsTotal(int sessionsTotal) {
+        this.sessionsTotal = sessionsTotal;
+    }
+
+    public int getSessionsDeleted() {
+        return sessionsDeleted;
+    }
+
+    public void setSessionsDeleted(int sessionsDeleted) {
+        this.sessionsDeleted = sessionsDeleted;
+    }
+
+    public long getMessagesDeleted() {
+        return messagesDeleted;
+    }
+
+    public void setMessagesDeleted(long messagesDeleted) {
+        this.messagesDeleted = messagesDeleted;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
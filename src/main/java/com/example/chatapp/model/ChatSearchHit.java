@@ -0,0 +1,73 @@
+package com.example.chatapp.model;
+
+import java.time.Instant;
+
+public class ChatSearchHit {
+    private String sessionId;
+    private Integer messageOrder;
+    private String role;
+    private String content;
+    private float rank;       // ts_rank of the message for the query; higher is better
+    private Instant createdAt;
+
+    // Constructors
+    public ChatSearchHit() {}
+
+    public ChatSearchHit(String sessionId, Integer messageOrder, String role, String content, float rank, Instant createdAt) {
+        this.sessionId = sessionId;
+        this.messageOrder = messageOrder;
+        this.role = role;
+        this.content = content;
+        this.rank = rank;
+        this.createdAt = createdAt;
+    }
+
+    // Getters and Setters
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public Integer getMessageOrder() {
+        return messageOrder;
+    }
+
+    public void setMessageOrder(Integer messageOrder) {
+        this.messageOrder = messageOrder;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public float getRank() {
+        return rank;
+    }
+
+    public void setRank(float rank) {
+        this.rank = rank;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
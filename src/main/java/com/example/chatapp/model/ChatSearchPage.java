@@ -0,0 +1,53 @@
+package com.example.chatapp.model;
+
+import java.util.List;
+
+public class ChatSearchPage {
+    private String chatId;
+    private String query;
+    private List<ChatSearchHit> hits;
+    private String nextCursor; // Opaque, to pass as "after" for the next page; null on the last page
+
+    // Constructors
+    public ChatSearchPage() {}
+
+    public ChatSearchPage(String chatId, String query, List<ChatSearchHit> hits, String nextCursor) {
+        this.chatId = chatId;
+        this.query = query;
+        this.hits = hits;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and Setters
+    public String getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(String chatId) {
+        this.chatId = chatId;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public List<ChatSearchHit> getHits() {
+        return hits;
+    }
+
+    public void setHits(List<ChatSearchHit> hits) {
+        this.hits = hits;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
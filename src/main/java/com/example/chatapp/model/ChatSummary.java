@@ -0,0 +1,53 @@
+package com.example.chatapp.model;
+
+import java.time.Instant;
+
+public class ChatSummary {
+    private String sessionId;
+    private String content;
+    private Integer throughOrder; // Last messageOrder the summary covers, null if not given
+    private Instant updatedAt;
+
+    // Constructors
+    public ChatSummary() {}
+
+    public ChatSummary(String sessionId, String content, Integer throughOrder, Instant updatedAt) {
+        this.sessionId = sessionId;
+        this.content = content;
+        this.throughOrder = throughOrder;
+        this.updatedAt = updatedAt;
+    }
+
+    // Getters and Setters
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public Integer getThroughOrder() {
+        return throughOrder;
+    }
+
+    public void setThroughOrder(Integer throughOrder) {
+        this.throughOrder = throughOrder;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.chatapp.repository;
+
+import com.example.chatapp.entity.ChatCheckpointEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository for ChatCheckpointEntity
+ * Checkpoints are claimed in ChatSessionRepository.upsertSession and the bulk ingest path
+ */
+@Repository
+public interface ChatCheckpointRepository extends JpaRepository<ChatCheckpointEntity, ChatCheckpointEntity.Key> {
+
+    /**
+     * Forget the checkpoints of a cleared session, so they can be stored again
+     */
+    @Modifying
+    @Query(value = "DELETE FROM chat_checkpoints WHERE session_id = :sessionId", nativeQuery = true)
+    int deleteBySession(String sessionId);
+}
@@ -0,0 +1,45 @@
+package com.example.chatapp.repository;
+
+import com.example.chatapp.entity.ChatContentEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+
+/**
+ * Repository for ChatContentEntity
+ * Maintains shared message bodies and their reference counts
+ */
+@Repository
+public interface ChatContentRepository extends JpaRepository<ChatContentEntity, String> {
+
+    /**
+     * Add references to a body that is already stored, without sending it again
+     * @return 0 if the body is not stored (e.g. it was released meanwhile)
+     */
+    @Modifying
+    @Query(value = "UPDATE chat_contents SET ref_count = ref_count + :refs WHERE hash = :hash", nativeQuery = true)
+    int addReferences(String hash, int refs);
+
+    /**
+     * Store a body, or add references to it if another writer stored it first
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO chat_contents (hash, content, compressed_content, ref_count, created_at)
+            VALUES (:hash, :content, CAST(:compressedContent AS bytea), :refs, now())
+            ON CONFLICT (hash) DO UPDATE SET ref_count = chat_contents.ref_count + EXCLUDED.ref_count
+            """, nativeQuery = true)
+    int insertOrAddReferences(String hash, String content, byte[] compressedContent, int refs);
+
+    /**
+     * Delete bodies left without references, e.g. after ChatMessageRepository.deleteSessionReleasingContent.
+     * A writer adding a reference concurrently either takes the row lock first (the delete then
+     * skips the row) or finds the row gone and stores the body again.
+     */
+    @Modifying
+    @Query(value = "DELETE FROM chat_contents WHERE hash IN (:hashes) AND ref_count <= 0", nativeQuery = true)
+    int deleteUnreferenced(Collection<String> hashes);
+}
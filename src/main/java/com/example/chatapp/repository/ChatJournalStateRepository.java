@@ -0,0 +1,27 @@
+package com.example.chatapp.repository;
+
+import com.example.chatapp.entity.ChatJournalStateEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository for ChatJournalStateEntity
+ */
+@Repository
+public interface ChatJournalStateRepository extends JpaRepository<ChatJournalStateEntity, String> {
+
+    /**
+     * Record that the journal is applied up to and including the given sequence; never moves backwards
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO chat_journal_state (journal_id, applied_sequence, updated_at)
+            VALUES (:journalId, :appliedSequence, now())
+            ON CONFLICT (journal_id) DO UPDATE SET
+                applied_sequence = GREATEST(chat_journal_state.applied_sequence, EXCLUDED.applied_sequence),
+                updated_at = EXCLUDED.updated_at
+            """, nativeQuery = true)
+    int advance(String journalId, long appliedSequence);
+}
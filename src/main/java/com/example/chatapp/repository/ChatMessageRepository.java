@@ -1,15 +1,25 @@
 package com.example.chatapp.repository;
 
 import com.example.chatapp.entity.ChatMessageEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Repository for ChatMessageEntity
- * Provides database operations for chat messages
+ * Provides database operations for chat messages.
+ * chat_messages is partitioned by createdAt. Session queries bound createdAt from below by the
+ * session's createdAt, less a day of slack for clock differences between application nodes and the
+ * database, so PostgreSQL skips partitions older than the session at execution time.
  */
 @Repository
 public interface ChatMessageRepository extends JpaRepository<ChatMessageEntity, String> {
@@ -19,6 +29,101 @@ public interface ChatMessageRepository extends JpaRepository<ChatMessageEntity,
      */
     List<ChatMessageEntity> findBySessionIdOrderByMessageOrderAsc(String sessionId);
 
+    /**
+     * Load the most recent messages of a session with the session's chatId in one query, newest first.
+     * Walks the (sessionId, messageOrder) index of each remaining partition backwards and stops at the limit.
+     * Returns projections, so nothing is hydrated into or tracked by the persistence context.
+     */
+    @Query("""
+            SELECT new com.example.chatapp.repository.ChatMessageView(s.chatId, m.role, m.content, m.compressedContent, m.contentHash, m.messageOrder)
+            FROM ChatMessageEntity m JOIN ChatSessionEntity s ON s.sessionId = m.sessionId
+            WHERE m.sessionId = :sessionId
+              AND m.createdAt >= (SELECT b.createdAt - 1 day FROM ChatSessionEntity b WHERE b.sessionId = :sessionId)
+            ORDER BY m.messageOrder DESC
+            """)
+    List<ChatMessageView> findTailViews(String sessionId, Limit limit);
+
+    /**
+     * Load the most recent messages of a session after the given order with the session's chatId, newest first.
+     * The tail of a session that has a snapshot, see SessionSnapshotStore.
+     */
+    @Query("""
+            SELECT new com.example.chatapp.repository.ChatMessageView(s.chatId, m.role, m.content, m.compressedContent, m.contentHash, m.messageOrder)
+            FROM ChatMessageEntity m JOIN ChatSessionEntity s ON s.sessionId = m.sessionId
+            WHERE m.sessionId = :sessionId AND m.messageOrder > :messageOrder
+              AND m.createdAt >= (SELECT b.createdAt - 1 day FROM ChatSessionEntity b WHERE b.sessionId = :sessionId)
+            ORDER BY m.messageOrder DESC
+            """)
+    List<ChatMessageView> findTailViewsAfter(String sessionId, Integer messageOrder, Limit limit);
+
+    /**
+     * Load the messages stored by one checkpoint request, in order
+     */
+    @Query("""
+            SELECT new com.example.chatapp.repository.ChatMessageView(m.chatId, m.role, m.content, m.compressedContent, m.contentHash, m.messageOrder)
+            FROM ChatMessageEntity m
+            WHERE m.sessionId = :sessionId AND m.messageId = :messageId
+              AND m.createdAt >= (SELECT b.createdAt - 1 day FROM ChatSessionEntity b WHERE b.sessionId = :sessionId)
+            ORDER BY m.messageOrder
+            """)
+    List<ChatMessageView> findCheckpointViews(String sessionId, String messageId);
+
+    /**
+     * Load the most recent messages of a session whose running token sum ends within maxTokens of the
+     * session's, oldest first: the fitting window plus at most one older message that straddles the budget.
+     * A range scan of the (sessionId, cumulativeTokens) index; messages written before token counts were
+     * stored have none and are not returned.
+     */
+    @Query("""
+            SELECT new com.example.chatapp.repository.ChatMessageTokenView(s.chatId, m.role, m.content, m.compressedContent,
+                   m.contentHash, m.messageOrder, m.tokenCount, m.cumulativeTokens, s.tokenCount)
+            FROM ChatMessageEntity m JOIN ChatSessionEntity s ON s.sessionId = m.sessionId
+            WHERE m.sessionId = :sessionId AND m.cumulativeTokens > s.tokenCount - :maxTokens
+              AND m.createdAt >= (SELECT b.createdAt - 1 day FROM ChatSessionEntity b WHERE b.sessionId = :sessionId)
+            ORDER BY m.messageOrder
+            """)
+    List<ChatMessageTokenView> findTokenWindow(String sessionId, long maxTokens);
+
+    /**
+     * Load messages of a session before the given order with the session's chatId, newest first
+     */
+    @Query("""
+            SELECT new com.example.chatapp.repository.ChatMessageView(s.chatId, m.role, m.content, m.compressedContent, m.contentHash, m.messageOrder)
+            FROM ChatMessageEntity m JOIN ChatSessionEntity s ON s.sessionId = m.sessionId
+            WHERE m.sessionId = :sessionId AND m.messageOrder < :messageOrder
+              AND m.createdAt >= (SELECT b.createdAt - 1 day FROM ChatSessionEntity b WHERE b.sessionId = :sessionId)
+            ORDER BY m.messageOrder DESC
+            """)
+    List<ChatMessageView> findViewsBefore(String sessionId, Integer messageOrder, Limit limit);
+
+    /**
+     * Keyset page: messages of a session after the given order, oldest first.
+     * Seeks on the (sessionId, messageOrder) index, so cost does not grow with depth.
+     */
+    @Query("""
+            SELECT m FROM ChatMessageEntity m
+            WHERE m.sessionId = :sessionId AND m.messageOrder > :messageOrder
+              AND m.createdAt >= (SELECT b.createdAt - 1 day FROM ChatSessionEntity b WHERE b.sessionId = :sessionId)
+            ORDER BY m.messageOrder
+            """)
+    List<ChatMessageEntity> findPage(String sessionId, Integer messageOrder, Limit limit);
+
+    /**
+     * Stream all messages for a session in order through a forward-only JDBC cursor.
+     * Must be consumed inside a transaction so the driver fetches rows in batches of the fetch size.
+     */
+    @Query("""
+            SELECT m FROM ChatMessageEntity m
+            WHERE m.sessionId = :sessionId
+              AND m.createdAt >= (SELECT b.createdAt - 1 day FROM ChatSessionEntity b WHERE b.sessionId = :sessionId)
+            ORDER BY m.messageOrder
+            """)
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<ChatMessageEntity> streamBySessionIdOrderByMessageOrderAsc(String sessionId);
+
     /**
      * Find all messages for a chat ID across all sessions
      */
@@ -35,9 +140,145 @@ public interface ChatMessageRepository extends JpaRepository<ChatMessageEntity,
     long countBySessionId(String sessionId);
 
     /**
-     * Delete all messages for a session
+     * Delete all messages of a session and release their references to shared bodies in one statement,
+     * so the released counts match the deleted rows exactly. Shared bodies are locked in hash order,
+     * the same order SharedContentStore.intern takes them in.
+     * Probes every partition: the session row, which would bound createdAt, is deleted first.
+     * @return Hashes of the shared bodies that lost references
+     */
+    @Query(value = """
+            WITH deleted AS (
+                DELETE FROM chat_messages WHERE session_id = :sessionId RETURNING content_hash
+            ), refs AS (
+                SELECT content_hash, count(*) AS refs FROM deleted
+                WHERE content_hash IS NOT NULL GROUP BY content_hash
+            ), locked AS (
+                SELECT c.hash FROM chat_contents c JOIN refs r ON r.content_hash = c.hash
+                ORDER BY c.hash FOR UPDATE OF c
+            )
+            UPDATE chat_contents c SET ref_count = c.ref_count - r.refs
+            FROM refs r JOIN locked l ON l.hash = r.content_hash
+            WHERE c.hash = r.content_hash
+            RETURNING c.hash
+            """, nativeQuery = true)
+    List<String> deleteSessionReleasingContent(String sessionId);
+
+    /**
+     * Delete the oldest messages of a session, at most limit of them, releasing their shared bodies like
+     * deleteSessionReleasingContent. Used to take a large session apart in short transactions.
+     * @return How many messages were deleted, and the comma-separated hashes of the bodies that lost references
+     */
+    @Query(value = """
+            WITH doomed AS (
+                SELECT id, created_at FROM chat_messages
+                WHERE session_id = :sessionId
+                  AND created_at >= (SELECT created_at - interval '1 day' FROM chat_sessions WHERE session_id = :sessionId)
+                ORDER BY message_order
+                LIMIT :limit
+            ), deleted AS (
+                DELETE FROM chat_messages m USING doomed d
+                WHERE m.id = d.id AND m.created_at = d.created_at
+                RETURNING m.content_hash
+            ), refs AS (
+                SELECT content_hash, count(*) AS refs FROM deleted
+                WHERE content_hash IS NOT NULL GROUP BY content_hash
+            ), locked AS (
+                SELECT c.hash FROM chat_contents c JOIN refs r ON r.content_hash = c.hash
+                ORDER BY c.hash FOR UPDATE OF c
+            ), released AS (
+                UPDATE chat_contents c SET ref_count = c.ref_count - r.refs
+                FROM refs r JOIN locked l ON l.hash = r.content_hash
+                WHERE c.hash = r.content_hash
+                RETURNING c.hash
+            )
+            SELECT (SELECT count(*) FROM deleted) AS deleted,
+                   (SELECT string_agg(hash, ',') FROM released) AS released
+            """, nativeQuery = true)
+    DeletedChunk deleteOldestReleasingContent(String sessionId, int limit);
+
+    /**
+     * Result of deleteOldestReleasingContent
+     */
+    interface DeletedChunk {
+        long getDeleted();
+
+        String getReleased();
+    }
+
+    /**
+     * Full-text search over the messages of a chat, best match first
+     * query is parsed with websearch_to_tsquery ("quoted phrases", or, -excluded) and matched with the 'simple'
+     * configuration the messages were indexed with. Hits come ordered by (rank, sessionId, messageOrder), all
+     * descending, and the page starts after the given hit; pass Float.POSITIVE_INFINITY for the first page.
+     * Matches come from the idx_chat_search GIN index and ranks from the stored tsvector, so no body is parsed
+     * at query time. Only the maxRanked most recent matches created up to asOf are ranked, which bounds the cost
+     * of terms that occur in most messages of a large chat (they are found newest first through idx_chat_created);
+     * such a search returns good recent matches rather than the best ones. With the same asOf every page ranks
+     * the same matches, so pages neither skip nor repeat hits as messages are written.
+     */
+    @Query(value = """
+            SELECT m.session_id AS "sessionId", m.message_order AS "messageOrder", m.role AS "role",
+                   m.content AS "content", m.compressed_content AS "compressedContent", m.content_hash AS "contentHash",
+                   m.created_at AS "createdAt", m.rank AS "rank"
+            FROM (
+                SELECT m.session_id, m.message_order, m.role, m.content, m.compressed_content, m.content_hash,
+                       m.created_at, ts_rank(m.search_vector, q) AS rank
+                FROM chat_messages m CROSS JOIN websearch_to_tsquery('simple', :query) q
+                WHERE m.chat_id = :chatId AND m.search_vector @@ q AND m.created_at <= :asOf
+                ORDER BY m.created_at DESC, m.id DESC
+                LIMIT :maxRanked
+            ) m
+            WHERE (m.rank, m.session_id, m.message_order) < (:afterRank, :afterSessionId, :afterOrder)
+            ORDER BY m.rank DESC, m.session_id DESC, m.message_order DESC
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<SearchRow> search(String chatId, String query, Instant asOf, int maxRanked, float afterRank,
+                           String afterSessionId, int afterOrder, int limit);
+
+    /**
+     * Row of {@link #search}
+     */
+    interface SearchRow {
+        String getSessionId();
+
+        Integer getMessageOrder();
+
+        String getRole();
+
+        String getContent();
+
+        byte[] getCompressedContent();
+
+        String getContentHash();
+
+        Instant getCreatedAt();
+
+        Float getRank();
+    }
+
+    /**
+     * Messages stored before they were indexed for search, oldest first, locked so that concurrent
+     * backfills on other nodes take different ones
+     */
+    @Query(value = """
+            SELECT * FROM chat_messages WHERE search_vector IS NULL
+            ORDER BY created_at
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<ChatMessageEntity> findUnindexed(int limit);
+
+    /**
+     * Index message bodies for search
+     * @param texts JSON array of {id, created_at, text}
      */
-    void deleteBySessionId(String sessionId);
+    @Modifying
+    @Query(value = """
+            UPDATE chat_messages m SET search_vector = to_tsvector('simple', t.text)
+            FROM jsonb_to_recordset(CAST(:texts AS jsonb)) AS t(id varchar, created_at timestamptz, text text)
+            WHERE m.id = t.id AND m.created_at = t.created_at
+            """, nativeQuery = true)
+    int updateSearchVectors(String texts);
 
     /**
      * Get the last message order number for a session
@@ -0,0 +1,18 @@
+package com.example.chatapp.repository;
+
+/**
+ * A ChatMessageView with the token counts stored with the message and its session
+ * tokensBefore is the session's running token sum before this message, so the messages from this
+ * one to the end of the session take up sessionTokens - tokensBefore tokens.
+ */
+public record ChatMessageTokenView(ChatMessageView message, int tokenCount, long tokensBefore, long sessionTokens) {
+
+    /**
+     * Query constructor
+     */
+    public ChatMessageTokenView(String chatId, String role, String content, byte[] compressedContent, String contentHash,
+                                Integer messageOrder, Integer tokenCount, Long cumulativeTokens, Long sessionTokens) {
+        this(new ChatMessageView(chatId, role, content, compressedContent, contentHash, messageOrder),
+             tokenCount, cumulativeTokens - tokenCount, sessionTokens);
+    }
+}
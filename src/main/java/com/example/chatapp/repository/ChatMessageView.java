@@ -0,0 +1,33 @@
+package com.example.chatapp.repository;
+
+import com.example.chatapp.entity.MessageContentCodec;
+
+/**
+ * Read-only projection of a chat message together with its session's chatId
+ * Built directly from query results, never attached to the persistence context.
+ * Messages with a shared body come back with a null content and their contentHash set,
+ * until SharedContentStore resolves them.
+ */
+public record ChatMessageView(String chatId, String role, String content, Integer messageOrder, String contentHash) {
+
+    public ChatMessageView(String chatId, String role, String content, Integer messageOrder) {
+        this(chatId, role, content, messageOrder, null);
+    }
+
+    /**
+     * Query constructor: takes every content column and keeps whichever holds the body
+     */
+    public ChatMessageView(String chatId, String role, String content, byte[] compressedContent, String contentHash,
+                           Integer messageOrder) {
+        this(chatId, role, contentHash != null ? null
+                : compressedContent != null ? MessageContentCodec.decompress(compressedContent) : content,
+             messageOrder, contentHash);
+    }
+
+    /**
+     * Copy with a resolved shared body
+     */
+    public ChatMessageView withContent(String content) {
+        return new ChatMessageView(chatId, role, content, messageOrder);
+    }
+}
@@ -1,9 +1,13 @@
 package com.example.chatapp.repository;
 
 import com.example.chatapp.entity.ChatSessionEntity;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
 
 /**
@@ -18,8 +22,176 @@ public interface ChatSessionRepository extends JpaRepository<ChatSessionEntity,
      */
     List<ChatSessionEntity> findByChatIdOrderByUpdatedAtDesc(String chatId);
 
+    /**
+     * Delete a session row right away, holding its row lock until commit.
+     * Writers to the session wait on that lock, so nothing is added while the session is cleared.
+     */
+    @Modifying
+    @Query(value = "DELETE FROM chat_sessions WHERE session_id = :sessionId", nativeQuery = true)
+    int deleteSession(String sessionId);
+
+    /**
+     * Sessions not written to since the cutoff, least recently updated first
+     */
+    @Query("SELECT s.sessionId FROM ChatSessionEntity s WHERE s.updatedAt < :cutoff ORDER BY s.updatedAt")
+    List<String> findColdSessionIds(Instant cutoff, Limit limit);
+
+    /**
+     * Delete a session row only if it was not written to since it was read
+     * @return 0 if the session changed or is gone
+     */
+    @Modifying
+    @Query(value = "DELETE FROM chat_sessions WHERE session_id = :sessionId AND updated_at = :updatedAt",
+           nativeQuery = true)
+    int deleteSessionIfUnchanged(String sessionId, Instant updatedAt);
+
+    /**
+     * Recreate the row of a session restored from the archive
+     * @return 0 if the session row already exists, e.g. another writer restored it first
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO chat_sessions (session_id, chat_id, created_at, updated_at, message_count, last_message_preview,
+                                       token_count)
+            VALUES (:sessionId, :chatId, now(), now(), :messageCount, CAST(:preview AS varchar), :tokenCount)
+            ON CONFLICT (session_id) DO NOTHING
+            """, nativeQuery = true)
+    int insertRestored(String sessionId, String chatId, int messageCount, String preview, long tokenCount);
+
+    /**
+     * Read a session's message count, holding a key-share lock on its row until commit.
+     * Writers to the session are not blocked, but deleting it waits, so a snapshot taken meanwhile is deleted with it.
+     * @return null if the session does not exist
+     */
+    @Query(value = "SELECT message_count FROM chat_sessions WHERE session_id = :sessionId FOR KEY SHARE",
+           nativeQuery = true)
+    Integer lockForSnapshot(String sessionId);
+
     /**
      * Check if session exists
      */
     boolean existsBySessionId(String sessionId);
+
+    /**
+     * Insert the session or add to its message count, token count and preview in a single round trip.
+     * When overwriteChatId is false an existing session keeps its chatId.
+     * The returned message count is the session's order sequence: the caller owns
+     * orders (messageCount - added, messageCount]. The returned token count is the session's running
+     * token sum including the tokens added.
+     * The previous chatId is null if the session was just created.
+     * Returns null without touching the session if this messageId is already stored in it
+     * (a replayed checkpoint); pass a null messageId to skip that check. The checkpoint is claimed
+     * in chat_checkpoints, so of two concurrent replays the second waits for the first and then
+     * sees the claim. Messages stored before chat_checkpoints existed are checked directly.
+     */
+    @Query(value = """
+            WITH previous AS (
+                SELECT chat_id, created_at FROM chat_sessions WHERE session_id = :sessionId
+            ), duplicate AS (
+                SELECT 1 FROM chat_messages
+                WHERE session_id = :sessionId AND message_id = CAST(:messageId AS varchar)
+                  AND created_at >= (SELECT created_at - interval '1 day' FROM previous)
+                LIMIT 1
+            ), claimed AS (
+                INSERT INTO chat_checkpoints (session_id, message_id, created_at)
+                SELECT :sessionId, CAST(:messageId AS varchar), now()
+                WHERE CAST(:messageId AS varchar) IS NOT NULL AND NOT EXISTS (SELECT 1 FROM duplicate)
+                ON CONFLICT DO NOTHING
+                RETURNING 1
+            ), upserted AS (
+                INSERT INTO chat_sessions (session_id, chat_id, created_at, updated_at, message_count, last_message_preview,
+                                           token_count)
+                SELECT :sessionId, :chatId, now(), now(), :added, CAST(:preview AS varchar), :tokens
+                WHERE CAST(:messageId AS varchar) IS NULL OR EXISTS (SELECT 1 FROM claimed)
+                ON CONFLICT (session_id) DO UPDATE SET
+                    chat_id = CASE WHEN :overwriteChatId THEN EXCLUDED.chat_id ELSE chat_sessions.chat_id END,
+                    message_count = chat_sessions.message_count + EXCLUDED.message_count,
+                    last_message_preview = COALESCE(EXCLUDED.last_message_preview, chat_sessions.last_message_preview),
+                    token_count = COALESCE(chat_sessions.token_count, 0) + EXCLUDED.token_count,
+                    updated_at = EXCLUDED.updated_at
+                RETURNING chat_id, message_count, token_count
+            )
+            SELECT u.chat_id AS "chatId", u.message_count AS "messageCount", u.token_count AS "tokenCount",
+                   p.chat_id AS "previousChatId"
+            FROM upserted u LEFT JOIN previous p ON true
+            """, nativeQuery = true)
+    SessionUpsert upsertSession(String sessionId, String chatId, String messageId, boolean overwriteChatId,
+                                int added, String preview, long tokens);
+
+    /**
+     * Claim several checkpoints of one session and add all of the claimed ones to the session with a single
+     * row update, as upsertSession does for one.
+     * checkpoints is a JSON array of {position, message_id, chat_id, added, tokens, preview} with distinct message_ids;
+     * the session takes chat_id and preview of the claimed checkpoint with the highest position.
+     * Returns one row per claimed checkpoint, none if all of them are already stored. The caller owns orders
+     * (messageCount - sum of added over the claimed checkpoints, messageCount], in position order, and tokenCount
+     * is the session's running token sum including theirs.
+     */
+    @Query(value = """
+            WITH previous AS (
+                SELECT chat_id, created_at FROM chat_sessions WHERE session_id = :sessionId
+            ), requested AS (
+                SELECT * FROM jsonb_to_recordset(CAST(:checkpoints AS jsonb))
+                    AS r(position int, message_id varchar, chat_id varchar, added int, tokens bigint, preview varchar)
+            ), duplicate AS (
+                SELECT DISTINCT message_id FROM chat_messages
+                WHERE session_id = :sessionId AND message_id IN (SELECT message_id FROM requested)
+                  AND created_at >= (SELECT created_at - interval '1 day' FROM previous)
+            ), claimed AS (
+                INSERT INTO chat_checkpoints (session_id, message_id, created_at)
+                SELECT :sessionId, r.message_id, now() FROM requested r
+                WHERE r.message_id NOT IN (SELECT message_id FROM duplicate)
+                ON CONFLICT DO NOTHING
+                RETURNING message_id
+            ), latest AS (
+                SELECT r.chat_id, r.preview FROM requested r JOIN claimed c USING (message_id)
+                ORDER BY r.position DESC
+                LIMIT 1
+            ), added AS (
+                SELECT sum(r.added) AS messages, sum(r.tokens) AS tokens
+                FROM requested r JOIN claimed c USING (message_id)
+            ), upserted AS (
+                INSERT INTO chat_sessions (session_id, chat_id, created_at, updated_at, message_count, last_message_preview,
+                                           token_count)
+                SELECT :sessionId, l.chat_id, now(), now(), a.messages, l.preview, a.tokens
+                FROM latest l CROSS JOIN added a
+                ON CONFLICT (session_id) DO UPDATE SET
+                    chat_id = EXCLUDED.chat_id,
+                    message_count = chat_sessions.message_count + EXCLUDED.message_count,
+                    last_message_preview = COALESCE(EXCLUDED.last_message_preview, chat_sessions.last_message_preview),
+                    token_count = COALESCE(chat_sessions.token_count, 0) + EXCLUDED.token_count,
+                    updated_at = EXCLUDED.updated_at
+                RETURNING message_count, token_count
+            )
+            SELECT c.message_id AS "messageId", u.message_count AS "messageCount", u.token_count AS "tokenCount",
+                   p.chat_id AS "previousChatId"
+            FROM claimed c CROSS JOIN upserted u LEFT JOIN previous p ON true
+            """, nativeQuery = true)
+    List<ClaimedCheckpoint> upsertSessionCheckpoints(String sessionId, String checkpoints);
+
+    /**
+     * Result of {@link #upsertSession}
+     */
+    interface SessionUpsert {
+        String getChatId();
+
+        Integer getMessageCount();
+
+        Long getTokenCount();
+
+        String getPreviousChatId();
+    }
+
+    /**
+     * Row of {@link #upsertSessionCheckpoints}
+     */
+    interface ClaimedCheckpoint {
+        String getMessageId();
+
+        Integer getMessageCount();
+
+        Long getTokenCount();
+
+        String getPreviousChatId();
+    }
 }
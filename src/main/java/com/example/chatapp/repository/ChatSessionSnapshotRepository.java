@@ -0,0 +1,98 @@
+package com.example.chatapp.repository;
+
+import com.example.chatapp.entity.ChatSessionSnapshotEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Repository for ChatSessionSnapshotEntity
+ * Snapshot chunks are written and read by SessionSnapshotStore
+ */
+@Repository
+public interface ChatSessionSnapshotRepository
+        extends JpaRepository<ChatSessionSnapshotEntity, ChatSessionSnapshotEntity.Key> {
+
+    /**
+     * Chunks of a session's snapshot without their messages, newest first
+     */
+    @Query("""
+            SELECT c.firstOrder AS firstOrder, c.throughOrder AS throughOrder, c.messageCount AS messageCount,
+                   c.createdAt AS createdAt
+            FROM ChatSessionSnapshotEntity c WHERE c.sessionId = :sessionId
+            ORDER BY c.firstOrder DESC
+            """)
+    List<ChunkHead> findChunkHeads(String sessionId);
+
+    /**
+     * Chunks of a session's snapshot within an order range, oldest first
+     */
+    @Query("""
+            SELECT c FROM ChatSessionSnapshotEntity c
+            WHERE c.sessionId = :sessionId AND c.firstOrder >= :fromOrder AND c.throughOrder <= :throughOrder
+            ORDER BY c.firstOrder
+            """)
+    List<ChatSessionSnapshotEntity> findChunks(String sessionId, int fromOrder, int throughOrder);
+
+    /**
+     * Last message order a session's snapshot covers, null if it has none
+     */
+    @Query("SELECT MAX(c.throughOrder) FROM ChatSessionSnapshotEntity c WHERE c.sessionId = :sessionId")
+    Integer findThroughOrder(String sessionId);
+
+    /**
+     * Append a chunk to a session's snapshot
+     * @return 0 if a chunk starting at firstOrder already exists, e.g. another node compacted the session first
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO chat_session_snapshots (session_id, first_order, through_order, message_count, messages,
+                                                oldest_message_at, created_at)
+            VALUES (:sessionId, :firstOrder, :throughOrder, :messageCount, :messages,
+                    CAST(:oldestMessageAt AS timestamptz), now())
+            ON CONFLICT DO NOTHING
+            """, nativeQuery = true)
+    int insertChunk(String sessionId, int firstOrder, int throughOrder, int messageCount, byte[] messages,
+                    Instant oldestMessageAt);
+
+    /**
+     * Drop a session's snapshot, so it is rebuilt from the rows that are left
+     */
+    @Modifying
+    @Query(value = "DELETE FROM chat_session_snapshots WHERE session_id = :sessionId", nativeQuery = true)
+    int deleteBySession(String sessionId);
+
+    /**
+     * Sessions worth compacting: at least minMessages past their snapshot, not counting the keepTail most
+     * recent messages, which are never compacted. Furthest behind first.
+     */
+    @Query(value = """
+            SELECT s.session_id FROM chat_sessions s
+            LEFT JOIN LATERAL (
+                SELECT max(c.through_order) AS through_order FROM chat_session_snapshots c
+                WHERE c.session_id = s.session_id
+            ) c ON true
+            WHERE s.message_count >= :minMessages + :keepTail
+              AND s.message_count - COALESCE(c.through_order, 0) >= :minMessages + :keepTail
+            ORDER BY s.message_count - COALESCE(c.through_order, 0) DESC
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<String> findCompactionCandidates(int minMessages, int keepTail, int limit);
+
+    /**
+     * Chunk of {@link #findChunkHeads}
+     */
+    interface ChunkHead {
+        Integer getFirstOrder();
+
+        Integer getThroughOrder();
+
+        Integer getMessageCount();
+
+        Instant getCreatedAt();
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.chatapp.repository;
+
+import com.example.chatapp.entity.ChatSessionSummaryEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository for ChatSessionSummaryEntity
+ */
+@Repository
+public interface ChatSessionSummaryRepository extends JpaRepository<ChatSessionSummaryEntity, String> {
+
+    /**
+     * Pin a summary to a session, replacing any earlier one
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO chat_session_summaries (session_id, content, through_order, updated_at)
+            VALUES (:sessionId, :content, CAST(:throughOrder AS integer), now())
+            ON CONFLICT (session_id) DO UPDATE SET
+                content = EXCLUDED.content,
+                through_order = EXCLUDED.through_order,
+                updated_at = EXCLUDED.updated_at
+            """, nativeQuery = true)
+    int upsert(String sessionId, String content, Integer throughOrder);
+
+    /**
+     * Unpin the summary of a deleted session
+     */
+    @Modifying
+    @Query(value = "DELETE FROM chat_session_summaries WHERE session_id = :sessionId", nativeQuery = true)
+    int deleteBySession(String sessionId);
+}
@@ -0,0 +1,322 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.ChatMessageEntity;
+import com.example.chatapp.memory.MessageTokenCounter;
+import com.example.chatapp.memory.PostgresChatMemory;
+import com.example.chatapp.memory.SessionHistoryCache;
+import com.example.chatapp.model.BulkIngestResult;
+import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.model.ChatRequest;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bulk ingest of many checkpoints across many sessions
+ * Rows are streamed into a temporary staging table with PostgreSQL COPY, then moved into
+ * chat_messages and chat_sessions with set-based statements in the same transaction.
+ * Message orders are allocated from the chat_sessions counter exactly like PostgresChatMemory.add,
+ * and checkpoints whose (sessionId, messageId) is already stored, or repeated within the payload,
+ * are skipped the same way a replayed single checkpoint is. Token counts and running token sums are
+ * stored as well, and bodies are indexed for search.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BulkIngestService {
+
+    private static final int COPY_BUFFER_CHARS = 256 * 1024;
+
+    private static final String CREATE_STAGING_SQL = """
+            CREATE TEMP TABLE chat_messages_staging (
+                seq bigint, request_seq bigint, session_id text, chat_id text, message_id text,
+                position int, role text, content text, token_count int
+            ) ON COMMIT DROP
+            """;
+
+    private static final String COPY_STAGING_SQL = """
+            COPY chat_messages_staging (seq, request_seq, session_id, chat_id, message_id, position, role, content,
+                                        token_count)
+            FROM STDIN (FORMAT text)
+            """;
+
+    // Drop later copies of a checkpoint repeated in the payload. A grouped hash join: a correlated
+    // self-lookup would scan the unindexed staging table once per staged row
+    private static final String DROP_REPEATS_SQL = """
+            DELETE FROM chat_messages_staging s
+            USING (
+                SELECT session_id, message_id, min(request_seq) AS first_seq
+                FROM chat_messages_staging GROUP BY session_id, message_id
+            ) f
+            WHERE f.session_id = s.session_id AND f.message_id = s.message_id AND s.request_seq > f.first_seq
+            """;
+
+    // Drop checkpoints stored before chat_checkpoints existed
+    private static final String DROP_STORED_SQL = """
+            DELETE FROM chat_messages_staging s
+            WHERE EXISTS (
+                SELECT 1 FROM chat_messages m
+                WHERE m.session_id = s.session_id AND m.message_id = s.message_id
+                  AND m.created_at >= (
+                      SELECT created_at - interval '1 day' FROM chat_sessions WHERE session_id = s.session_id
+                  )
+            )
+            """;
+
+    // Claim the remaining checkpoints, like the session upsert does, and drop those already claimed
+    private static final String CLAIM_CHECKPOINTS_SQL = """
+            WITH claimed AS (
+                INSERT INTO chat_checkpoints (session_id, message_id, created_at)
+                SELECT DISTINCT session_id, message_id, now() FROM chat_messages_staging
+                ORDER BY session_id, message_id
+                ON CONFLICT DO NOTHING
+                RETURNING session_id, message_id
+            )
+            DELETE FROM chat_messages_staging s
+            WHERE NOT EXISTS (
+                SELECT 1 FROM claimed c WHERE c.session_id = s.session_id AND c.message_id = s.message_id
+            )
+            """;
+
+    // Upsert every touched session once, bumping its counters by the rows and tokens it receives, then
+    // number the staged rows and sum their tokens on top of the previous counter values
+    private static final String APPLY_STAGING_SQL = """
+            WITH counts AS (
+                SELECT session_id, count(*) AS added, sum(token_count) AS tokens
+                FROM chat_messages_staging GROUP BY session_id
+            ), latest AS (
+                SELECT DISTINCT ON (session_id) session_id, chat_id, content
+                FROM chat_messages_staging ORDER BY session_id, seq DESC
+            ), sessions AS (
+                INSERT INTO chat_sessions (session_id, chat_id, created_at, updated_at, message_count, last_message_preview,
+                                           token_count)
+                SELECT c.session_id, l.chat_id, now(), now(), c.added,
+                       CASE WHEN length(l.content) > 100 THEN left(l.content, 100) || '...' ELSE l.content END,
+                       c.tokens
+                FROM counts c JOIN latest l USING (session_id)
+                ORDER BY c.session_id
+                ON CONFLICT (session_id) DO UPDATE SET
+                    chat_id = EXCLUDED.chat_id,
+                    message_count = chat_sessions.message_count + EXCLUDED.message_count,
+                    last_message_preview = EXCLUDED.last_message_preview,
+                    token_count = COALESCE(chat_sessions.token_count, 0) + EXCLUDED.token_count,
+                    updated_at = EXCLUDED.updated_at
+                RETURNING session_id, message_count, token_count
+            )
+            INSERT INTO chat_messages (id, chat_id, session_id, message_id, role, content, created_at, message_order, position,
+                                       token_count, cumulative_tokens, search_vector)
+            SELECT gen_random_uuid()::text, s.chat_id, s.session_id, s.message_id, s.role, s.content, now(),
+                   sessions.message_count - c.added + row_number() OVER (PARTITION BY s.session_id ORDER BY s.seq),
+                   s.position, s.token_count,
+                   sessions.token_count - c.tokens + sum(s.token_count) OVER (PARTITION BY s.session_id ORDER BY s.seq),
+                   to_tsvector('simple', left(s.content, %d))
+            FROM chat_messages_staging s
+            JOIN counts c USING (session_id)
+            JOIN sessions USING (session_id)
+            """.formatted(ChatMessageEntity.SEARCH_TEXT_MAX_CHARS);
+
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final SessionHistoryCache historyCache;
+    private final PostgresChatMemory chatMemory;
+    private final MessageTokenCounter tokenCounter;
+
+    /**
+     * Ingest NDJSON, one ChatRequest per line
+     * Lines without chat ids, messages or message content are skipped and counted as rejected.
+     * Malformed JSON aborts the whole batch.
+     * @param ndjson The request body
+     * @return Counts of what was written
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public BulkIngestResult ingest(InputStream ndjson) throws IOException, SQLException {
+        BulkIngestResult result;
+        try (MappingIterator<ChatRequest> it = objectMapper.readerFor(ChatRequest.class).readValues(ndjson)) {
+            result = ingest(() -> it.hasNextValue() ? it.nextValue() : null);
+        }
+        log.info("Bulk ingested {} checkpoints ({} rejected), {} messages ({} duplicates skipped) into {} sessions in {} ms",
+                 result.getRequests(), result.getRejected(), result.getMessages(), result.getDuplicates(),
+                 result.getSessions(), result.getElapsedMillis());
+        return result;
+    }
+
+    /**
+     * Ingest checkpoints already in memory, such as a batch from the write-ahead journal
+     * Joins the caller's transaction if there is one.
+     * @param requests Checkpoints in the order their messages are numbered in
+     * @return Counts of what was written
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public BulkIngestResult ingest(List<ChatRequest> requests) throws SQLException {
+        Iterator<ChatRequest> it = requests.iterator();
+        try {
+            return ingest(() -> it.hasNext() ? it.next() : null);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unexpected I/O error reading requests from memory", e);
+        }
+    }
+
+    private BulkIngestResult ingest(RequestSource source) throws IOException, SQLException {
+        long started = System.nanoTime();
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        List<String> sessionIds = new ArrayList<>();
+        long requests = 0;
+        long rejected = 0;
+        long duplicates;
+        long inserted;
+        try {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_STAGING_SQL);
+            }
+
+            // Stream parsed requests into the staging table
+            long seq = 0;
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_STAGING_SQL);
+            try {
+                StringBuilder buffer = new StringBuilder(COPY_BUFFER_CHARS + 1024);
+                ChatRequest request;
+                while ((request = source.next()) != null) {
+                    if (!isValid(request)) {
+                        rejected++;
+                        continue;
+                    }
+                    requests++;
+
+                    List<ChatMessage> messages = request.getMessages();
+                    for (int position = 0; position < messages.size(); position++) {
+                        ChatMessage message = messages.get(position);
+                        buffer.append(++seq).append('\t').append(requests).append('\t');
+                        appendField(buffer, request.getChat().getSessionId()).append('\t');
+                        appendField(buffer, request.getChat().getChatId()).append('\t');
+                        appendField(buffer, request.getChat().getMessageId()).append('\t');
+                        buffer.append(position).append('\t');
+                        appendField(buffer, normalizeRole(message.getRole())).append('\t');
+                        appendField(buffer, message.getContent()).append('\t');
+                        buffer.append(tokenCounter.count(message.getContent())).append('\n');
+                    }
+                    if (buffer.length() >= COPY_BUFFER_CHARS) {
+                        writeToCopy(copyIn, buffer);
+                    }
+                }
+                writeToCopy(copyIn, buffer);
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+
+            // Move staged rows into place with set-based statements
+            try (Statement statement = connection.createStatement()) {
+                // Temp tables are never auto-analyzed; give the planner real row counts
+                statement.execute("ANALYZE chat_messages_staging");
+                duplicates = statement.executeUpdate(DROP_REPEATS_SQL);
+                duplicates += statement.executeUpdate(DROP_STORED_SQL);
+                duplicates += statement.executeUpdate(CLAIM_CHECKPOINTS_SQL);
+                try (ResultSet rs = statement.executeQuery("SELECT DISTINCT session_id FROM chat_messages_staging")) {
+                    while (rs.next()) {
+                        sessionIds.add(rs.getString(1));
+                    }
+                }
+                // Archived sessions continue from their archived counter
+                sessionIds.forEach(chatMemory::restoreIfArchived);
+                inserted = statement.executeUpdate(APPLY_STAGING_SQL);
+            }
+
+            // Cached tails of these sessions no longer end at the session counter
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    sessionIds.forEach(historyCache::invalidate);
+                }
+            });
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        return new BulkIngestResult(requests, rejected, inserted, duplicates, sessionIds.size(), elapsedMillis);
+    }
+
+    /**
+     * Checkpoints to ingest, one at a time
+     */
+    @FunctionalInterface
+    private interface RequestSource {
+        /**
+         * @return The next checkpoint, or null after the last one
+         */
+        ChatRequest next() throws IOException;
+    }
+
+    private boolean isValid(ChatRequest request) {
+        if (request.getChat() == null || request.getMessages() == null) {
+            return false;
+        }
+        if (request.getChat().getChatId() == null || request.getChat().getSessionId() == null
+                || request.getChat().getMessageId() == null) {
+            return false;
+        }
+        return request.getMessages().stream().allMatch(m -> m != null && m.getContent() != null);
+    }
+
+    /**
+     * Same role mapping as the single checkpoint path
+     */
+    private String normalizeRole(String role) {
+        if (role == null) {
+            return "USER";
+        }
+        return switch (role.toUpperCase()) {
+            case "ASSISTANT" -> "ASSISTANT";
+            case "SYSTEM" -> "SYSTEM";
+            default -> "USER";
+        };
+    }
+
+    /**
+     * Append a value escaped for COPY text format
+     */
+    private StringBuilder appendField(StringBuilder buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> buffer.append("\\\\");
+                case '\n' -> buffer.append("\\n");
+                case '\r' -> buffer.append("\\r");
+                case '\t' -> buffer.append("\\t");
+                default -> buffer.append(c);
+            }
+        }
+        return buffer;
+    }
+
+    private void writeToCopy(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+}
@@ -1,18 +1,41 @@
 package com.example.chatapp.service;
 
+import com.example.chatapp.entity.ChatMessageEntity;
 import com.example.chatapp.entity.ChatSessionEntity;
+import com.example.chatapp.entity.ChatSessionSummaryEntity;
 import com.example.chatapp.memory.PostgresChatMemory;
+import com.example.chatapp.metrics.ChatMetrics;
+import com.example.chatapp.memory.SessionHistoryCache;
+import com.example.chatapp.memory.SessionWriteCoalescer;
+import com.example.chatapp.memory.WriteAheadJournal;
 import com.example.chatapp.model.ChatCheckpoint;
 import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.model.ChatMessagePage;
+import com.example.chatapp.model.ChatSearchHit;
+import com.example.chatapp.model.ChatSearchPage;
+import com.example.chatapp.model.ChatSummary;
+import com.example.chatapp.repository.ChatMessageView;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service for managing chat checkpoints using Spring AI ChatMemory with PostgreSQL
@@ -24,6 +47,9 @@ import java.util.*;
 public class ChatCheckpointService {
 
     private final PostgresChatMemory chatMemory;
+    private final SessionWriteCoalescer writeCoalescer;
+    private final ObjectMapper objectMapper;
+    private final ChatMetrics metrics;
 
     /**
      * Save a chat checkpoint with messages using Spring AI ChatMemory
@@ -35,19 +61,43 @@ public class ChatCheckpointService {
      */
     public ChatCheckpoint saveCheckpoint(String chatId, String sessionId, String messageId, List<ChatMessage> messages) {
         log.debug("Saving checkpoint for chatId: {}, sessionId: {}, messages: {}", chatId, sessionId, messages.size());
+        long started = System.nanoTime();
+        boolean succeeded = false;
         
         try {
             // Convert ChatMessage to Spring AI Message
             List<Message> aiMessages = new ArrayList<>();
+            long contentBytes = 0;
             for (ChatMessage msg : messages) {
                 Message aiMessage = convertToSpringAiMessage(msg);
                 aiMessages.add(aiMessage);
+                contentBytes += ChatMetrics.utf8Length(msg.getContent());
             }
 
-            // Save to database using ChatMemory
-            chatMemory.add(chatId, sessionId, messageId, aiMessages);
+            // Save to database using ChatMemory, together with concurrent saves to the session,
+            // or to the write-ahead journal it is flushed from
+            boolean written;
+            try {
+                written = chatMemory.isJournaled()
+                        ? chatMemory.addJournaled(chatId, sessionId, messageId, aiMessages)
+                        : writeCoalescer.add(chatId, sessionId, messageId, aiMessages);
+            } catch (DataIntegrityViolationException e) {
+                // A concurrent replay of the same checkpoint committed first
+                if (chatMemory.getCheckpointMessages(sessionId, messageId).isEmpty()) {
+                    throw e;
+                }
+                written = false;
+            }
+
+            if (!written) {
+                ChatCheckpoint stored = loadStoredCheckpoint(sessionId, messageId);
+                succeeded = true;
+                return stored;
+            }
 
-            log.info("Successfully saved checkpoint for sessionId: {} with {} messages", sessionId, messages.size());
+            log.debug("Successfully saved checkpoint for sessionId: {} with {} messages", sessionId, messages.size());
+            metrics.checkpointSaved(messages.size(), contentBytes);
+            succeeded = true;
 
             // Return the checkpoint model
             return new ChatCheckpoint(chatId, sessionId, messageId, messages);
@@ -55,46 +105,239 @@ public class ChatCheckpointService {
         } catch (Exception e) {
             log.error("Error saving checkpoint for sessionId: {}", sessionId, e);
             throw new RuntimeException("Failed to save checkpoint", e);
+        } finally {
+            metrics.save().record(started, succeeded);
         }
     }
 
     /**
-     * Load a chat checkpoint by session ID using Spring AI ChatMemory
+     * Rebuild a checkpoint that was already stored, for replies to replayed requests
+     */
+    private ChatCheckpoint loadStoredCheckpoint(String sessionId, String messageId) {
+        List<ChatMessageView> views = chatMemory.getCheckpointMessages(sessionId, messageId);
+
+        List<ChatMessage> messages = new ArrayList<>(views.size());
+        for (ChatMessageView view : views) {
+            messages.add(new ChatMessage(view.role(), view.content()));
+        }
+
+        log.debug("Checkpoint {} for sessionId: {} was already stored, returning original", messageId, sessionId);
+        String chatId = views.isEmpty() ? null : views.get(0).chatId();
+        ChatCheckpoint checkpoint = new ChatCheckpoint(chatId, sessionId, messageId, messages);
+        checkpoint.setDuplicate(true);
+        return checkpoint;
+    }
+
+    /**
+     * Load a chat checkpoint by session ID
      * @param sessionId The session ID to load
      * @return The checkpoint data or null if not found
      */
     public ChatCheckpoint loadCheckpoint(String sessionId) {
-        log.debug("Loading checkpoint for sessionId: {}", sessionId);
+        return loadCheckpoint(sessionId, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Load the most recent messages of a session
+     * Session chatId and messages come back together as read-only projections in one query
+     * @param sessionId The session ID to load
+     * @param lastN Number of recent messages to return
+     * @return The checkpoint data or null if not found
+     */
+    public ChatCheckpoint loadCheckpoint(String sessionId, int lastN) {
+        log.debug("Loading checkpoint for sessionId: {}, lastN: {}", sessionId, lastN);
+        long started = System.nanoTime();
+        boolean succeeded = false;
         
         try {
-            // Get messages from ChatMemory
-            List<Message> aiMessages = chatMemory.get(sessionId, Integer.MAX_VALUE);
+            List<ChatMessageView> views = chatMemory.loadHistory(sessionId, lastN);
+            succeeded = true;
             
-            if (aiMessages.isEmpty()) {
+            if (views.isEmpty()) {
                 log.debug("No checkpoint found for sessionId: {}", sessionId);
                 return null;
             }
+            metrics.sessionLoaded(views.size());
 
-            // Convert Spring AI Messages to ChatMessage
-            List<ChatMessage> messages = new ArrayList<>();
-            for (Message aiMsg : aiMessages) {
-                ChatMessage msg = convertFromSpringAiMessage(aiMsg);
-                messages.add(msg);
+            // Map projections straight to the response model
+            List<ChatMessage> messages = new ArrayList<>(views.size());
+            for (ChatMessageView view : views) {
+                messages.add(new ChatMessage(view.role(), view.content()));
             }
+            String chatId = views.get(views.size() - 1).chatId();
 
-            // Get session info to retrieve chatId
-            List<ChatSessionEntity> sessions = chatMemory.getSessionsForChat(sessionId);
-            String chatId = sessions.isEmpty() ? sessionId : sessions.get(0).getChatId();
-
-            log.info("Loaded checkpoint for sessionId: {} with {} messages", sessionId, messages.size());
+            log.debug("Loaded checkpoint for sessionId: {} with {} messages", sessionId, messages.size());
             return new ChatCheckpoint(chatId, sessionId, null, messages);
             
         } catch (Exception e) {
             log.error("Error loading checkpoint for sessionId: {}", sessionId, e);
             return null;
+        } finally {
+            metrics.load().record(started, succeeded);
         }
     }
 
+    /**
+     * Load the most recent messages of a session that fit in a token budget
+     * The window comes from the token counts stored with the messages, without loading the history.
+     * @param sessionId The session ID to load
+     * @param maxTokens Token budget for the returned messages
+     * @param lastN Number of recent messages to return at most
+     * @return The checkpoint data, with no messages if the newest one alone exceeds the budget,
+     *         or null if not found
+     */
+    public ChatCheckpoint loadCheckpointWithinTokens(String sessionId, int maxTokens, int lastN) {
+        log.debug("Loading checkpoint for sessionId: {}, maxTokens: {}, lastN: {}", sessionId, maxTokens, lastN);
+        long started = System.nanoTime();
+        boolean succeeded = false;
+
+        try {
+            chatMemory.awaitJournalApplied(sessionId);
+            List<ChatMessageView> views = chatMemory.loadTokenWindow(sessionId, maxTokens);
+            if (views.size() > lastN) {
+                views = views.subList(views.size() - lastN, views.size());
+            }
+            if (views.isEmpty() && !chatMemory.exists(sessionId)) {
+                succeeded = true;
+                log.debug("No checkpoint found for sessionId: {}", sessionId);
+                return null;
+            }
+            succeeded = true;
+            metrics.sessionLoaded(views.size());
+
+            List<ChatMessage> messages = new ArrayList<>(views.size());
+            for (ChatMessageView view : views) {
+                messages.add(new ChatMessage(view.role(), view.content()));
+            }
+            String chatId = views.isEmpty() ? null : views.get(views.size() - 1).chatId();
+
+            log.debug("Loaded checkpoint for sessionId: {} with {} messages within {} tokens",
+                      sessionId, messages.size(), maxTokens);
+            return new ChatCheckpoint(chatId, sessionId, null, messages);
+
+        } catch (Exception e) {
+            log.error("Error loading checkpoint for sessionId: {}", sessionId, e);
+            return null;
+        } finally {
+            metrics.load().record(started, succeeded);
+        }
+    }
+
+    /**
+     * Write a session's history as NDJSON, one ChatMessage per line, while it is read from the database
+     * @param sessionId The session ID
+     * @param out The response stream; it is flushed but not closed
+     */
+    public void streamCheckpoint(String sessionId, OutputStream out) throws IOException {
+        log.debug("Streaming checkpoint for sessionId: {}", sessionId);
+        long started = System.nanoTime();
+        boolean succeeded = false;
+
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        chatMemory.awaitJournalApplied(sessionId);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null); // lines are separated explicitly below
+            AtomicInteger count = new AtomicInteger();
+            try {
+                chatMemory.forEachMessage(sessionId, entity -> {
+                    try {
+                        writer.writeValue(generator, new ChatMessage(entity.getRole(), entity.getContent()));
+                        generator.writeRaw('\n');
+                        count.incrementAndGet();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            log.debug("Streamed {} messages for sessionId: {}", count.get(), sessionId);
+            succeeded = true;
+        } finally {
+            metrics.stream().record(started, succeeded);
+        }
+    }
+
+    /**
+     * Load one page of a session's history using a messageOrder cursor
+     * @param sessionId The session ID
+     * @param afterOrder The cursor from the previous page, 0 for the first page
+     * @param limit The page size
+     * @return The page; nextCursor is null when no more messages follow
+     */
+    public ChatMessagePage loadMessagePage(String sessionId, int afterOrder, int limit) {
+        log.debug("Loading page for sessionId: {}, after: {}, limit: {}", sessionId, afterOrder, limit);
+
+        // Fetch one extra row to learn whether another page follows
+        long started = System.nanoTime();
+        boolean succeeded = false;
+        List<ChatMessageEntity> entities;
+        try {
+            chatMemory.awaitJournalApplied(sessionId);
+            entities = chatMemory.getPage(sessionId, afterOrder, limit + 1);
+            succeeded = true;
+        } finally {
+            metrics.page().record(started, succeeded);
+        }
+        boolean hasMore = entities.size() > limit;
+        if (hasMore) {
+            entities = entities.subList(0, limit);
+        }
+
+        List<ChatMessage> messages = new ArrayList<>(entities.size());
+        for (ChatMessageEntity entity : entities) {
+            messages.add(new ChatMessage(entity.getRole(), entity.getContent()));
+        }
+
+        Integer nextCursor = hasMore ? entities.get(entities.size() - 1).getMessageOrder() : null;
+        return new ChatMessagePage(sessionId, messages, nextCursor);
+    }
+
+    /**
+     * Search the messages of a chat, best match first
+     * @param chatId The chat ID
+     * @param query Search terms: words, "quoted phrases", or, -excluded
+     * @param cursor The nextCursor of the previous page, or null for the first page
+     * @param limit The page size
+     * @return The page; nextCursor is null when no more hits follow
+     * @throws IllegalArgumentException if the cursor is not one this service returned
+     */
+    public ChatSearchPage searchMessages(String chatId, String query, String cursor, int limit) {
+        log.debug("Searching chatId: {} for: {}, after: {}, limit: {}", chatId, query, cursor, limit);
+        // Millisecond precision, as in the cursor
+        PostgresChatMemory.SearchCursor after = cursor != null ? decodeCursor(cursor)
+                : PostgresChatMemory.SearchCursor.first(Instant.now().truncatedTo(ChronoUnit.MILLIS));
+
+        // Fetch one extra hit to learn whether another page follows
+        long started = System.nanoTime();
+        boolean succeeded = false;
+        List<PostgresChatMemory.SearchHit> found;
+        try {
+            chatMemory.awaitJournalApplied();
+            found = chatMemory.search(chatId, query, after, limit + 1);
+            succeeded = true;
+        } catch (Exception e) {
+            log.error("Error searching messages for chatId: {}", chatId, e);
+            throw new RuntimeException("Failed to search messages", e);
+        } finally {
+            metrics.search().record(started, succeeded);
+        }
+        boolean hasMore = found.size() > limit;
+        if (hasMore) {
+            found = found.subList(0, limit);
+        }
+
+        List<ChatSearchHit> hits = new ArrayList<>(found.size());
+        for (PostgresChatMemory.SearchHit hit : found) {
+            hits.add(new ChatSearchHit(hit.sessionId(), hit.message().messageOrder(), hit.message().role(),
+                                       hit.message().content(), hit.rank(), hit.createdAt()));
+        }
+
+        String nextCursor = hasMore ? encodeCursor(found.get(found.size() - 1).cursor(after.asOf())) : null;
+        return new ChatSearchPage(chatId, query, hits, nextCursor);
+    }
+
     /**
      * Get all sessions for a chat ID
      * @param chatId The chat ID
@@ -102,7 +345,16 @@ public class ChatCheckpointService {
      */
     public List<ChatSessionEntity> getSessionsForChat(String chatId) {
         log.debug("Getting sessions for chatId: {}", chatId);
-        return chatMemory.getSessionsForChat(chatId);
+        long started = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            chatMemory.awaitJournalApplied();
+            List<ChatSessionEntity> sessions = chatMemory.getSessionsForChat(chatId);
+            succeeded = true;
+            return sessions;
+        } finally {
+            metrics.sessions().record(started, succeeded);
+        }
     }
 
     /**
@@ -111,11 +363,17 @@ public class ChatCheckpointService {
      * @return true if exists, false otherwise
      */
     public boolean checkpointExists(String sessionId) {
+        long started = System.nanoTime();
+        boolean succeeded = false;
         try {
-            return chatMemory.exists(sessionId);
+            boolean exists = chatMemory.exists(sessionId);
+            succeeded = true;
+            return exists;
         } catch (Exception e) {
             log.error("Error checking checkpoint existence for sessionId: {}", sessionId, e);
             return false;
+        } finally {
+            metrics.exists().record(started, succeeded);
         }
     }
 
@@ -125,13 +383,98 @@ public class ChatCheckpointService {
      */
     public void deleteCheckpoint(String sessionId) {
         log.debug("Deleting checkpoint for sessionId: {}", sessionId);
+        long started = System.nanoTime();
+        boolean succeeded = false;
         try {
+            // Journaled checkpoints first, or they would be written back after the delete
+            chatMemory.awaitJournalApplied(sessionId);
             chatMemory.clear(sessionId);
-            log.info("Successfully deleted checkpoint for sessionId: {}", sessionId);
+            succeeded = true;
+            log.debug("Successfully deleted checkpoint for sessionId: {}", sessionId);
         } catch (Exception e) {
             log.error("Error deleting checkpoint for sessionId: {}", sessionId, e);
             throw new RuntimeException("Failed to delete checkpoint", e);
+        } finally {
+            metrics.delete().record(started, succeeded);
+        }
+    }
+
+    /**
+     * Pin a summary to a session, replacing any earlier one
+     * The summary is kept with the session's snapshot and not returned with its history.
+     * @param sessionId The session ID
+     * @param content The summary text
+     * @param throughOrder Last messageOrder the summary covers, or null
+     * @return The pinned summary, or null if the session does not exist
+     */
+    public ChatSummary saveSummary(String sessionId, String content, Integer throughOrder) {
+        log.debug("Pinning summary to sessionId: {}", sessionId);
+        try {
+            // Journaled checkpoints first, so a session that only exists in the journal can take a summary
+            chatMemory.awaitJournalApplied(sessionId);
+            if (!chatMemory.pinSummary(sessionId, content, throughOrder)) {
+                return null;
+            }
+            return loadSummary(sessionId);
+        } catch (Exception e) {
+            log.error("Error pinning summary to sessionId: {}", sessionId, e);
+            throw new RuntimeException("Failed to save summary", e);
+        }
+    }
+
+    /**
+     * Get the summary pinned to a session
+     * @param sessionId The session ID
+     * @return The summary, or null if none is pinned
+     */
+    public ChatSummary loadSummary(String sessionId) {
+        ChatSessionSummaryEntity summary = chatMemory.getSummary(sessionId);
+        if (summary == null) {
+            return null;
+        }
+        return new ChatSummary(summary.getSessionId(), summary.getContent(), summary.getThroughOrder(),
+                               summary.getUpdatedAt());
+    }
+
+    /**
+     * Cursor layout: asOf in epoch milliseconds, the rank's float bits in hex, the messageOrder and the sessionId,
+     * which may hold anything and so comes last, joined by ':' and Base64url encoded
+     */
+    private static String encodeCursor(PostgresChatMemory.SearchCursor cursor) {
+        String plain = cursor.asOf().toEpochMilli() + ":" + Integer.toHexString(Float.floatToIntBits(cursor.rank()))
+                + ":" + cursor.messageOrder() + ":" + cursor.sessionId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static PostgresChatMemory.SearchCursor decodeCursor(String cursor) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 4);
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid search cursor: " + cursor);
         }
+        return new PostgresChatMemory.SearchCursor(Instant.ofEpochMilli(Long.parseLong(parts[0])),
+                                                   Float.intBitsToFloat(Integer.parseUnsignedInt(parts[1], 16)),
+                                                   parts[3], Integer.parseInt(parts[2]));
+    }
+
+    /**
+     * Get session history cache statistics
+     */
+    public SessionHistoryCache.Stats getCacheStats() {
+        return chatMemory.cacheStats();
+    }
+
+    /**
+     * Get write-ahead journal statistics
+     */
+    public WriteAheadJournal.Stats getJournalStats() {
+        return chatMemory.journalStats();
+    }
+
+    /**
+     * Get statistics of the per-session write coalescing
+     */
+    public SessionWriteCoalescer.Stats getCoalescingStats() {
+        return writeCoalescer.stats();
     }
 
     /**
@@ -140,15 +483,17 @@ public class ChatCheckpointService {
      * @return New UUID session ID
      */
     public String createNewSessionId(String chatId) {
+        long started = System.nanoTime();
         String newSessionId = chatMemory.createNewSession(chatId);
-        log.info("Created new sessionId: {} for chatId: {}", newSessionId, chatId);
+        metrics.reset().record(started, true);
+        log.debug("Created new sessionId: {} for chatId: {}", newSessionId, chatId);
         return newSessionId;
     }
 
     /**
      * Convert ChatMessage to Spring AI Message
      */
-    private Message convertToSpringAiMessage(ChatMessage msg) {
+    public static Message convertToSpringAiMessage(ChatMessage msg) {
         return switch (msg.getRole().toUpperCase()) {
             case "USER" -> new UserMessage(msg.getContent());
             case "ASSISTANT" -> new AssistantMessage(msg.getContent());
@@ -156,17 +501,4 @@ public class ChatCheckpointService {
             default -> new UserMessage(msg.getContent());
         };
     }
-
-    /**
-     * Convert Spring AI Message to ChatMessage
-     */
-    private ChatMessage convertFromSpringAiMessage(Message aiMsg) {
-        String role = switch (aiMsg.getMessageType()) {
-            case USER -> "USER";
-            case ASSISTANT -> "ASSISTANT";
-            case SYSTEM -> "SYSTEM";
-            default -> "USER";
-        };
-        return new ChatMessage(role, aiMsg.getContent());
-    }
 }
\ No newline at end of file
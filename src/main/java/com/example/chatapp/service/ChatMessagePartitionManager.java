@@ -0,0 +1,497 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.ChatMessageEntity;
+import com.example.chatapp.memory.SessionHistoryCache;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps chat_messages range-partitioned by month on created_at
+ * Runs before Hibernate schema update: creates the partitioned table on a fresh database, or turns an
+ * existing plain chat_messages table into the first partition (covering everything up to the end of the
+ * current month). A scheduled job pre-creates future monthly partitions and, when a retention is set,
+ * detaches expired partitions and drops them, so retention never runs DELETEs on chat_messages.
+ */
+@Slf4j
+@Service
+public class ChatMessagePartitionManager {
+
+    // Serializes schema changes between application instances
+    private static final long ADVISORY_LOCK_KEY = 0x63686174L;
+    // Serializes partition retirement, which runs in several transactions, between application instances
+    private static final long RETIRE_LOCK_KEY = ADVISORY_LOCK_KEY + 1;
+
+    private static final String CREATE_PARENT_SQL = """
+            CREATE TABLE chat_messages (
+                id varchar(255) NOT NULL,
+                chat_id varchar(255) NOT NULL,
+                session_id varchar(255) NOT NULL,
+                message_id varchar(255) NOT NULL,
+                role varchar(20) NOT NULL,
+                content text NOT NULL,
+                compressed_content bytea,
+                content_hash varchar(64),
+                created_at timestamp(6) with time zone NOT NULL,
+                message_order integer NOT NULL,
+                position integer,
+                token_count integer,
+                cumulative_tokens bigint,
+                search_vector tsvector,
+                CONSTRAINT pk_chat_messages PRIMARY KEY (id, created_at)
+            ) PARTITION BY RANGE (created_at)
+            """;
+
+    // Created on the parent so every partition gets them
+    private static final String[] CREATE_INDEXES_SQL = {
+        "CREATE INDEX IF NOT EXISTS idx_session_order ON chat_messages (session_id, message_order)",
+        "CREATE INDEX IF NOT EXISTS idx_session_message ON chat_messages (session_id, message_id)",
+        "CREATE INDEX IF NOT EXISTS idx_session_created ON chat_messages (session_id, created_at)",
+        "CREATE INDEX IF NOT EXISTS idx_chat_session ON chat_messages (chat_id, session_id)",
+        "CREATE INDEX IF NOT EXISTS idx_session_tokens ON chat_messages (session_id, cumulative_tokens)",
+        // Newest matches of a chat first, for searches of terms too common to rank every match
+        "CREATE INDEX IF NOT EXISTS idx_chat_created ON chat_messages (chat_id, created_at, id)",
+        // Messages stored before they were indexed for search, for SearchIndexBackfiller; empty once it is done
+        "CREATE INDEX IF NOT EXISTS idx_search_pending ON chat_messages (created_at) WHERE search_vector IS NULL"
+    };
+
+    // The unique keys uk_session_order and uk_session_message_position, which a partitioned table can only have
+    // with created_at added; checked once per statement, probing the indexes for each row it inserted
+    private static final String CREATE_UNIQUE_CHECK_SQL = """
+            CREATE OR REPLACE FUNCTION chat_messages_check_unique() RETURNS trigger LANGUAGE plpgsql AS $$
+            BEGIN
+                IF EXISTS (SELECT 1 FROM inserted i CROSS JOIN LATERAL (
+                        SELECT 1 FROM chat_messages m
+                        WHERE m.session_id = i.session_id AND m.message_order = i.message_order AND m.id <> i.id
+                        LIMIT 1) d) THEN
+                    RAISE EXCEPTION 'duplicate message order in chat_messages'
+                        USING ERRCODE = 'unique_violation', CONSTRAINT = 'uk_session_order';
+                END IF;
+                IF EXISTS (SELECT 1 FROM inserted i CROSS JOIN LATERAL (
+                        SELECT 1 FROM chat_messages m
+                        WHERE m.session_id = i.session_id AND m.message_id = i.message_id
+                          AND m.position = i.position AND m.id <> i.id
+                        LIMIT 1) d) THEN
+                    RAISE EXCEPTION 'duplicate checkpoint position in chat_messages'
+                        USING ERRCODE = 'unique_violation', CONSTRAINT = 'uk_session_message_position';
+                END IF;
+                RETURN NULL;
+            END
+            $$
+            """;
+
+    private static final String CREATE_UNIQUE_TRIGGER_SQL = """
+            CREATE OR REPLACE TRIGGER chat_messages_unique AFTER INSERT ON chat_messages
+            REFERENCING NEW TABLE AS inserted FOR EACH STATEMENT EXECUTE FUNCTION chat_messages_check_unique()
+            """;
+
+    // Indexes uncompressed bodies, inline or shared, for search from the stored text, so inserts send it once.
+    // Compressed bodies cannot be decoded in SQL; they are left to SearchIndexBackfiller.
+    private static final String CREATE_SEARCH_VECTOR_FUNCTION_SQL = """
+            CREATE OR REPLACE FUNCTION chat_messages_index_search() RETURNS trigger LANGUAGE plpgsql AS $$
+            BEGIN
+                IF NEW.search_vector IS NULL THEN
+                    IF NEW.content_hash IS NOT NULL THEN
+                        NEW.search_vector := (SELECT to_tsvector('simple', left(c.content, %1$d)) FROM chat_contents c
+                                              WHERE c.hash = NEW.content_hash AND c.compressed_content IS NULL);
+                    ELSIF NEW.compressed_content IS NULL THEN
+                        NEW.search_vector := to_tsvector('simple', left(NEW.content, %1$d));
+                    END IF;
+                END IF;
+                RETURN NEW;
+            END
+            $$
+            """.formatted(ChatMessageEntity.SEARCH_TEXT_MAX_CHARS);
+
+    private static final String CREATE_SEARCH_VECTOR_TRIGGER_SQL = """
+            CREATE OR REPLACE TRIGGER chat_messages_search_vector BEFORE INSERT ON chat_messages
+            FOR EACH ROW EXECUTE FUNCTION chat_messages_index_search()
+            """;
+
+    // Lets one GIN index match the chatId and the search terms together; needs the btree_gin extension
+    private static final String CREATE_SEARCH_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS idx_chat_search ON chat_messages USING gin (chat_id, search_vector)";
+    private static final String CREATE_PLAIN_SEARCH_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS idx_chat_search ON chat_messages USING gin (search_vector)";
+
+    // Every column of CREATE_PARENT_SQL missing from the original table; Hibernate adds them too, but only after
+    // the indexes, and a plain table must have all of them before it can be attached as a partition
+    private static final String[] ADD_COLUMNS_SQL = {
+        "ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS compressed_content bytea",
+        "ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS content_hash varchar(64)",
+        "ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS position integer",
+        "ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS token_count integer",
+        "ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS cumulative_tokens bigint",
+        "ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS search_vector tsvector"
+    };
+
+    // Hibernate creates it too, but the session upsert needs it as soon as messages can be written
+    private static final String CREATE_CHECKPOINTS_SQL = """
+            CREATE TABLE IF NOT EXISTS chat_checkpoints (
+                session_id varchar(255) NOT NULL,
+                message_id varchar(255) NOT NULL,
+                created_at timestamp(6) with time zone NOT NULL,
+                PRIMARY KEY (session_id, message_id)
+            )
+            """;
+
+    // Sessions none of whose messages are left once the expired partitions are detached
+    private static final String DELETE_EXPIRED_SESSIONS_SQL = """
+            DELETE FROM chat_sessions s
+            WHERE s.updated_at < ?
+              AND NOT EXISTS (SELECT 1 FROM chat_messages m WHERE m.session_id = s.session_id)
+            """;
+
+    // Whole snapshots of sessions that lost messages, so they are rebuilt from the rows left
+    private static final String DELETE_EXPIRED_SNAPSHOTS_SQL = """
+            DELETE FROM chat_session_snapshots WHERE session_id IN (
+                SELECT session_id FROM chat_session_snapshots WHERE oldest_message_at < ?
+            )
+            """;
+
+    private static final String DELETE_ORPHANED_SUMMARIES_SQL = """
+            DELETE FROM chat_session_summaries m
+            WHERE NOT EXISTS (SELECT 1 FROM chat_sessions s WHERE s.session_id = m.session_id)
+            """;
+
+    // Partitions of chat_messages with their bounds; null for MINVALUE / MAXVALUE
+    private static final String LIST_PARTITIONS_SQL = """
+            SELECT c.relname,
+                   (regexp_match(pg_get_expr(c.relpartbound, c.oid), 'FROM \\(''([^'']+)''\\)'))[1]::timestamptz,
+                   (regexp_match(pg_get_expr(c.relpartbound, c.oid), 'TO \\(''([^'']+)''\\)'))[1]::timestamptz
+            FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'chat_messages'::regclass
+            ORDER BY 2 NULLS FIRST
+            """;
+
+    // Release the shared bodies referenced from a detached partition, locking them in hash order
+    private static final String RELEASE_CONTENT_SQL = """
+            WITH refs AS (
+                SELECT content_hash, count(*) AS refs FROM %s
+                WHERE content_hash IS NOT NULL GROUP BY content_hash
+            ), locked AS (
+                SELECT c.hash FROM chat_contents c JOIN refs r ON r.content_hash = c.hash
+                ORDER BY c.hash FOR UPDATE OF c
+            ), released AS (
+                UPDATE chat_contents c SET ref_count = c.ref_count - r.refs
+                FROM refs r JOIN locked l ON l.hash = r.content_hash
+                WHERE c.hash = r.content_hash
+                RETURNING c.hash, c.ref_count
+            )
+            SELECT count(*) FROM released
+            """;
+
+    private final DataSource dataSource;
+    private final SessionHistoryCache historyCache;
+    private final int premakeMonths;
+    private final int retentionMonths;
+    private final boolean dropExpired;
+    // First kept month of the last retirement this node dropped its cached tails for
+    private volatile YearMonth cacheRetiredBefore;
+
+    public ChatMessagePartitionManager(DataSource dataSource,
+                                       SessionHistoryCache historyCache,
+                                       @Value("${chat.storage.partitions.premake-months:3}") int premakeMonths,
+                                       @Value("${chat.storage.partitions.retention-months:0}") int retentionMonths,
+                                       @Value("${chat.storage.partitions.drop-expired:true}") boolean dropExpired) {
+        this.dataSource = dataSource;
+        this.historyCache = historyCache;
+        this.premakeMonths = premakeMonths;
+        this.retentionMonths = retentionMonths;
+        this.dropExpired = dropExpired;
+    }
+
+    /**
+     * Create or convert the partitioned table, its indexes and the partitions ahead
+     */
+    @PostConstruct
+    public void prepareSchema() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT pg_advisory_xact_lock(" + ADVISORY_LOCK_KEY + ")");
+                statement.execute(CREATE_CHECKPOINTS_SQL);
+
+                String kind = tableKind(statement);
+                if (kind == null) {
+                    statement.execute(CREATE_PARENT_SQL);
+                    log.info("Created partitioned table chat_messages");
+                } else {
+                    // A plain table needs them too before it can become a partition
+                    for (String sql : ADD_COLUMNS_SQL) {
+                        statement.execute(sql);
+                    }
+                    if (kind.equals("r")) {
+                        convertPlainTable(statement);
+                    }
+                }
+                for (String sql : CREATE_INDEXES_SQL) {
+                    statement.execute(sql);
+                }
+                statement.execute(CREATE_UNIQUE_CHECK_SQL);
+                statement.execute(CREATE_UNIQUE_TRIGGER_SQL);
+                statement.execute(CREATE_SEARCH_VECTOR_FUNCTION_SQL);
+                statement.execute(CREATE_SEARCH_VECTOR_TRIGGER_SQL);
+                createSearchIndex(connection, statement);
+                createPartitionsAhead(statement);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Daily partition maintenance: create upcoming partitions, retire expired ones
+     */
+    @Scheduled(cron = "${chat.storage.partitions.maintenance-cron:0 15 3 * * *}", zone = "UTC")
+    public void maintain() {
+        try {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SELECT pg_advisory_xact_lock(" + ADVISORY_LOCK_KEY + ")");
+                    createPartitionsAhead(statement);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+            if (retentionMonths > 0) {
+                retireExpired(YearMonth.now(ZoneOffset.UTC).minusMonths(retentionMonths));
+            }
+        } catch (SQLException e) {
+            log.error("chat_messages partition maintenance failed", e);
+        }
+    }
+
+    /**
+     * Detach, and optionally drop, every partition that ends on or before the start of the given month.
+     * Sessions none of whose messages are left go with them, and so do checkpoint claims from before then
+     * and snapshots holding messages from before then.
+     * Nodes retire one at a time, so a node that finds the partitions already retired has waited for the
+     * node that retired them. Either way each node drops its cached tails once per cutoff; a node whose
+     * maintenance job does not run keeps serving retired messages from its cache until they are evicted.
+     */
+    public void retireExpired(YearMonth firstKeptMonth) throws SQLException {
+        boolean retired;
+        // One connection throughout, so background work never takes more than one from the pool
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("SELECT pg_advisory_lock(" + RETIRE_LOCK_KEY + ")");
+            try {
+                retired = retire(connection, statement, startOf(firstKeptMonth));
+            } finally {
+                // A session lock outlives the transaction and would stay with the pooled connection
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                statement.execute("SELECT pg_advisory_unlock(" + RETIRE_LOCK_KEY + ")");
+            }
+        }
+        // Cached tails may still hold retired messages, or belong to deleted sessions
+        if (retired || !firstKeptMonth.equals(cacheRetiredBefore)) {
+            historyCache.invalidateAll();
+            cacheRetiredBefore = firstKeptMonth;
+        }
+    }
+
+    /**
+     * Retire the partitions ending on or before the cutoff
+     * @return Whether there were any
+     */
+    private boolean retire(Connection connection, Statement statement, Instant cutoff) throws SQLException {
+        List<String> expired = new ArrayList<>();
+        for (Partition partition : listPartitions(statement)) {
+            if (partition.to() != null && !partition.to().isAfter(cutoff)) {
+                expired.add(partition.name());
+            }
+        }
+
+        for (String partition : expired) {
+            // Autocommit: CONCURRENTLY only waits for running queries instead of blocking new ones
+            statement.execute("ALTER TABLE chat_messages DETACH PARTITION " + partition + " CONCURRENTLY");
+
+            // Readers can no longer see these rows; hand back their shared body references
+            connection.setAutoCommit(false);
+            long released;
+            try (ResultSet rs = statement.executeQuery(RELEASE_CONTENT_SQL.formatted(partition))) {
+                rs.next();
+                released = rs.getLong(1);
+            }
+            statement.executeUpdate("DELETE FROM chat_contents WHERE ref_count <= 0");
+            if (dropExpired) {
+                statement.execute("DROP TABLE " + partition);
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+            log.info("Retired partition {} ({}), released {} shared bodies",
+                     partition, dropExpired ? "dropped" : "detached", released);
+        }
+
+        if (!expired.isEmpty()) {
+            // A day of slack past the cutoff, as session queries allow, for sessions whose newest message was
+            // retired even though their updated_at is a little later; any message still stored keeps a session
+            try (PreparedStatement sessions = connection.prepareStatement(DELETE_EXPIRED_SESSIONS_SQL);
+                 PreparedStatement checkpoints = connection.prepareStatement(
+                         "DELETE FROM chat_checkpoints WHERE created_at < ?");
+                 PreparedStatement snapshots = connection.prepareStatement(DELETE_EXPIRED_SNAPSHOTS_SQL)) {
+                sessions.setTimestamp(1, Timestamp.from(cutoff.plusSeconds(86400)));
+                checkpoints.setTimestamp(1, Timestamp.from(cutoff));
+                snapshots.setTimestamp(1, Timestamp.from(cutoff));
+                log.info("Deleted {} expired sessions and {} checkpoint claims",
+                         sessions.executeUpdate(), checkpoints.executeUpdate());
+                log.info("Deleted {} snapshot chunks holding retired messages and {} summaries of expired sessions",
+                         snapshots.executeUpdate(), statement.executeUpdate(DELETE_ORPHANED_SUMMARIES_SQL));
+            }
+        }
+        return !expired.isEmpty();
+    }
+
+    /**
+     * Replace a plain chat_messages table by a partitioned one, keeping the old table as its first partition
+     */
+    private void convertPlainTable(Statement statement) throws SQLException {
+        Instant newest;
+        try (ResultSet rs = statement.executeQuery("SELECT max(created_at) FROM chat_messages")) {
+            rs.next();
+            Timestamp max = rs.getTimestamp(1);
+            newest = max != null && max.toInstant().isAfter(Instant.now()) ? max.toInstant() : Instant.now();
+        }
+        Instant cutover = startOf(YearMonth.from(newest.atZone(ZoneOffset.UTC)).plusMonths(1));
+
+        // Keep the old index and constraint names free for the parent
+        statement.execute("ALTER TABLE chat_messages RENAME TO chat_messages_legacy");
+        // The partition gets the parent's (id, created_at) primary key instead
+        String primaryKey;
+        try (ResultSet rs = statement.executeQuery("SELECT conname FROM pg_constraint "
+                + "WHERE conrelid = 'chat_messages_legacy'::regclass AND contype = 'p'")) {
+            primaryKey = rs.next() ? rs.getString(1) : null;
+        }
+        if (primaryKey != null) {
+            statement.execute("ALTER TABLE chat_messages_legacy DROP CONSTRAINT " + primaryKey);
+        }
+        List<String> indexes = new ArrayList<>();
+        try (ResultSet rs = statement.executeQuery(
+                "SELECT indexname FROM pg_indexes WHERE schemaname = current_schema() AND tablename = 'chat_messages_legacy'")) {
+            while (rs.next()) {
+                indexes.add(rs.getString(1));
+            }
+        }
+        for (String index : indexes) {
+            String renamed = ("legacy_" + index).substring(0, Math.min(63, index.length() + 7));
+            statement.execute("ALTER INDEX " + index + " RENAME TO " + renamed);
+        }
+
+        statement.execute(CREATE_PARENT_SQL);
+        // Validates the bound with one scan of the old table, and builds the parent's indexes on it
+        statement.execute("ALTER TABLE chat_messages ATTACH PARTITION chat_messages_legacy "
+                + "FOR VALUES FROM (MINVALUE) TO ('" + cutover + "')");
+        log.info("Converted chat_messages to a partitioned table; existing rows form partition chat_messages_legacy up to {}",
+                 cutover);
+    }
+
+    /**
+     * Create the full-text search index, scoped by chatId if the btree_gin extension can be installed.
+     * Otherwise the index covers the search terms only and PostgreSQL filters its matches by chatId.
+     */
+    private void createSearchIndex(Connection connection, Statement statement) throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        try {
+            statement.execute("CREATE EXTENSION IF NOT EXISTS btree_gin");
+            statement.execute(CREATE_SEARCH_INDEX_SQL);
+        } catch (SQLException e) {
+            connection.rollback(savepoint);
+            log.warn("Could not install btree_gin ({}); message search is not indexed by chatId", e.getMessage());
+            statement.execute(CREATE_PLAIN_SEARCH_INDEX_SQL);
+        }
+    }
+
+    /**
+     * Create monthly partitions from the current month to premakeMonths ahead, skipping ranges already covered
+     */
+    private void createPartitionsAhead(Statement statement) throws SQLException {
+        List<Partition> partitions = listPartitions(statement);
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        for (int i = 0; i <= premakeMonths; i++) {
+            YearMonth month = current.plusMonths(i);
+            Instant from = startOf(month);
+            Instant to = startOf(month.plusMonths(1));
+            if (partitions.stream().anyMatch(p -> p.overlaps(from, to))) {
+                continue;
+            }
+            String name = "chat_messages_p%04d%02d".formatted(month.getYear(), month.getMonthValue());
+            statement.execute("CREATE TABLE " + name + " PARTITION OF chat_messages FOR VALUES FROM ('"
+                    + from + "') TO ('" + to + "')");
+            partitions.add(new Partition(name, from, to));
+            log.info("Created partition {} for {}", name, month);
+        }
+    }
+
+    private List<Partition> listPartitions(Statement statement) throws SQLException {
+        List<Partition> partitions = new ArrayList<>();
+        try (ResultSet rs = statement.executeQuery(LIST_PARTITIONS_SQL)) {
+            while (rs.next()) {
+                Timestamp from = rs.getTimestamp(2);
+                Timestamp to = rs.getTimestamp(3);
+                partitions.add(new Partition(rs.getString(1),
+                        from != null ? from.toInstant() : null, to != null ? to.toInstant() : null));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * relkind of chat_messages: "r" plain table, "p" partitioned, null if missing
+     */
+    private String tableKind(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(
+                "SELECT c.relkind FROM pg_class c WHERE c.oid = to_regclass('chat_messages')")) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private static Instant startOf(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    /**
+     * A partition and its range; null bounds are unbounded
+     */
+    private record Partition(String name, Instant from, Instant to) {
+        boolean overlaps(Instant start, Instant end) {
+            return (from == null || from.isBefore(end)) && (to == null || to.isAfter(start));
+        }
+    }
+
+    /**
+     * Makes the EntityManagerFactory, and with it Hibernate's schema update, wait for prepareSchema
+     */
+    @Component
+    static class SchemaFirst extends EntityManagerFactoryDependsOnPostProcessor {
+        SchemaFirst() {
+            super(ChatMessagePartitionManager.class);
+        }
+    }
+}
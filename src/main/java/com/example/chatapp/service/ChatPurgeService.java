@@ -0,0 +1,109 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.entity.ChatSessionEntity;
+import com.example.chatapp.memory.PostgresChatMemory;
+import com.example.chatapp.model.ChatPurge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Deletes every session of a chat, e.g. to erase a user's data
+ * Each session is taken apart in chunks of its oldest messages, one short transaction per chunk, and then
+ * cleared. Small chats are purged within the request; larger ones on a background thread, with progress
+ * kept in memory for polling. Background purges run one after another, so between them they use one of the
+ * connections kept for background work (chat.db-gate.background-connections).
+ */
+@Slf4j
+@Service
+public class ChatPurgeService {
+
+    private final PostgresChatMemory chatMemory;
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final long syncMaxMessages;
+    private final Map<String, ChatPurge> purges;
+
+    public ChatPurgeService(PostgresChatMemory chatMemory,
+                            @Value("${chat.purge.chunk-size:1000}") int chunkSize,
+                            @Value("${chat.purge.sync-max-messages:10000}") long syncMaxMessages,
+                            @Value("${chat.purge.retained-purges:1000}") int retainedPurges) {
+        this.chatMemory = chatMemory;
+        this.executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "chat-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.chunkSize = chunkSize;
+        this.syncMaxMessages = syncMaxMessages;
+        this.purges = Collections.synchronizedMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ChatPurge> eldest) {
+                return size() > retainedPurges;
+            }
+        });
+    }
+
+    /**
+     * Delete all sessions of a chat
+     * @return The purge; RUNNING if it continues in the background
+     */
+    public ChatPurge purgeChat(String chatId) {
+        // Sessions and checkpoints still in the write-ahead journal have to be in the database to be found
+        chatMemory.awaitJournalApplied();
+        List<ChatSessionEntity> sessions = chatMemory.getSessionsForChat(chatId);
+        long messages = sessions.stream().mapToLong(ChatSessionEntity::getMessageCount).sum();
+
+        ChatPurge purge = new ChatPurge(UUID.randomUUID().toString(), chatId, sessions.size());
+        purges.put(purge.getPurgeId(), purge);
+        if (messages <= syncMaxMessages) {
+            run(purge, sessions);
+        } else {
+            log.info("Purging chatId: {} in the background: {} sessions, {} messages", chatId, sessions.size(), messages);
+            executor.execute(() -> run(purge, sessions));
+        }
+        return purge;
+    }
+
+    /**
+     * Look up a purge started on this node
+     * @return null if unknown or no longer retained
+     */
+    public ChatPurge getPurge(String purgeId) {
+        return purges.get(purgeId);
+    }
+
+    private void run(ChatPurge purge, List<ChatSessionEntity> sessions) {
+        try {
+            for (ChatSessionEntity session : sessions) {
+                String sessionId = session.getSessionId();
+                long deleted;
+                do {
+                    deleted = chatMemory.deleteOldestMessages(sessionId, chunkSize);
+                    purge.setMessagesDeleted(purge.getMessagesDeleted() + deleted);
+                } while (deleted == chunkSize);
+                // Deletes the session row, messages written meanwhile and the archived copy
+                chatMemory.clear(sessionId);
+                purge.setSessionsDeleted(purge.getSessionsDeleted() + 1);
+            }
+            purge.setStatus(ChatPurge.Status.COMPLETED);
+            log.info("Purged chatId: {}: {} sessions, {} messages", purge.getChatId(),
+                     purge.getSessionsDeleted(), purge.getMessagesDeleted());
+        } catch (Exception e) {
+            log.error("Error purging chatId: {}", purge.getChatId(), e);
+            purge.setError(e.getMessage());
+            purge.setStatus(ChatPurge.Status.FAILED);
+        } finally {
+            purge.setFinishedAt(Instant.now());
+        }
+    }
+}
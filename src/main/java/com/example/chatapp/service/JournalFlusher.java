@@ -0,0 +1,275 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.memory.PostgresChatMemory;
+import com.example.chatapp.memory.WriteAheadJournal;
+import com.example.chatapp.model.ChatInfo;
+import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.model.ChatRequest;
+import com.example.chatapp.repository.ChatJournalStateRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies checkpoints from the WriteAheadJournal to the database
+ * A dedicated thread takes up to batch-size durable checkpoints at a time and writes them through the
+ * set-based BulkIngestService path in one transaction, which also advances the journal's applied sequence
+ * in chat_journal_state, so a batch is applied exactly once even if the node crashes around the commit.
+ * Replays of stored checkpoints are skipped as usual.
+ * While the database is unavailable the flusher backs off and retries. Any other failure of a batch
+ * is retried one checkpoint per transaction with PostgresChatMemory.add, and a checkpoint that keeps
+ * failing is moved to failed.ndjson in the journal directory so it cannot hold up the ones behind it.
+ */
+@Slf4j
+@Service
+public class JournalFlusher {
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(200);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+    private static final SQLExceptionTranslator SQL_EXCEPTIONS = new SQLStateSQLExceptionTranslator();
+
+    private final WriteAheadJournal journal;
+    private final PostgresChatMemory chatMemory;
+    private final BulkIngestService bulkIngestService;
+    private final ChatJournalStateRepository stateRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration shutdownTimeout;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public JournalFlusher(WriteAheadJournal journal,
+                          PostgresChatMemory chatMemory,
+                          BulkIngestService bulkIngestService,
+                          ChatJournalStateRepository stateRepository,
+                          TransactionTemplate transactionTemplate,
+                          @Value("${chat.journal.batch-size:500}") int batchSize,
+                          @Value("${chat.journal.flush-interval:20ms}") Duration flushInterval,
+                          @Value("${chat.journal.flush-timeout:30s}") Duration shutdownTimeout) {
+        this.journal = journal;
+        this.chatMemory = chatMemory;
+        this.bulkIngestService = bulkIngestService;
+        this.stateRepository = stateRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!journal.isEnabled()) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "journal-flusher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Apply what is journaled before the database goes away; whatever is left is replayed on the next start
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.join(shutdownTimeout.toMillis());
+        if (thread.isAlive()) {
+            log.warn("Journal not fully applied at shutdown: {}", journal.stats());
+        }
+    }
+
+    private void run() {
+        int failures = 0;
+        while (true) {
+            try {
+                List<WriteAheadJournal.Pending> batch = journal.awaitPending(batchSize, POLL_TIMEOUT);
+                if (batch.isEmpty()) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+                boolean applied;
+                try {
+                    applied = apply(batch);
+                } catch (RuntimeException e) {
+                    log.error("Journal flusher failed", e);
+                    applied = false;
+                }
+                if (applied) {
+                    failures = 0;
+                    // Let a small batch grow into a larger one
+                    if (batch.size() < batchSize && running) {
+                        Thread.sleep(flushInterval.toMillis());
+                    }
+                } else {
+                    if (!running) {
+                        return;
+                    }
+                    Thread.sleep(backoff(++failures).toMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Apply a batch, falling back to one checkpoint per transaction if it fails
+     * @return false if the database is unavailable; the rest of the batch is then retried later
+     */
+    private boolean apply(List<WriteAheadJournal.Pending> batch) throws InterruptedException {
+        try {
+            applyInTransaction(batch, () -> bulkIngestService.ingest(toRequests(batch)));
+            log.debug("Applied {} journaled checkpoints up to sequence {}", batch.size(),
+                      batch.get(batch.size() - 1).sequence());
+            return true;
+        } catch (RuntimeException e) {
+            if (isUnavailable(e)) {
+                log.warn("Database unavailable, retrying {} journaled checkpoints later: {}", batch.size(), e.getMessage());
+                return false;
+            }
+            log.warn("Failed to apply {} journaled checkpoints, retrying one by one", batch.size(), e);
+        }
+
+        for (WriteAheadJournal.Pending entry : batch) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    WriteAheadJournal.Checkpoint checkpoint = entry.checkpoint();
+                    applyInTransaction(List.of(entry), () -> chatMemory.add(checkpoint.chatId(), checkpoint.sessionId(),
+                                                                            checkpoint.messageId(), toMessages(checkpoint)));
+                    break;
+                } catch (RuntimeException e) {
+                    if (isUnavailable(e)) {
+                        return false;
+                    }
+                    if (attempt >= MAX_ATTEMPTS) {
+                        skip(entry, e);
+                        break;
+                    }
+                    log.warn("Failed to apply journaled checkpoint {} (attempt {} of {})",
+                             entry.sequence(), attempt, MAX_ATTEMPTS, e);
+                    Thread.sleep(backoff(attempt).toMillis());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move a checkpoint that cannot be applied to failed.ndjson and mark it applied
+     */
+    private void skip(WriteAheadJournal.Pending entry, RuntimeException cause) {
+        try {
+            journal.writeFailed(entry);
+        } catch (IOException e) {
+            // Still in its segment, which is kept until everything in it is applied
+            throw new IllegalStateException("Failed to set aside journaled checkpoint " + entry.sequence(), e);
+        }
+        log.error("Gave up applying journaled checkpoint {} of session {}, moved to failed.ndjson",
+                  entry.sequence(), entry.checkpoint().sessionId(), cause);
+        applyInTransaction(List.of(entry), () -> { });
+    }
+
+    /**
+     * Write checkpoints and advance the applied sequence past them in one transaction
+     * Readers of the batch's sessions wait from just before the commit until the checkpoints have left the
+     * journal's pending set, so they never see them in both places or in neither.
+     * @param write Writes the batch's checkpoints
+     */
+    private void applyInTransaction(List<WriteAheadJournal.Pending> batch, Write write) {
+        transactionTemplate.executeWithoutResult(status -> {
+            try {
+                write.run();
+            } catch (SQLException e) {
+                DataAccessException translated = SQL_EXCEPTIONS.translate("Apply journaled checkpoints", null, e);
+                throw translated != null ? translated : new UncategorizedSQLException("Apply journaled checkpoints", null, e);
+            }
+            stateRepository.advance(journal.journalId(), batch.get(batch.size() - 1).sequence());
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                private boolean committing;
+
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    committing = true;
+                    journal.beginApply(batch);
+                }
+
+                @Override
+                public void afterCompletion(int completionStatus) {
+                    if (committing) {
+                        journal.endApply(batch, completionStatus == STATUS_COMMITTED);
+                    }
+                }
+            });
+        });
+    }
+
+    private static List<ChatRequest> toRequests(List<WriteAheadJournal.Pending> batch) {
+        List<ChatRequest> requests = new ArrayList<>(batch.size());
+        for (WriteAheadJournal.Pending entry : batch) {
+            WriteAheadJournal.Checkpoint checkpoint = entry.checkpoint();
+            List<ChatMessage> messages = new ArrayList<>(checkpoint.messages().size());
+            for (WriteAheadJournal.JournaledMessage message : checkpoint.messages()) {
+                messages.add(new ChatMessage(message.role(), message.content()));
+            }
+            requests.add(new ChatRequest(new ChatInfo(checkpoint.chatId(), checkpoint.sessionId(), checkpoint.messageId()),
+                                         messages));
+        }
+        return requests;
+    }
+
+    private static List<Message> toMessages(WriteAheadJournal.Checkpoint checkpoint) {
+        List<Message> messages = new ArrayList<>(checkpoint.messages().size());
+        for (WriteAheadJournal.JournaledMessage message : checkpoint.messages()) {
+            messages.add(PostgresChatMemory.convertToMessage(message.role(), message.content()));
+        }
+        return messages;
+    }
+
+    /**
+     * Whether the failure is the database's rather than the checkpoint's
+     */
+    private static boolean isUnavailable(RuntimeException e) {
+        return e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException || e instanceof TransactionException;
+    }
+
+    @FunctionalInterface
+    private interface Write {
+        void run() throws SQLException;
+    }
+
+    private static Duration backoff(int failures) {
+        Duration backoff = Duration.ofMillis(100L << Math.min(failures, 10));
+        return backoff.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : backoff;
+    }
+}
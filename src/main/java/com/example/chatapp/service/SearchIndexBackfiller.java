@@ -0,0 +1,54 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.memory.PostgresChatMemory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Indexes messages stored before message bodies were indexed for search on insert, and compressed bodies,
+ * which the insert trigger cannot decode
+ * Compressed bodies, inline or shared, can only be decoded here, not in SQL, so each batch is read, decoded and
+ * written back in one transaction. Batches are found through the partial idx_search_pending index,
+ * which is empty once every message is indexed, so finished runs cost one index probe.
+ */
+@Slf4j
+@Service
+public class SearchIndexBackfiller {
+
+    private final PostgresChatMemory chatMemory;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public SearchIndexBackfiller(PostgresChatMemory chatMemory,
+                                 @Value("${chat.search.backfill.enabled:true}") boolean enabled,
+                                 @Value("${chat.search.backfill.batch-size:1000}") int batchSize) {
+        this.chatMemory = chatMemory;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Index every message still missing from the search index, in batches
+     */
+    @Scheduled(cron = "${chat.search.backfill.cron:0 * * * * *}", zone = "UTC")
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+        long indexed = 0;
+        try {
+            int batch;
+            do {
+                batch = chatMemory.indexForSearch(batchSize);
+                indexed += batch;
+            } while (batch == batchSize);
+        } catch (Exception e) {
+            log.error("Failed to index messages for search", e);
+        }
+        if (indexed > 0) {
+            log.info("Indexed {} older messages for search", indexed);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.memory.PostgresChatMemory;
+import com.example.chatapp.memory.SessionArchive;
+import com.example.chatapp.repository.ChatSessionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Moves sessions that have been idle for a while out of PostgreSQL into the SessionArchive
+ * Each session is snapshotted, written to the archive, then deleted from the database only if it was
+ * not written to in the meantime. A session written to afterwards is restored by PostgresChatMemory.
+ */
+@Slf4j
+@Service
+public class SessionArchiver {
+
+    private final PostgresChatMemory chatMemory;
+    private final ChatSessionRepository sessionRepository;
+    private final SessionArchive archive;
+    private final boolean enabled;
+    private final Duration idleAfter;
+    private final int batchSize;
+
+    public SessionArchiver(PostgresChatMemory chatMemory,
+                           ChatSessionRepository sessionRepository,
+                           SessionArchive archive,
+                           @Value("${chat.archive.enabled:false}") boolean enabled,
+                           @Value("${chat.archive.idle-after:30d}") Duration idleAfter,
+                           @Value("${chat.archive.batch-size:100}") int batchSize) {
+        this.chatMemory = chatMemory;
+        this.sessionRepository = sessionRepository;
+        this.archive = archive;
+        this.enabled = enabled;
+        this.idleAfter = idleAfter;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Archive every session idle for longer than idle-after, in batches
+     */
+    @Scheduled(cron = "${chat.archive.cron:0 */10 * * * *}", zone = "UTC")
+    public void archiveColdSessions() {
+        if (!enabled) {
+            return;
+        }
+        Instant cutoff = Instant.now().minus(idleAfter);
+        int archived = 0;
+        int skipped = 0;
+        try {
+            List<String> sessionIds;
+            do {
+                sessionIds = sessionRepository.findColdSessionIds(cutoff, Limit.of(batchSize));
+                for (String sessionId : sessionIds) {
+                    if (archiveSession(sessionId)) {
+                        archived++;
+                    } else {
+                        skipped++;
+                    }
+                }
+                // Skipped sessions were written to or deleted, so they no longer match the cutoff
+            } while (sessionIds.size() == batchSize);
+        } catch (Exception e) {
+            log.error("Failed to archive cold sessions", e);
+        }
+        if (archived + skipped > 0) {
+            log.info("Archived {} sessions idle since before {} ({} changed while archiving)", archived, cutoff, skipped);
+        }
+    }
+
+    private boolean archiveSession(String sessionId) throws Exception {
+        SessionArchive.ArchivedSession snapshot = chatMemory.snapshot(sessionId);
+        if (snapshot == null) {
+            return false;
+        }
+        // Durable in the archive before the rows go
+        archive.write(snapshot);
+        if (!chatMemory.deleteArchived(sessionId, snapshot.updatedAt())) {
+            archive.remove(sessionId);
+            return false;
+        }
+        return true;
+    }
+}
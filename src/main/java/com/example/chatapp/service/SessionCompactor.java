@@ -0,0 +1,71 @@
+package com.example.chatapp.service;
+
+import com.example.chatapp.memory.SessionSnapshotStore;
+import com.example.chatapp.repository.ChatSessionSnapshotRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Keeps the snapshots of long sessions close to their end
+ * Every session with at least min-messages uncompacted messages before its keep-tail most recent ones
+ * gets its snapshot extended, one chunk of at most chunk-size messages per transaction. Each chunk only
+ * reads the rows after the previous one, so the work per run is proportional to what was written since.
+ * A crash loses at most the chunk being written; the next run starts over from the last committed one.
+ */
+@Slf4j
+@Service
+public class SessionCompactor {
+
+    private final SessionSnapshotStore snapshots;
+    private final ChatSessionSnapshotRepository snapshotRepository;
+    private final int minMessages;
+    private final int chunkSize;
+    private final int batchSize;
+
+    public SessionCompactor(SessionSnapshotStore snapshots,
+                            ChatSessionSnapshotRepository snapshotRepository,
+                            @Value("${chat.compaction.min-messages:500}") int minMessages,
+                            @Value("${chat.compaction.chunk-size:5000}") int chunkSize,
+                            @Value("${chat.compaction.batch-size:100}") int batchSize) {
+        this.snapshots = snapshots;
+        this.snapshotRepository = snapshotRepository;
+        this.minMessages = minMessages;
+        this.chunkSize = chunkSize;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Extend the snapshot of every session that has fallen far enough behind, in batches
+     */
+    @Scheduled(cron = "${chat.compaction.cron:0 */5 * * * *}", zone = "UTC")
+    public void compactLongSessions() {
+        if (!snapshots.isEnabled()) {
+            return;
+        }
+        int chunks = 0;
+        long messages = 0;
+        try {
+            List<String> sessionIds;
+            do {
+                sessionIds = snapshotRepository.findCompactionCandidates(minMessages, snapshots.keepTail(), batchSize);
+                for (String sessionId : sessionIds) {
+                    int compacted = snapshots.compact(sessionId, chunkSize);
+                    if (compacted > 0) {
+                        chunks++;
+                        messages += compacted;
+                    }
+                }
+                // Each compaction moves its session's snapshot forward, so candidates run out
+            } while (sessionIds.size() == batchSize);
+        } catch (Exception e) {
+            log.error("Failed to compact long sessions", e);
+        }
+        if (chunks > 0) {
+            log.info("Compacted {} messages into {} snapshot chunks", messages, chunks);
+        }
+    }
+}
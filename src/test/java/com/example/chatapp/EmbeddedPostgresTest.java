@@ -0,0 +1,41 @@
+package com.example.chatapp;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Base of tests that go through the real persistence stack
+ * One embedded PostgreSQL, of the same major version as docker-compose.yml, is started per JVM and shared by
+ * every test context, so tests keep to their own chat and session ids.
+ */
+public abstract class EmbeddedPostgresTest {
+
+    private static final EmbeddedPostgres POSTGRES = start();
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", EmbeddedPostgresTest::jdbcUrl);
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    /**
+     * URL of the embedded database, for tests that start an application context of their own; user postgres,
+     * no password
+     */
+    protected static String jdbcUrl() {
+        return POSTGRES.getJdbcUrl("postgres", "postgres");
+    }
+
+    private static EmbeddedPostgres start() {
+        try {
+            return EmbeddedPostgres.builder().start();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start embedded PostgreSQL", e);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.chatapp.memory;
+
+import com.example.chatapp.ChatApplication;
+import com.example.chatapp.EmbeddedPostgresTest;
+import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.service.ChatCheckpointService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Kills a process saving checkpoints through the write-ahead journal with SIGKILL while its flusher is stuck in
+ * the middle of applying a batch, tears the record after the last one it wrote as a write cut short would, and
+ * restarts on the same journal: every acknowledged checkpoint is applied exactly once, in order, the torn record
+ * is dropped, and the journal takes writes and detects replays again.
+ */
+class JournalCrashRecoveryTest extends EmbeddedPostgresTest {
+
+    private static final int ACKNOWLEDGED_BEFORE_KILL = 300;
+    private static final int MESSAGES_PER_CHECKPOINT = 2;
+
+    @TempDir
+    Path journalDirectory;
+
+    @Test
+    void acknowledgedCheckpointsSurviveKillAndTornTail() throws Exception {
+        String sessionPrefix = "crash-" + UUID.randomUUID() + "-";
+        Set<String> acknowledged = runWriterAndKill(sessionPrefix);
+        String tornSession = sessionPrefix + 0;
+        tearTail(("{\"chatId\":\"crash-chat\",\"sessionId\":\"" + tornSession + "\",\"messageId\":\"torn\","
+                + "\"messages\":[{\"role\":\"USER\",\"content\":\"torn/0\"}]}").getBytes(StandardCharsets.UTF_8));
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(jdbcUrl(), "postgres", ""));
+        // The journal holds acknowledged checkpoints the database does not have
+        assertThat(storedCheckpoints(jdbcTemplate, sessionPrefix).containsAll(acknowledged)).isFalse();
+
+        try (ConfigurableApplicationContext context = start(jdbcUrl(), journalDirectory)) {
+            PostgresChatMemory chatMemory = context.getBean(PostgresChatMemory.class);
+            ChatCheckpointService checkpointService = context.getBean(ChatCheckpointService.class);
+            chatMemory.awaitJournalApplied();
+
+            Set<String> stored = storedCheckpoints(jdbcTemplate, sessionPrefix);
+            assertThat(stored).containsAll(acknowledged).doesNotContain(tornSession + " torn");
+            assertOrdered(jdbcTemplate, sessionPrefix);
+
+            // The journal takes new checkpoints, once each even if saved concurrently, and no replays
+            long lastSequence = chatMemory.journalStats().lastSequence();
+            String[] replayed = acknowledged.iterator().next().split(" ");
+            checkpointService.saveCheckpoint("crash-chat", replayed[0], replayed[1], messages(replayed[1]));
+            runConcurrently(8, () -> checkpointService.saveCheckpoint("crash-chat", tornSession, "after-restart",
+                                                                       messages("after-restart")));
+            assertThat(chatMemory.journalStats().lastSequence()).isEqualTo(lastSequence + 1);
+            chatMemory.awaitJournalApplied();
+
+            Set<String> expected = new HashSet<>(stored);
+            expected.add(tornSession + " after-restart");
+            assertThat(storedCheckpoints(jdbcTemplate, sessionPrefix)).isEqualTo(expected);
+            assertOrdered(jdbcTemplate, sessionPrefix);
+        }
+    }
+
+    /**
+     * Start the application against the database, with the journal in the directory and a random server port
+     */
+    static ConfigurableApplicationContext start(String jdbcUrl, Path journalDirectory, String... extraArgs) {
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.datasource.url=" + jdbcUrl,
+                "--spring.datasource.username=postgres",
+                "--spring.datasource.password=",
+                "--server.port=0",
+                "--chat.journal.enabled=true",
+                "--chat.journal.directory=" + journalDirectory,
+                "--chat.journal.segment-bytes=1048576",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN",
+                "--logging.level.com.example.chatapp=WARN"));
+        args.addAll(List.of(extraArgs));
+        return SpringApplication.run(ChatApplication.class, args.toArray(String[]::new));
+    }
+
+    static List<ChatMessage> messages(String messageId) {
+        List<ChatMessage> messages = new ArrayList<>(MESSAGES_PER_CHECKPOINT);
+        for (int position = 0; position < MESSAGES_PER_CHECKPOINT; position++) {
+            messages.add(new ChatMessage(position % 2 == 0 ? "USER" : "ASSISTANT", messageId + "/" + position));
+        }
+        return messages;
+    }
+
+    /**
+     * Run JournalCrashWriter in a JVM of its own and kill it once enough checkpoints are acknowledged
+     * @return "sessionId messageId" of every acknowledged checkpoint
+     */
+    private Set<String> runWriterAndKill(String sessionPrefix) throws Exception {
+        Path java = Path.of(System.getProperty("java.home"), "bin", "java");
+        Process process = new ProcessBuilder(java.toString(), "-cp", System.getProperty("java.class.path"),
+                                             JournalCrashWriter.class.getName(), jdbcUrl(),
+                                             journalDirectory.toString(), sessionPrefix)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        Set<String> acknowledged = new HashSet<>();
+        try (BufferedReader output = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+             Connection lock = DriverManager.getConnection(jdbcUrl(), "postgres", "")) {
+            String line;
+            while (acknowledged.size() < ACKNOWLEDGED_BEFORE_KILL && (line = output.readLine()) != null) {
+                if (line.startsWith("ACK ") && acknowledged.add(line.substring("ACK ".length()))
+                        && acknowledged.size() == ACKNOWLEDGED_BEFORE_KILL / 3) {
+                    // From here on the flusher blocks in its batch transaction, before the commit
+                    lock.setAutoCommit(false);
+                    try (Statement statement = lock.createStatement()) {
+                        statement.execute("LOCK TABLE chat_journal_state IN EXCLUSIVE MODE");
+                    }
+                }
+            }
+            // SIGKILL: no shutdown hooks; the blocked batch is rolled back once the lock is released
+            process.destroyForcibly();
+            assertThat(process.waitFor(30, TimeUnit.SECONDS)).isTrue();
+            lock.rollback();
+        } finally {
+            process.destroyForcibly();
+        }
+        assertThat(acknowledged).hasSize(ACKNOWLEDGED_BEFORE_KILL);
+        return acknowledged;
+    }
+
+    /**
+     * Append the first half of a record for the next sequence to the last segment, as if the process had died
+     * while writing it
+     */
+    private void tearTail(byte[] payload) throws IOException {
+        Path segment;
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            segment = files.filter(path -> path.getFileName().toString().endsWith(".wal")).sorted()
+                    .reduce((first, second) -> second).orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            long offset = 0;
+            long sequence = 0;
+            while (true) {
+                header.clear();
+                header.putInt(0, 0);
+                channel.read(header, offset);
+                int length = header.getInt(0);
+                if (length == 0) {
+                    break;
+                }
+                sequence = header.getLong(8);
+                offset += 16 + length;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            ByteBuffer torn = ByteBuffer.allocate(16 + payload.length / 2);
+            torn.putInt(payload.length).putInt((int) crc.getValue()).putLong(sequence + 1)
+                    .put(payload, 0, payload.length / 2)
+                    .flip();
+            channel.write(torn, offset);
+        }
+    }
+
+    /**
+     * "sessionId messageId" of the checkpoints stored in the sessions
+     */
+    private static Set<String> storedCheckpoints(JdbcTemplate jdbcTemplate, String sessionPrefix) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT DISTINCT session_id || ' ' || message_id FROM chat_messages WHERE session_id LIKE ?",
+                String.class, sessionPrefix + "%"));
+    }
+
+    /**
+     * Each session's orders run from 1 without gaps, with the messages of each checkpoint together
+     */
+    private static void assertOrdered(JdbcTemplate jdbcTemplate, String sessionPrefix) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT session_id, message_order, message_id, position, content FROM chat_messages "
+                        + "WHERE session_id LIKE ? ORDER BY session_id, message_order", sessionPrefix + "%");
+        String sessionId = null;
+        int order = 0;
+        for (Map<String, Object> row : rows) {
+            if (!row.get("session_id").equals(sessionId)) {
+                sessionId = (String) row.get("session_id");
+                order = 0;
+            }
+            int position = order % MESSAGES_PER_CHECKPOINT;
+            order++;
+            assertThat(row.get("message_order")).isEqualTo(order);
+            assertThat(row.get("position")).isEqualTo(position);
+            assertThat(row.get("content")).isEqualTo(row.get("message_id") + "/" + position);
+        }
+        Integer counted = jdbcTemplate.queryForObject(
+                "SELECT coalesce(sum(message_count), 0) FROM chat_sessions WHERE session_id LIKE ?", Integer.class,
+                sessionPrefix + "%");
+        assertThat(counted).isEqualTo(rows.size());
+    }
+
+    private static void runConcurrently(int threads, Callable<?> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
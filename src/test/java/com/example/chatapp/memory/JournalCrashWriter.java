@@ -0,0 +1,46 @@
+package com.example.chatapp.memory;
+
+import com.example.chatapp.service.ChatCheckpointService;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+
+/**
+ * Process killed by JournalCrashRecoveryTest: saves checkpoints through the write-ahead journal from several
+ * threads and prints "ACK sessionId messageId" once each save has returned, until it is killed
+ * Arguments: the JDBC URL, the journal directory and a prefix for the session ids.
+ */
+public final class JournalCrashWriter {
+
+    static final int THREADS = 8;
+    static final int SESSIONS = 2;
+
+    private JournalCrashWriter() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // The flusher applies one checkpoint at a time, so most acknowledged ones are only in the journal when killed
+        ConfigurableApplicationContext context = JournalCrashRecoveryTest.start(
+                args[0], Path.of(args[1]), "--chat.journal.batch-size=1", "--chat.journal.flush-interval=200ms");
+        ChatCheckpointService checkpointService = context.getBean(ChatCheckpointService.class);
+
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            Thread writer = new Thread(() -> {
+                String sessionId = args[2] + (thread % SESSIONS);
+                for (int i = 0; ; i++) {
+                    String messageId = "t" + thread + "-c" + i;
+                    checkpointService.saveCheckpoint("crash-chat", sessionId, messageId,
+                                                     JournalCrashRecoveryTest.messages(messageId));
+                    System.out.println("ACK " + sessionId + " " + messageId);
+                    System.out.flush();
+                }
+            }, "crash-writer-" + t);
+            writer.setDaemon(true);
+            writer.start();
+        }
+        // Never reached in the test; keeps a stray process from running forever
+        Thread.sleep(120_000);
+        System.exit(1);
+    }
+}
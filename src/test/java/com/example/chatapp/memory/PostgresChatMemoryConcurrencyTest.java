@@ -0,0 +1,136 @@
+package com.example.chatapp.memory;
+
+import com.example.chatapp.EmbeddedPostgresTest;
+import com.example.chatapp.model.ChatMessage;
+import com.example.chatapp.service.ChatCheckpointService;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Many threads writing checkpoints to one session at once: every message gets its own order, the orders have
+ * no gaps, each checkpoint's messages are contiguous and in request order, and the session counter matches
+ */
+@SpringBootTest
+class PostgresChatMemoryConcurrencyTest extends EmbeddedPostgresTest {
+
+    private static final int THREADS = 16;
+    private static final int CHECKPOINTS_PER_THREAD = 20;
+    private static final int MESSAGES_PER_CHECKPOINT = 3;
+
+    @Autowired
+    private PostgresChatMemory chatMemory;
+
+    @Autowired
+    private ChatCheckpointService checkpointService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void concurrentAddsToOneSessionGetContiguousOrders() throws Exception {
+        String chatId = "chat-" + UUID.randomUUID();
+        String sessionId = "session-" + UUID.randomUUID();
+
+        runConcurrently((thread, i) -> {
+            String messageId = "t" + thread + "-c" + i;
+            List<Message> messages = new ArrayList<>();
+            for (int position = 0; position < MESSAGES_PER_CHECKPOINT; position++) {
+                messages.add(position % 2 == 0 ? new UserMessage(messageId + "/" + position)
+                                               : new AssistantMessage(messageId + "/" + position));
+            }
+            assertThat(chatMemory.add(chatId, sessionId, messageId, messages)).isTrue();
+        });
+
+        assertStoredInOrder(sessionId, THREADS * CHECKPOINTS_PER_THREAD);
+    }
+
+    @Test
+    void concurrentSavesWithReplaysStoreEachCheckpointOnce() throws Exception {
+        String chatId = "chat-" + UUID.randomUUID();
+        String sessionId = "session-" + UUID.randomUUID();
+
+        // Every checkpoint is sent by two threads, through the coalescing write path of the API
+        runConcurrently((thread, i) -> {
+            String messageId = "t" + (thread / 2) + "-c" + i;
+            List<ChatMessage> messages = new ArrayList<>();
+            for (int position = 0; position < MESSAGES_PER_CHECKPOINT; position++) {
+                messages.add(new ChatMessage(position % 2 == 0 ? "USER" : "ASSISTANT", messageId + "/" + position));
+            }
+            assertThat(checkpointService.saveCheckpoint(chatId, sessionId, messageId, messages).getMessages())
+                    .hasSize(MESSAGES_PER_CHECKPOINT);
+        });
+
+        assertStoredInOrder(sessionId, THREADS / 2 * CHECKPOINTS_PER_THREAD);
+    }
+
+    private void runConcurrently(Write write) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                Callable<Void> task = () -> {
+                    start.await();
+                    for (int i = 0; i < CHECKPOINTS_PER_THREAD; i++) {
+                        write.run(thread, i);
+                    }
+                    return null;
+                };
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertStoredInOrder(String sessionId, int checkpoints) {
+        int expected = checkpoints * MESSAGES_PER_CHECKPOINT;
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT message_order, message_id, position, content FROM chat_messages "
+                        + "WHERE session_id = ? ORDER BY message_order", sessionId);
+
+        assertThat(rows).hasSize(expected);
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, Object> row = rows.get(i);
+            int position = i % MESSAGES_PER_CHECKPOINT;
+            String messageId = (String) rows.get(i - position).get("message_id");
+            assertThat(row.get("message_order")).isEqualTo(i + 1);
+            assertThat(row.get("message_id")).isEqualTo(messageId);
+            assertThat(row.get("position")).isEqualTo(position);
+            assertThat(row.get("content")).isEqualTo(messageId + "/" + position);
+        }
+        assertThat(rows.stream().map(row -> row.get("message_id")).distinct()).hasSize(checkpoints);
+
+        Integer messageCount = jdbcTemplate.queryForObject(
+                "SELECT message_count FROM chat_sessions WHERE session_id = ?", Integer.class, sessionId);
+        assertThat(messageCount).isEqualTo(expected);
+    }
+
+    @FunctionalInterface
+    private interface Write {
+        void run(int thread, int checkpoint) throws Exception;
+    }
+}